@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a logger holding a counter and two recorders for each of cardinality dimensions
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlushBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int cardinality;
+
+    private MetricsLogger metricsLogger;
+    private String[] dimensions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.metricsLogger = new MetricsLogger("service=Benchmark");
+        this.dimensions = new String[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            this.dimensions[i] = "api=Api" + i;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        for (final String dimensions : this.dimensions) {
+            final Metrics metrics = this.metricsLogger.extendDimensions(dimensions);
+            metrics.incCounter("Requests", 1);
+            metrics.record("Latency", 12.5, Unit.MILLI_SECOND);
+            metrics.record("Size", 1024, Unit.BYTE);
+        }
+    }
+
+    @Benchmark
+    public void flushToString(final Blackhole blackhole) {
+        this.metricsLogger.flushToString(blackhole::consume);
+    }
+}
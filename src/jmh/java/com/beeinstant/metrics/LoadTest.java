@@ -0,0 +1,237 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test: threads drive a mix of counters, timers and recorders through MetricsManager for a fixed
+ * duration, metrics are uploaded to a local stand-in PutMetric server, then the test reports ingest throughput,
+ * flush and upload latency, payload bytes, latency percentiles of the calling threads and whether every value
+ * arrived. Settings are system properties:
+ * <p>
+ * - load.threads, number of calling threads, default 8
+ * - load.durationSeconds, how long threads call MetricsManager, default 30
+ * - load.dimensions, number of distinct dimensions, default 100
+ * <p>
+ * beeinstant.* properties are passed on to MetricsManager, beeinstant.flush.interval defaults to 1 second.
+ */
+public class LoadTest {
+
+    private static final String COUNTER = "LoadCounter";
+    private static final String TIMER = "LoadTimer";
+    private static final String RECORDER = "LoadRecorder";
+
+    public static void main(final String[] args) throws Exception {
+        final int threads = Integer.getInteger("load.threads", 8);
+        final int durationSeconds = Integer.getInteger("load.durationSeconds", 30);
+        final int cardinality = Integer.getInteger("load.dimensions", 100);
+
+        final StandInServer server = new StandInServer();
+        System.setProperty("beeinstant.endpoint", "http://127.0.0.1:" + server.getPort());
+        System.setProperty("beeinstant.publicKey", "LoadTest");
+        System.setProperty("beeinstant.secretKey", "LoadTest");
+        System.setProperty("beeinstant.flush.interval", System.getProperty("beeinstant.flush.interval", "1"));
+        System.setProperty("beeinstant.flush.startDelay", "0");
+        MetricsManager.init("LoadTest", "Test", "localhost");
+        final SelfMetricsMBean selfMetrics = MetricsManager.getDefaultRegistry().getSelfMetrics();
+
+        final String[] dimensions = new String[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            dimensions[i] = "api=Api" + i;
+        }
+        final long deadline = System.nanoTime() + durationSeconds * 1000000000L;
+        final List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker(dimensions, deadline));
+        }
+        final long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (final Worker worker : workers) {
+            worker.join();
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+        final long shutdownStart = System.nanoTime();
+        MetricsManager.shutdown(60000);
+        final long shutdownMillis = (System.nanoTime() - shutdownStart) / 1000000;
+        server.stop();
+
+        long counters = 0, timers = 0, recorders = 0;
+        final long[] latencies = new long[SharedMemoryStore.BUCKETS];
+        for (final Worker worker : workers) {
+            counters += worker.counters;
+            timers += worker.timers;
+            recorders += worker.recorders;
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] += worker.latencies[i];
+            }
+        }
+        final long operations = counters + timers + recorders;
+        System.out.printf("threads %d, dimensions %d, duration %.1f s%n", threads, cardinality, elapsedNanos / 1e9);
+        System.out.printf("ingest: %d operations, %.0f ops/s%n", operations, operations * 1e9 / elapsedNanos);
+        System.out.printf("calling thread latency: p50 %.0f ns, p99 %.0f ns, p99.9 %.0f ns, max bucket %.0f ns%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                percentile(latencies, 1.0));
+        System.out.printf("flush: %d collects, %.1f ms average collect, %d ms final flush%n",
+                selfMetrics.getCollects(), average(selfMetrics.getCollectMillis(), selfMetrics.getCollects()),
+                shutdownMillis);
+        System.out.printf("upload: %d requests, %d failed, %.1f ms average, %d bytes, %.0f bytes per request%n",
+                server.requests.get(), selfMetrics.getFailedUploads(),
+                average(selfMetrics.getUploadMillis(), selfMetrics.getUploads()),
+                server.bytes.get(), average(server.bytes.get(), server.requests.get()));
+        System.out.printf("dropped: %d lines, %d bytes%n", selfMetrics.getDroppedLines(), selfMetrics.getDroppedBytes());
+        final boolean complete = server.counters.get() == counters && server.timers.get() == timers
+                && server.recorders.get() == recorders;
+        System.out.printf("arrived: counters %d/%d, timers %d/%d, recorders %d/%d, %s%n",
+                server.counters.get(), counters, server.timers.get(), timers, server.recorders.get(), recorders,
+                complete ? "complete" : "INCOMPLETE");
+        System.exit(complete ? 0 : 1);
+    }
+
+    private static double average(final long total, final long count) {
+        return count > 0 ? (double) total / count : 0.0;
+    }
+
+    private static double percentile(final long[] histogram, final double quantile) {
+        long total = 0;
+        for (final long count : histogram) {
+            total += count;
+        }
+        final long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank && histogram[bucket] > 0) {
+                return SharedMemoryStore.valueOf(bucket);
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Calling thread, latencies are kept in the log-scale buckets of the shared memory histograms
+     */
+    private static class Worker extends Thread {
+
+        private final String[] dimensions;
+        private final long deadline;
+        private final long[] latencies = new long[SharedMemoryStore.BUCKETS];
+        private long counters = 0;
+        private long timers = 0;
+        private long recorders = 0;
+
+        Worker(final String[] dimensions, final long deadline) {
+            this.dimensions = dimensions;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            long now = System.nanoTime();
+            while (now < deadline) {
+                final String dimensions = this.dimensions[random.nextInt(this.dimensions.length)];
+                final int operation = random.nextInt(3);
+                final long start = System.nanoTime();
+                final MetricsLogger metricsLogger = MetricsManager.getMetricsLogger(dimensions);
+                if (operation == 0) {
+                    metricsLogger.incCounter(COUNTER, 1);
+                    counters++;
+                } else if (operation == 1) {
+                    metricsLogger.startTimer(TIMER).close();
+                    timers++;
+                } else {
+                    metricsLogger.record(RECORDER, random.nextInt(1000), Unit.BYTE);
+                    recorders++;
+                }
+                now = System.nanoTime();
+                latencies[SharedMemoryStore.bucketOf(now - start)]++;
+            }
+        }
+    }
+
+    /**
+     * Stand-in for BeeInstant Server, which accepts any PutMetric request and counts the values it receives
+     */
+    private static class StandInServer {
+
+        private final HttpServer server;
+        private final AtomicLong requests = new AtomicLong(0);
+        private final AtomicLong bytes = new AtomicLong(0);
+        private final AtomicLong counters = new AtomicLong(0);
+        private final AtomicLong timers = new AtomicLong(0);
+        private final AtomicLong recorders = new AtomicLong(0);
+
+        StandInServer() throws IOException {
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            this.server.createContext("/PutMetric", exchange -> {
+                try (InputStream body = exchange.getRequestBody()) {
+                    receive(body);
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            this.server.start();
+        }
+
+        int getPort() {
+            return this.server.getAddress().getPort();
+        }
+
+        void stop() {
+            this.server.stop(0);
+        }
+
+        private void receive(final InputStream body) throws IOException {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.ISO_8859_1));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                this.bytes.addAndGet(line.length() + 1);
+                for (final String pair : line.split(",")) {
+                    final int separator = pair.indexOf('=');
+                    if (separator < 0) {
+                        continue;
+                    }
+                    final String name = pair.substring(0, separator);
+                    final String value = pair.substring(separator + 1);
+                    if (name.equals("m." + COUNTER)) {
+                        this.counters.addAndGet(Long.parseLong(value));
+                    } else if (name.equals("m." + TIMER)) {
+                        this.timers.addAndGet(value.split("\\+").length);
+                    } else if (name.equals("m." + RECORDER)) {
+                        this.recorders.addAndGet(value.split("\\+").length);
+                    }
+                }
+            }
+            this.requests.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of updates to a group of fanOut dimensions, as built by extendMultipleDimensions
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class MetricsGroupBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int fanOut;
+
+    private MetricsLogger metricsLogger;
+    private Metrics metricsGroup;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.metricsLogger = new MetricsLogger("service=Benchmark");
+        final String[] dimensionsGroup = new String[fanOut];
+        for (int i = 0; i < fanOut; i++) {
+            dimensionsGroup[i] = "api=Api" + i;
+        }
+        this.metricsGroup = this.metricsLogger.extendMultipleDimensions(dimensionsGroup);
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() {
+        this.metricsLogger.flushToRecords(record -> {
+        });
+    }
+
+    @Benchmark
+    public void incCounter() {
+        this.metricsGroup.incCounter("Requests", 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void incCounterContended() {
+        this.metricsGroup.incCounter("Requests", 1);
+    }
+
+    @Benchmark
+    public void record() {
+        this.metricsGroup.record("Size", 42.0, Unit.BYTE);
+    }
+
+    @Benchmark
+    public void startTimerAndClose() {
+        try (TimerMetric ignored = this.metricsGroup.startTimer("Latency")) {
+            // measure the timer itself
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates of a metrics logger, spread over cardinality metric names or dimensions. Recorded values are kept until
+ * flushed, so the logger is flushed after each iteration.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(1)
+@State(Scope.Benchmark)
+public class MetricsLoggerBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int cardinality;
+
+    private MetricsLogger metricsLogger;
+    private String[] names;
+    private String[] dimensions;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+
+        int next(final int cardinality) {
+            if (++this.next >= cardinality) {
+                this.next = 0;
+            }
+            return this.next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.metricsLogger = new MetricsLogger("service=Benchmark");
+        this.names = new String[cardinality];
+        this.dimensions = new String[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            this.names[i] = "Metric" + i;
+            this.dimensions[i] = "api=Api" + i;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() {
+        this.metricsLogger.flushToRecords(record -> {
+        });
+    }
+
+    @Benchmark
+    public void incCounter(final Cursor cursor) {
+        this.metricsLogger.incCounter(this.names[cursor.next(cardinality)], 1);
+    }
+
+    @Benchmark
+    public void record(final Cursor cursor) {
+        this.metricsLogger.record(this.names[cursor.next(cardinality)], 42.0, Unit.BYTE);
+    }
+
+    @Benchmark
+    public void startTimerAndClose(final Cursor cursor) {
+        try (TimerMetric ignored = this.metricsLogger.startTimer(this.names[cursor.next(cardinality)])) {
+            // measure the timer itself
+        }
+    }
+
+    @Benchmark
+    public Metrics extendDimensions(final Cursor cursor) {
+        return this.metricsLogger.extendDimensions(this.dimensions[cursor.next(cardinality)]);
+    }
+
+    @Benchmark
+    public void extendDimensionsAndIncCounter(final Cursor cursor) {
+        this.metricsLogger.extendDimensions(this.dimensions[cursor.next(cardinality)]).incCounter("Requests", 1);
+    }
+}
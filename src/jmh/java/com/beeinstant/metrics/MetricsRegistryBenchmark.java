@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of metrics loggers by dimensions, among cardinality loggers created before
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsRegistryBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int cardinality;
+
+    private MetricsRegistry registry;
+    private String[] dimensions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Properties properties = new Properties();
+        properties.setProperty("beeinstant.flush.manual", "true");
+        properties.setProperty("beeinstant.selfMetrics.jmx", "false");
+        properties.setProperty("beeinstant.config.jmx", "false");
+        this.registry = new MetricsRegistry("Benchmark", "Test", "localhost", properties);
+        this.dimensions = new String[cardinality];
+        for (int i = 0; i < cardinality; i++) {
+            this.dimensions[i] = "api=Api" + i;
+            this.registry.getMetricsLogger(this.dimensions[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.registry.shutdown();
+    }
+
+    @Benchmark
+    public MetricsLogger getMetricsLogger(final MetricsLoggerBenchmark.Cursor cursor) {
+        return this.registry.getMetricsLogger(this.dimensions[cursor.next(cardinality)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public MetricsLogger getMetricsLoggerContended(final MetricsLoggerBenchmark.Cursor cursor) {
+        return this.registry.getMetricsLogger(this.dimensions[cursor.next(cardinality)]);
+    }
+}
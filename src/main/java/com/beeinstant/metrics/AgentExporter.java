@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Send exported metrics to a MetricsAgent on the same host, one metric line per line over a loopback connection.
+ * The connection is opened lazily and opened again after a failure, a batch which cannot be sent is dropped.
+ */
+public class AgentExporter implements MetricsExporter {
+
+    private final InetSocketAddress agent;
+    private final int timeoutMillis;
+    private Socket socket;
+    private OutputStream output;
+    private byte[] line = new byte[1024];
+
+    public AgentExporter(final InetSocketAddress agent) {
+        this(agent, 1000);
+    }
+
+    public AgentExporter(final InetSocketAddress agent, final int timeoutMillis) {
+        this.agent = agent;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public boolean decodesCollapsedValues() {
+        return true;
+    }
+
+    @Override
+    public synchronized void export(final List<MetricRecord> records) throws IOException {
+        try {
+            if (this.socket == null) {
+                connect();
+            }
+            for (final MetricRecord record : records) {
+                write(record);
+            }
+            this.output.flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.socket != null) {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            this.socket = null;
+            this.output = null;
+        }
+    }
+
+    private void connect() throws IOException {
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(this.agent, this.timeoutMillis);
+            this.output = new BufferedOutputStream(socket.getOutputStream(), 65536);
+            this.socket = socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void write(final MetricRecord record) throws IOException {
+        final String dimensions = record.getDimensionsString();
+        final String metrics = record.getMetricsString();
+        final int lineBytes = dimensions.length() + metrics.length() + 2;
+        if (lineBytes > this.line.length) {
+            this.line = new byte[Math.max(lineBytes, 2 * this.line.length)];
+        }
+        int length = Payload.encode(dimensions, this.line, 0);
+        this.line[length++] = ',';
+        length = Payload.encode(metrics, this.line, length);
+        this.line[length++] = '\n';
+        this.output.write(this.line, 0, length);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Send requests with the non-blocking Apache HTTP client. Requests are multiplexed by an I/O reactor,
+ * no thread waits for a response. The number of requests in flight is bounded.
+ * <p>
+ * Connections live at most connectionTtlMillis and are closed after idleTimeoutMillis without use. The I/O reactor
+ * notices connections closed by the server, so they don't need to be validated before reuse. Responses are fully
+ * read by the client.
+ */
+class AsyncHttpTransport implements MetricsTransport {
+
+    private static final Logger LOG = Logger.getLogger(AsyncHttpTransport.class);
+
+    private final HttpHost host;
+    private final int timeoutMillis;
+    private final long idleTimeoutMillis;
+    private final PoolingNHttpClientConnectionManager poolManager;
+    private final CloseableHttpAsyncClient httpClient;
+    private final Semaphore inFlight;
+
+    AsyncHttpTransport(final HttpHost host,
+                       final int maxInFlight,
+                       final int timeoutMillis,
+                       final long connectionTtlMillis,
+                       final long idleTimeoutMillis) throws IOReactorException {
+        this.host = host;
+        this.timeoutMillis = timeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.poolManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                        .setIoThreadCount(1)
+                        .setConnectTimeout(timeoutMillis)
+                        .setSoTimeout(timeoutMillis)
+                        .build()),
+                null,
+                RegistryBuilder.<SchemeIOSessionStrategy>create()
+                        .register("http", NoopIOSessionStrategy.INSTANCE)
+                        .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                        .build(),
+                null,
+                null,
+                connectionTtlMillis,
+                TimeUnit.MILLISECONDS);
+        this.poolManager.setMaxTotal(maxInFlight);
+        this.poolManager.setDefaultMaxPerRoute(maxInFlight);
+        this.httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(this.poolManager)
+                .setKeepAliveStrategy(MetricsTransport::getKeepAliveMillis)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeoutMillis)
+                        .setConnectionRequestTimeout(timeoutMillis)
+                        .setSocketTimeout(timeoutMillis)
+                        .build())
+                .build();
+        this.httpClient.start();
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public CompletableFuture<RetryScheduler.Result> send(final HttpPost request) {
+        try {
+            this.inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(RetryScheduler.Result.RETRY);
+        }
+        final CompletableFuture<RetryScheduler.Result> result = new CompletableFuture<>();
+        try {
+            this.httpClient.execute(this.host, request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(final HttpResponse response) {
+                    LOG.info("Response: " + response.getStatusLine().getStatusCode());
+                    result.complete(MetricsTransport.resultOf(response));
+                }
+
+                @Override
+                public void failed(final Exception e) {
+                    LOG.error("Fail to emit metrics", e);
+                    result.complete(RetryScheduler.Result.RETRY);
+                }
+
+                @Override
+                public void cancelled() {
+                    result.complete(RetryScheduler.Result.RETRY);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOG.error("Fail to emit metrics", e);
+            result.complete(RetryScheduler.Result.RETRY);
+        }
+        return result.whenComplete((r, e) -> this.inFlight.release());
+    }
+
+    @Override
+    public CompletableFuture<Void> warmUp(final int requestedConnections) {
+        final int connections = Math.min(requestedConnections, this.poolManager.getMaxTotal());
+        if (connections <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final HttpRoute route = MetricsTransport.routeOf(this.host);
+        final List<NHttpClientConnection> leased = new ArrayList<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final AtomicInteger remaining = new AtomicInteger(connections);
+        // keep connections leased until all are open, a released connection would be leased again
+        final Runnable release = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (leased) {
+                    leased.forEach(connection -> this.poolManager.releaseConnection(connection, null, this.idleTimeoutMillis, TimeUnit.MILLISECONDS));
+                }
+                done.complete(null);
+            }
+        };
+        for (int i = 0; i < connections; i++) {
+            this.poolManager.requestConnection(route, null, this.timeoutMillis, this.timeoutMillis, TimeUnit.MILLISECONDS,
+                    new FutureCallback<NHttpClientConnection>() {
+                        @Override
+                        public void completed(final NHttpClientConnection connection) {
+                            synchronized (leased) {
+                                leased.add(connection);
+                            }
+                            try {
+                                if (!poolManager.isRouteComplete(connection)) {
+                                    final HttpClientContext context = HttpClientContext.create();
+                                    poolManager.startRoute(connection, route, context);
+                                    poolManager.routeComplete(connection, route, context);
+                                }
+                            } catch (IOException | RuntimeException e) {
+                                LOG.warn("Cannot open connection to " + host, e);
+                            }
+                            release.run();
+                        }
+
+                        @Override
+                        public void failed(final Exception e) {
+                            LOG.warn("Cannot open connection to " + host, e);
+                            release.run();
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            release.run();
+                        }
+                    });
+        }
+        return done;
+    }
+
+    @Override
+    public void evictConnections() {
+        this.poolManager.closeExpiredConnections();
+        this.poolManager.closeIdleConnections(this.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return this.poolManager.getTotalStats();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.httpClient.close();
+        } catch (IOException e) {
+            LOG.error("Cannot close HTTP client", e);
+        }
+    }
+}
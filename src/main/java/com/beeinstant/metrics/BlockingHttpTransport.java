@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Send requests with the blocking Apache HTTP client on a pool of upload threads, one connection per thread.
+ * <p>
+ * Connections live at most connectionTtlMillis, are closed after idleTimeoutMillis without use and are validated
+ * before reuse when they have been inactive for validateAfterInactivityMillis. Responses are fully read, so
+ * connections go back to the pool instead of being closed.
+ */
+class BlockingHttpTransport implements MetricsTransport {
+
+    private static final Logger LOG = Logger.getLogger(BlockingHttpTransport.class);
+
+    private final HttpHost host;
+    private final int timeoutMillis;
+    private final long idleTimeoutMillis;
+    private final PoolingHttpClientConnectionManager poolManager;
+    private final CloseableHttpClient httpClient;
+    private final ExecutorService executorService;
+    private final Semaphore inFlight;
+
+    BlockingHttpTransport(final HttpHost host,
+                          final int threads,
+                          final int timeoutMillis,
+                          final long connectionTtlMillis,
+                          final long idleTimeoutMillis,
+                          final int validateAfterInactivityMillis) {
+        this.host = host;
+        this.timeoutMillis = timeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.poolManager = new PoolingHttpClientConnectionManager(connectionTtlMillis, TimeUnit.MILLISECONDS);
+        this.poolManager.setMaxTotal(threads);
+        this.poolManager.setDefaultMaxPerRoute(threads);
+        this.poolManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.poolManager)
+                .setKeepAliveStrategy(MetricsTransport::getKeepAliveMillis)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeoutMillis)
+                        .setConnectionRequestTimeout(timeoutMillis)
+                        .setSocketTimeout(timeoutMillis)
+                        .build())
+                .setRetryHandler(new DefaultHttpRequestRetryHandler(0, false)) // retried by RetryScheduler
+                .build();
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.inFlight = new Semaphore(threads);
+    }
+
+    @Override
+    public CompletableFuture<RetryScheduler.Result> send(final HttpPost request) {
+        try {
+            this.inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(RetryScheduler.Result.RETRY);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> execute(request), this.executorService)
+                    .whenComplete((result, e) -> this.inFlight.release());
+        } catch (RejectedExecutionException e) {
+            this.inFlight.release();
+            LOG.debug("Transport is closed, upload in the current thread");
+            return CompletableFuture.completedFuture(execute(request));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> warmUp(final int connections) {
+        try {
+            return CompletableFuture.runAsync(() -> openConnections(connections), this.executorService);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    @Override
+    public void evictConnections() {
+        this.poolManager.closeExpiredConnections();
+        this.poolManager.closeIdleConnections(this.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return this.poolManager.getTotalStats();
+    }
+
+    @Override
+    public void close() {
+        this.executorService.shutdown();
+        this.poolManager.shutdown();
+    }
+
+    private RetryScheduler.Result execute(final HttpPost request) {
+        try (CloseableHttpResponse response = this.httpClient.execute(this.host, request)) {
+            // read the response to the end, otherwise the connection cannot be reused
+            EntityUtils.consumeQuietly(response.getEntity());
+            LOG.info("Response: " + response.getStatusLine().getStatusCode());
+            return MetricsTransport.resultOf(response);
+        } catch (Throwable e) {
+            LOG.error("Fail to emit metrics", e);
+            return RetryScheduler.Result.RETRY;
+        } finally {
+            request.releaseConnection();
+        }
+    }
+
+    private void openConnections(final int connections) {
+        final HttpRoute route = MetricsTransport.routeOf(this.host);
+        final List<HttpClientConnection> leased = new ArrayList<>();
+        try {
+            // lease all connections first, a released connection would be leased again
+            for (int i = 0; i < Math.min(connections, this.poolManager.getMaxTotal()); i++) {
+                leased.add(this.poolManager.requestConnection(route, null).get(this.timeoutMillis, TimeUnit.MILLISECONDS));
+            }
+            for (final HttpClientConnection connection : leased) {
+                if (!connection.isOpen()) {
+                    final HttpClientContext context = HttpClientContext.create();
+                    this.poolManager.connect(connection, route, this.timeoutMillis, context);
+                    this.poolManager.routeComplete(connection, route, context);
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Cannot open connections to " + this.host, e);
+        } finally {
+            leased.forEach(connection -> this.poolManager.releaseConnection(connection, null, this.idleTimeoutMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+}
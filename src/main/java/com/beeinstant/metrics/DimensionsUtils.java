@@ -21,6 +21,7 @@ package com.beeinstant.metrics;
 
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -36,6 +37,13 @@ class DimensionsUtils {
     }
 
     static Map<String, String> parseDimensions(final String dimensions) {
+        return parseDimensions(dimensions, MetricsManager::reportError);
+    }
+
+    /**
+     * @param errorReporter, counts and logs invalid dimensions in the registry parsing them
+     */
+    static Map<String, String> parseDimensions(final String dimensions, final Consumer<String> errorReporter) {
         final Map<String, String> dimensionsMap = new TreeMap<>();
         final String[] keyValuePairs = dimensions.split(",");
 
@@ -47,11 +55,11 @@ class DimensionsUtils {
                 if (isValidName(key) && isValidName(value)) {
                     dimensionsMap.put(key, value);
                 } else {
-                    MetricsManager.reportError("Invalid dimension key or value pair " + key + "=" + value);
+                    errorReporter.accept("Invalid dimension key or value pair " + key + "=" + value);
                     return new TreeMap<>();
                 }
             } else {
-                MetricsManager.reportError("Invalid dimension key=value pair format " + keyValuePair);
+                errorReporter.accept("Invalid dimension key=value pair format " + keyValuePair);
                 return new TreeMap<>();
             }
         }
@@ -60,7 +68,12 @@ class DimensionsUtils {
     }
 
     static String extendAndSerializeDimensions(final Map<String, String> rootDimensions, final String dimensions) {
-        final Map<String, String> newDimensions = parseDimensions(dimensions);
+        return extendAndSerializeDimensions(rootDimensions, dimensions, MetricsManager::reportError);
+    }
+
+    static String extendAndSerializeDimensions(final Map<String, String> rootDimensions, final String dimensions,
+                                               final Consumer<String> errorReporter) {
+        final Map<String, String> newDimensions = parseDimensions(dimensions, errorReporter);
         if (!newDimensions.isEmpty()) {
             rootDimensions.forEach(newDimensions::putIfAbsent);
             return serializeDimensionsToString(newDimensions);
@@ -0,0 +1,332 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead spool keeping payloads which cannot be sent on disk until they can be replayed.
+ * <p>
+ * Payloads are appended as records to fixed-size memory-mapped segment files and read back oldest-first.
+ * A segment starts with a header (magic, read position) followed by records (length, CRC32, bytes), a zero
+ * length marks the end of written records. Read records are committed by moving the read position in the header,
+ * so the spool survives process restarts. A fully read segment is deleted. When the spool reaches its size cap,
+ * the oldest segment is dropped to make room.
+ * <p>
+ * Records are not forced to disk on every append, they are safe when the process dies but may be lost when the host
+ * crashes. This class is thread-safe.
+ */
+class DiskSpool implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(DiskSpool.class);
+    private static final int MAGIC = 0xBEE50001;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSequence = 0;
+    private int pendingPosition = -1;
+
+    DiskSpool(final File directory, final int segmentBytes, final long maxBytes) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException("Spool segments are too small");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spool directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = Math.max(maxBytes, segmentBytes);
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (final File file : files) {
+                try {
+                    final Segment segment = new Segment(file, sequenceOf(file), false);
+                    this.segments.addLast(segment);
+                    this.nextSequence = segment.sequence + 1;
+                } catch (IOException | RuntimeException e) {
+                    LOG.error("Drop unreadable spool segment " + file, e);
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a payload to the spool
+     *
+     * @param payload, metric lines separated and terminated by new lines
+     * @return false if the payload is too big for a segment or cannot be written
+     */
+    synchronized boolean append(final String payload) {
+        final byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        if (RECORD_HEADER_BYTES + bytes.length > this.segmentBytes - HEADER_BYTES) {
+            LOG.warn("Payload of " + bytes.length + " bytes is too big for the spool");
+            return false;
+        }
+        try {
+            Segment segment = this.segments.peekLast();
+            if (segment == null || !segment.hasRoomFor(bytes.length)) {
+                segment = newSegment();
+            }
+            segment.append(bytes);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Cannot write to spool " + this.directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * Read the oldest records, as many as fit into maxBytes but at least one. Records are not removed from the spool
+     * until commit is called, reading again without commit returns the same records.
+     *
+     * @param maxBytes, maximum size of the returned payload
+     * @return payload of the oldest records or null if the spool is empty
+     */
+    synchronized String read(final int maxBytes) {
+        Segment segment;
+        while ((segment = this.segments.peekFirst()) != null) {
+            final StringBuilder builder = new StringBuilder();
+            final int position = segment.readRecords(builder, maxBytes);
+            if (builder.length() > 0) {
+                this.pendingPosition = position;
+                return builder.toString();
+            }
+            if (segment == this.segments.peekLast()) {
+                segment.reset();
+                return null;
+            }
+            removeFirstSegment();
+        }
+        return null;
+    }
+
+    /**
+     * Remove the records returned by the last read from the spool
+     */
+    synchronized void commit() {
+        final Segment segment = this.segments.peekFirst();
+        if (segment != null && this.pendingPosition > 0) {
+            segment.setReadPosition(this.pendingPosition);
+            if (segment.isFullyRead()) {
+                if (segment == this.segments.peekLast()) {
+                    segment.reset();
+                } else {
+                    removeFirstSegment();
+                }
+            }
+        }
+        this.pendingPosition = -1;
+    }
+
+    synchronized boolean isEmpty() {
+        for (final Segment segment : this.segments) {
+            if (!segment.isFullyRead()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get disk space used by the spool
+     *
+     * @return number of bytes of all segment files
+     */
+    synchronized long bytes() {
+        return (long) this.segments.size() * this.segmentBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.segments.forEach(Segment::close);
+        this.segments.clear();
+    }
+
+    private Segment newSegment() throws IOException {
+        while (!this.segments.isEmpty() && bytes() + this.segmentBytes > this.maxBytes) {
+            LOG.warn("Spool " + this.directory + " is full, drop the oldest segment");
+            removeFirstSegment();
+        }
+        final File file = new File(this.directory, String.format("%s%020d%s", SEGMENT_PREFIX, this.nextSequence, SEGMENT_SUFFIX));
+        final Segment segment = new Segment(file, this.nextSequence++, true);
+        this.segments.addLast(segment);
+        return segment;
+    }
+
+    private void removeFirstSegment() {
+        final Segment segment = this.segments.pollFirst();
+        if (segment != null) {
+            segment.close();
+            deleteFile(segment.file);
+        }
+        this.pendingPosition = -1;
+    }
+
+    private static void deleteFile(final File file) {
+        if (!file.delete()) {
+            LOG.error("Cannot delete spool segment " + file);
+        }
+    }
+
+    private static long sequenceOf(final File file) {
+        final String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private class Segment {
+
+        private final File file;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        Segment(final File file, final long sequence, final boolean create) throws IOException {
+            this.file = file;
+            this.sequence = sequence;
+            // the mapping stays valid after the file is closed
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+            if (create) {
+                this.buffer.putInt(0, MAGIC);
+                reset();
+            } else {
+                if (this.buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Invalid spool segment " + file);
+                }
+                this.writePosition = scanRecords();
+            }
+        }
+
+        boolean hasRoomFor(final int length) {
+            return this.writePosition + RECORD_HEADER_BYTES + length <= segmentBytes;
+        }
+
+        void append(final byte[] bytes) {
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            final int position = this.writePosition;
+            this.buffer.putInt(position + 4, (int) crc.getValue());
+            final ByteBuffer record = this.buffer.duplicate();
+            record.position(position + RECORD_HEADER_BYTES);
+            record.put(bytes);
+            this.writePosition = position + RECORD_HEADER_BYTES + bytes.length;
+            if (this.writePosition + 4 <= segmentBytes) {
+                // end marker, overwrites records left over from before the segment was reset
+                this.buffer.putInt(this.writePosition, 0);
+            }
+            // the length goes last, a record is only visible once it is complete
+            this.buffer.putInt(position, bytes.length);
+        }
+
+        int readRecords(final StringBuilder builder, final int maxBytes) {
+            int position = getReadPosition();
+            while (position < this.writePosition) {
+                final int length = this.buffer.getInt(position);
+                final byte[] bytes = readRecord(position);
+                if (bytes == null) {
+                    LOG.error("Corrupted record in spool segment " + this.file + ", skip the rest of the segment");
+                    this.writePosition = position;
+                    break;
+                }
+                if (builder.length() > 0 && builder.length() + bytes.length > maxBytes) {
+                    break;
+                }
+                builder.append(new String(bytes, StandardCharsets.UTF_8));
+                position += RECORD_HEADER_BYTES + length;
+            }
+            return position;
+        }
+
+        int getReadPosition() {
+            return this.buffer.getInt(4);
+        }
+
+        void setReadPosition(final int readPosition) {
+            this.buffer.putInt(4, readPosition);
+        }
+
+        boolean isFullyRead() {
+            return getReadPosition() >= this.writePosition;
+        }
+
+        void reset() {
+            this.writePosition = HEADER_BYTES;
+            this.buffer.putInt(HEADER_BYTES, 0);
+            setReadPosition(HEADER_BYTES);
+        }
+
+        void close() {
+            this.buffer.force();
+        }
+
+        private int scanRecords() {
+            int position = getReadPosition();
+            if (position < HEADER_BYTES || position > segmentBytes) {
+                throw new IllegalStateException("Invalid read position in spool segment " + this.file);
+            }
+            while (readRecord(position) != null) {
+                position += RECORD_HEADER_BYTES + this.buffer.getInt(position);
+            }
+            return position;
+        }
+
+        private byte[] readRecord(final int position) {
+            if (position + RECORD_HEADER_BYTES > segmentBytes) {
+                return null;
+            }
+            final int length = this.buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_BYTES + length > segmentBytes) {
+                return null;
+            }
+            final byte[] bytes = new byte[length];
+            final ByteBuffer record = this.buffer.duplicate();
+            record.position(position + RECORD_HEADER_BYTES);
+            record.get(bytes);
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != this.buffer.getInt(position + 4)) {
+                return null;
+            }
+            return bytes;
+        }
+    }
+}
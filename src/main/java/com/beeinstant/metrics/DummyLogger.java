@@ -21,6 +21,7 @@ package com.beeinstant.metrics;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 class DummyLogger extends MetricsLogger {
@@ -51,6 +52,11 @@ class DummyLogger extends MetricsLogger {
         //do nothing
     }
 
+    @Override
+    public CompletableFuture<Void> flushAsync(long now) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public void incCounter(String counterName, int value) {
         //do nothing
@@ -71,6 +77,11 @@ class DummyLogger extends MetricsLogger {
         //do nothing
     }
 
+    @Override
+    void flushToRecords(Consumer<MetricRecord> consumer) {
+        //do nothing
+    }
+
     @Override
     Map<String, String> getRootDimensions() {
         return Collections.EMPTY_MAP;
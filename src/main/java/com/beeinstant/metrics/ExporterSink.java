@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feed a MetricsExporter from its own bounded queue of batches on its own thread. When the queue is full the
+ * oldest batch is dropped. This class is thread-safe.
+ */
+class ExporterSink {
+
+    private static final Logger LOG = Logger.getLogger(ExporterSink.class);
+    private static final List<MetricRecord> POISON = Collections.emptyList();
+
+    private final MetricsExporter exporter;
+    private final BlockingQueue<List<MetricRecord>> batches;
+    private final AtomicLong droppedBatches = new AtomicLong(0);
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    ExporterSink(final MetricsExporter exporter, final int maxBatches) {
+        this.exporter = exporter;
+        this.batches = new ArrayBlockingQueue<>(Math.max(1, maxBatches));
+        this.thread = new Thread(this::run, "beeinstant-exporter-" + exporter.getClass().getSimpleName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    MetricsExporter getExporter() {
+        return this.exporter;
+    }
+
+    /**
+     * Queue a batch for export, never blocks
+     */
+    void offer(final List<MetricRecord> batch) {
+        if (this.closed || batch.isEmpty()) {
+            return;
+        }
+        while (!this.batches.offer(batch)) {
+            if (this.batches.poll() != null) {
+                this.droppedBatches.incrementAndGet();
+                LOG.warn("Exporter " + this.exporter.getClass().getSimpleName() + " is too slow, drop a batch");
+            }
+        }
+    }
+
+    long getDroppedBatches() {
+        return this.droppedBatches.get();
+    }
+
+    /**
+     * Export queued batches then close the exporter
+     *
+     * @param timeoutMillis, how long to wait for queued batches to be exported
+     */
+    void close(final long timeoutMillis) {
+        this.closed = true;
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            if (this.batches.offer(POISON, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                this.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.thread.isAlive()) {
+            LOG.warn("Exporter " + this.exporter.getClass().getSimpleName() + " did not finish in time, drop its batches");
+            this.thread.interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            List<MetricRecord> batch;
+            while ((batch = this.batches.take()) != POISON) {
+                try {
+                    this.exporter.export(batch);
+                } catch (Throwable e) {
+                    LOG.error("Exporter " + this.exporter.getClass().getSimpleName() + " failed, drop a batch", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Exporter thread is interrupted");
+        } finally {
+            try {
+                this.exporter.close();
+            } catch (Throwable e) {
+                LOG.error("Cannot close exporter " + this.exporter.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Schedule periodic flushes. Each host flushes at its own offset within the interval, optionally aligned to
+ * wall-clock multiples of the interval, so that hosts started together don't flush together. A flush is skipped
+ * while uploads of the previous one are still running, metrics keep aggregating and go out with the next flush,
+ * and boundaries missed by a slow flush are skipped instead of firing back-to-back. The interval is halved when a
+ * flush carries more than the target volume and doubled when it carries less than a quarter of it, within bounds.
+ * Intervals can be changed while running, the next flush is brought forward if the new interval is shorter.
+ */
+class FlushScheduler {
+
+    private static final Logger LOG = Logger.getLogger(FlushScheduler.class);
+
+    private final ScheduledExecutorService executorService;
+    private final Runnable collect;
+    private final LongSupplier bufferedBytes;
+    private final Supplier<CompletableFuture<Void>> flush;
+    private final LongSupplier clock;
+    private final long offsetMillis;
+    private final boolean align;
+    private volatile long minIntervalMillis;
+    private volatile long maxIntervalMillis;
+    private final long targetBytes;
+    private final AtomicLong skippedFlushes = new AtomicLong(0);
+    private volatile long intervalMillis;
+    private volatile long nextRunMillis;
+    private volatile CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+    // only the run scheduled last is live, runs scheduled before a re-arm do nothing
+    private long generation = 0;
+    private boolean started = false;
+    private boolean stopped = false;
+
+    /**
+     * @param collect,       move collected metrics into the queue
+     * @param bufferedBytes, bytes waiting in the queue
+     * @param flush,         upload the queue, the returned future completes when uploads are done
+     * @param clock,         wall clock in milliseconds
+     * @param offsetMillis,  offset of this host within the interval
+     * @param align,         flush at multiples of the interval plus the offset
+     * @param targetBytes,   volume of one flush the interval adapts to, 0 to keep the interval fixed
+     */
+    FlushScheduler(final ScheduledExecutorService executorService,
+                   final Runnable collect,
+                   final LongSupplier bufferedBytes,
+                   final Supplier<CompletableFuture<Void>> flush,
+                   final LongSupplier clock,
+                   final long intervalMillis,
+                   final long minIntervalMillis,
+                   final long maxIntervalMillis,
+                   final long offsetMillis,
+                   final boolean align,
+                   final long targetBytes) {
+        this.executorService = executorService;
+        this.collect = collect;
+        this.bufferedBytes = bufferedBytes;
+        this.flush = flush;
+        this.clock = clock;
+        this.minIntervalMillis = Math.max(1, Math.min(minIntervalMillis, intervalMillis));
+        this.maxIntervalMillis = Math.max(maxIntervalMillis, intervalMillis);
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.offsetMillis = offsetMillis;
+        this.align = align;
+        this.targetBytes = targetBytes;
+    }
+
+    /**
+     * Schedule the first flush after a delay
+     */
+    synchronized void start(final long startDelayMillis) {
+        this.started = true;
+        final long now = this.clock.getAsLong();
+        this.nextRunMillis = this.align
+                ? nextBoundary(now + startDelayMillis)
+                : now + startDelayMillis + this.offsetMillis;
+        schedule(now);
+    }
+
+    long getIntervalMillis() {
+        return this.intervalMillis;
+    }
+
+    long getMinIntervalMillis() {
+        return this.minIntervalMillis;
+    }
+
+    long getMaxIntervalMillis() {
+        return this.maxIntervalMillis;
+    }
+
+    /**
+     * Change the intervals, the interval is kept within the bounds. The next flush is re-armed if it would come later
+     * than one new interval from now.
+     */
+    synchronized void setIntervals(final long intervalMillis, final long minIntervalMillis, final long maxIntervalMillis) {
+        if (intervalMillis <= 0 || minIntervalMillis <= 0 || minIntervalMillis > maxIntervalMillis) {
+            throw new IllegalArgumentException("Invalid flush intervals " + intervalMillis + ", "
+                    + minIntervalMillis + ", " + maxIntervalMillis);
+        }
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.intervalMillis = Math.max(minIntervalMillis, Math.min(maxIntervalMillis, intervalMillis));
+        LOG.info("Flush interval changed to " + this.intervalMillis + " ms");
+        if (this.started) {
+            final long now = this.clock.getAsLong();
+            final long next = this.align ? nextBoundary(now + 1) : now + this.intervalMillis;
+            if (next < this.nextRunMillis) {
+                this.nextRunMillis = next;
+                schedule(now);
+            }
+        }
+    }
+
+    /**
+     * Stop scheduling flushes, a flush which is scheduled already does nothing when it comes due
+     */
+    synchronized void stop() {
+        this.stopped = true;
+        this.generation++;
+    }
+
+    /**
+     * @return uploads of the last flush, completed if there was none
+     */
+    CompletableFuture<Void> getLastFlush() {
+        return this.lastFlush;
+    }
+
+    long getNextRunMillis() {
+        return this.nextRunMillis;
+    }
+
+    long getSkippedFlushes() {
+        return this.skippedFlushes.get();
+    }
+
+    /**
+     * Run one flush and schedule the next one, visible for tests
+     */
+    void run() {
+        try {
+            if (!this.lastFlush.isDone()) {
+                this.skippedFlushes.incrementAndGet();
+                LOG.warn("Previous flush is still uploading, skip this flush");
+            } else {
+                this.collect.run();
+                final long bytes = this.bufferedBytes.getAsLong();
+                this.lastFlush = this.flush.get();
+                adapt(bytes);
+            }
+        } catch (Throwable e) {
+            // Don't stop the thread
+            LOG.error(e);
+        }
+        synchronized (this) {
+            if (!this.stopped) {
+                final long now = this.clock.getAsLong();
+                this.nextRunMillis = nextRunAfter(this.nextRunMillis, now);
+                schedule(now);
+            }
+        }
+    }
+
+    /**
+     * The run after the given one, boundaries already passed are skipped
+     */
+    long nextRunAfter(final long previousRunMillis, final long now) {
+        if (this.align) {
+            if (now >= previousRunMillis + this.intervalMillis) {
+                this.skippedFlushes.addAndGet((now - previousRunMillis) / this.intervalMillis);
+            }
+            return nextBoundary(Math.max(previousRunMillis, now) + 1);
+        }
+        long next = previousRunMillis + this.intervalMillis;
+        if (next <= now) {
+            final long missed = (now - next) / this.intervalMillis + 1;
+            this.skippedFlushes.addAndGet(missed);
+            next += missed * this.intervalMillis;
+        }
+        return next;
+    }
+
+    /**
+     * The first multiple of the interval plus the offset at or after a time
+     */
+    long nextBoundary(final long time) {
+        final long base = time - this.offsetMillis;
+        final long boundary = Math.floorDiv(base + this.intervalMillis - 1, this.intervalMillis) * this.intervalMillis;
+        return boundary + this.offsetMillis;
+    }
+
+    private void adapt(final long bytes) {
+        if (this.targetBytes <= 0) {
+            return;
+        }
+        final long interval = this.intervalMillis;
+        if (bytes > this.targetBytes) {
+            this.intervalMillis = Math.max(this.minIntervalMillis, interval / 2);
+        } else if (bytes < this.targetBytes / 4) {
+            this.intervalMillis = Math.min(this.maxIntervalMillis, interval * 2);
+        }
+        if (this.intervalMillis != interval) {
+            LOG.debug("Flush interval changed to " + this.intervalMillis + " ms");
+        }
+    }
+
+    private void runScheduled(final long generation) {
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+        }
+        run();
+    }
+
+    private void schedule(final long now) {
+        final long generation = ++this.generation;
+        try {
+            this.executorService.schedule(() -> runScheduled(generation), Math.max(0, this.nextRunMillis - now), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Flush executor is shut down");
+        }
+    }
+}
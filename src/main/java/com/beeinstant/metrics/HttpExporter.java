@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.HttpHost;
+
+import javax.crypto.Mac;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Upload exported metrics to a BeeInstant endpoint, e.g. a second account next to the one MetricsManager uploads
+ * to. Batches are split into signed payloads of at most maxPayloadBytes bytes. Failed uploads are not retried.
+ */
+public class HttpExporter implements MetricsExporter {
+
+    private final MetricsTransport transport;
+    private final String publicKey;
+    private final String secretKey;
+    private final int maxPayloadBytes;
+
+    public HttpExporter(final String endpoint, final String publicKey, final String secretKey) {
+        this(newTransport(endpoint), publicKey, secretKey, 1048576);
+    }
+
+    HttpExporter(final MetricsTransport transport, final String publicKey, final String secretKey,
+                 final int maxPayloadBytes) {
+        this.transport = transport;
+        this.publicKey = publicKey;
+        this.secretKey = secretKey;
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    @Override
+    public void export(final List<MetricRecord> records) throws IOException {
+        final long now = System.currentTimeMillis() / 1000;
+        Payload payload = newPayload();
+        for (final MetricRecord record : records) {
+            final String line = record.toString();
+            if (!payload.isEmpty() && payload.length() + line.length() + 1 > this.maxPayloadBytes) {
+                send(payload, now);
+                payload = newPayload();
+            }
+            payload.appendLine(line);
+        }
+        if (!payload.isEmpty()) {
+            send(payload, now);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.transport.close();
+    }
+
+    private Payload newPayload() throws IOException {
+        try {
+            final Mac mac = Signature.getMac(this.secretKey);
+            return new Payload(mac, Math.min(this.maxPayloadBytes, 4096));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot sign metrics", e);
+        }
+    }
+
+    private void send(final Payload payload, final long now) throws IOException {
+        payload.sign();
+        try {
+            if (this.transport.send(MetricsTransport.newPutMetricRequest(payload, this.publicKey, now)).join().isRetryable()) {
+                throw new IOException("Fail to upload " + payload.length() + " bytes of metrics");
+            }
+        } catch (CompletionException e) {
+            throw new IOException("Fail to upload " + payload.length() + " bytes of metrics", e.getCause());
+        }
+    }
+
+    private static MetricsTransport newTransport(final String endpoint) {
+        final HttpHost host = MetricsRegistry.createHostFromEndpoint(endpoint);
+        if (host == null) {
+            throw new IllegalArgumentException("Invalid endpoint " + endpoint);
+        }
+        return new BlockingHttpTransport(host, 1, 10000, 300000, 30000, 2000);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keep exported metrics in memory, for tests. This class is thread-safe.
+ */
+public class InMemoryExporter implements MetricsExporter {
+
+    private final List<MetricRecord> records = new ArrayList<>();
+
+    @Override
+    public synchronized void export(final List<MetricRecord> records) {
+        this.records.addAll(records);
+        notifyAll();
+    }
+
+    /**
+     * @return records exported so far
+     */
+    public synchronized List<MetricRecord> getRecords() {
+        return new ArrayList<>(this.records);
+    }
+
+    /**
+     * Wait until some records are exported
+     *
+     * @return records exported so far, maybe fewer than expected on timeout
+     */
+    public synchronized List<MetricRecord> awaitRecords(final int count, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (this.records.size() < count && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return getRecords();
+    }
+
+    public synchronized void clear() {
+        this.records.clear();
+    }
+}
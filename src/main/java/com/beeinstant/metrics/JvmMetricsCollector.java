@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Sample JVM runtime metrics from the platform MXBeans: GC counts and times, heap, non-heap and memory pool usage,
+ * thread counts, class loading and, on JVMs which expose them, safepoint statistics. It runs at each flush, counts
+ * and times are recorded as increases since the previous sample, starting from the second sample.
+ * <p>
+ * This class is thread-safe. Flushes run on the flush thread and on application threads calling flushAll, so
+ * samples are taken one at a time and each increase is recorded once.
+ */
+class JvmMetricsCollector {
+
+    private static final Logger LOG = Logger.getLogger(JvmMetricsCollector.class);
+    private static final String PREFIX = "jvm.";
+    private static final Pattern INVALID_CHARACTERS = Pattern.compile("[^A-Za-z0-9\\+\\-\\*/:_\\.]+");
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+    private final List<GarbageCollectorMXBean> garbageCollectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+    private final Object hotspotRuntime;
+    private final Method safepointCount;
+    private final Method safepointTime;
+    // totals at the previous sample, guarded by this
+    private final Map<String, Long> previous = new HashMap<>();
+
+    JvmMetricsCollector() {
+        Object hotspotRuntime = null;
+        Method safepointCount = null;
+        Method safepointTime = null;
+        try {
+            // only accessible on Java 8, later JVMs don't export sun.management
+            hotspotRuntime = Class.forName("sun.management.ManagementFactoryHelper")
+                    .getMethod("getHotspotRuntimeMBean").invoke(null);
+            safepointCount = hotspotRuntime.getClass().getMethod("getSafepointCount");
+            safepointTime = hotspotRuntime.getClass().getMethod("getTotalSafepointTime");
+            safepointCount.setAccessible(true);
+            safepointTime.setAccessible(true);
+            safepointCount.invoke(hotspotRuntime);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            LOG.debug("Safepoint statistics are not available", e);
+            hotspotRuntime = null;
+        }
+        this.hotspotRuntime = hotspotRuntime;
+        this.safepointCount = safepointCount;
+        this.safepointTime = safepointTime;
+    }
+
+    /**
+     * Record JVM runtime metrics
+     *
+     * @param metrics, usually the root metrics logger
+     */
+    synchronized void collect(final Metrics metrics) {
+        recordUsage(metrics, "Heap", this.memory.getHeapMemoryUsage());
+        recordUsage(metrics, "NonHeap", this.memory.getNonHeapMemoryUsage());
+        for (final MemoryPoolMXBean memoryPool : this.memoryPools) {
+            final MemoryUsage usage = memoryPool.getUsage();
+            if (memoryPool.isValid() && usage != null) {
+                metrics.record(PREFIX + "MemoryPool." + nameOf(memoryPool.getName()) + ".Used", usage.getUsed(), Unit.BYTE);
+            }
+        }
+        for (final GarbageCollectorMXBean garbageCollector : this.garbageCollectors) {
+            final String name = PREFIX + "GC." + nameOf(garbageCollector.getName());
+            incCounter(metrics, name + ".Count", garbageCollector.getCollectionCount());
+            recordTime(metrics, name + ".Time", garbageCollector.getCollectionTime());
+        }
+        metrics.record(PREFIX + "Threads", this.threads.getThreadCount(), Unit.NONE);
+        metrics.record(PREFIX + "DaemonThreads", this.threads.getDaemonThreadCount(), Unit.NONE);
+        metrics.record(PREFIX + "PeakThreads", this.threads.getPeakThreadCount(), Unit.NONE);
+        metrics.record(PREFIX + "LoadedClasses", this.classLoading.getLoadedClassCount(), Unit.NONE);
+        incCounter(metrics, PREFIX + "ClassesLoaded", this.classLoading.getTotalLoadedClassCount());
+        incCounter(metrics, PREFIX + "ClassesUnloaded", this.classLoading.getUnloadedClassCount());
+        if (this.hotspotRuntime != null) {
+            try {
+                incCounter(metrics, PREFIX + "Safepoints", (Long) this.safepointCount.invoke(this.hotspotRuntime));
+                recordTime(metrics, PREFIX + "SafepointTime", (Long) this.safepointTime.invoke(this.hotspotRuntime));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("Cannot read safepoint statistics", e);
+            }
+        }
+    }
+
+    boolean hasSafepointStatistics() {
+        return this.hotspotRuntime != null;
+    }
+
+    static String nameOf(final String mxBeanName) {
+        return INVALID_CHARACTERS.matcher(mxBeanName).replaceAll("_");
+    }
+
+    private static void recordUsage(final Metrics metrics, final String name, final MemoryUsage usage) {
+        metrics.record(PREFIX + name + "Used", usage.getUsed(), Unit.BYTE);
+        metrics.record(PREFIX + name + "Committed", usage.getCommitted(), Unit.BYTE);
+    }
+
+    private void incCounter(final Metrics metrics, final String name, final long total) {
+        final long increase = increaseOf(name, total);
+        if (increase > 0) {
+            metrics.incCounter(name, (int) Math.min(increase, Integer.MAX_VALUE));
+        }
+    }
+
+    private void recordTime(final Metrics metrics, final String name, final long totalMillis) {
+        final long increase = increaseOf(name, totalMillis);
+        if (increase >= 0) {
+            metrics.record(name, increase, Unit.MILLI_SECOND);
+        }
+    }
+
+    /**
+     * @return increase of a total since the previous sample, -1 on the first sample or if the total is not available
+     */
+    private long increaseOf(final String name, final long total) {
+        if (total < 0) {
+            return -1;
+        }
+        final Long previousTotal = this.previous.put(name, total);
+        return previousTotal == null ? -1 : Math.max(0, total - previousTotal);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Valid metric names of a registry, each one gets a small integer id on first use, so collectors key their metrics
+ * by id and names are validated once. The serialized prefix "m.name=" of each name is kept alongside and reused by
+ * every flush. At most beeinstant.metrics.maxNames names get an id, later names are kept by name.
+ * <p>
+ * Ids are looked up in a small cache keyed by the identity of the name string first, so a call site passing the
+ * same string each time, like a literal or a constant, finds its id with a few array reads. Names built at each call
+ * miss the cache and are looked up by value. This class is thread-safe.
+ */
+class MetricNames {
+
+    static final int INVALID = -1;
+    static final int NO_ID = -2;
+
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * A name and its id. Entries are replaced without locking, the atomic array orders an entry after the
+     * registration of its name, so the name and prefix of a cached id are visible too.
+     */
+    private static final class CachedId {
+        private final String name;
+        private final int id;
+
+        private CachedId(final String name, final int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    private final int maxNames;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<CachedId> cache = new AtomicReferenceArray<>(CACHE_SIZE);
+    private volatile String[] names = new String[64];
+    private volatile String[] prefixes = new String[64];
+    private int size = 0;
+
+    MetricNames(final int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    /**
+     * @return id of a metric name, INVALID if the name is not valid, NO_ID if all ids are taken
+     */
+    int idOf(final String name) {
+        final int slot = System.identityHashCode(name) & (CACHE_SIZE - 1);
+        final CachedId cached = this.cache.get(slot);
+        if (cached != null && cached.name == name) {
+            return cached.id;
+        }
+        final int id = lookup(name);
+        if (id >= 0) {
+            this.cache.lazySet(slot, new CachedId(name, id));
+        }
+        return id;
+    }
+
+    String nameOf(final int id) {
+        return this.names[id];
+    }
+
+    /**
+     * @return "m." + name + "=" of a metric name id
+     */
+    String prefixOf(final int id) {
+        return this.prefixes[id];
+    }
+
+    private int lookup(final String name) {
+        final Integer id = this.ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (!DimensionsUtils.isValidName(name)) {
+            return INVALID;
+        }
+        return register(name);
+    }
+
+    private synchronized int register(final String name) {
+        final Integer id = this.ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (this.size >= this.maxNames) {
+            return NO_ID;
+        }
+        if (this.size == this.names.length) {
+            this.prefixes = Arrays.copyOf(this.prefixes, Math.min(this.size * 2, this.maxNames));
+            this.names = Arrays.copyOf(this.names, Math.min(this.size * 2, this.maxNames));
+        }
+        this.prefixes[this.size] = "m." + name + "=";
+        this.names[this.size] = name;
+        // the name and its prefix are published before the id
+        this.ids.put(name, this.size);
+        return this.size++;
+    }
+}
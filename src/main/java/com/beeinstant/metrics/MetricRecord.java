@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metrics of one set of dimensions flushed by a MetricsLogger, for example dimensions "d.api=Upload,d.service=Foo"
+ * and metrics "m.NumOfRequests=1,m.Latency=12.5+13.ms". This class is immutable.
+ */
+public class MetricRecord {
+
+    private final String dimensions;
+    private final String line;
+
+    MetricRecord(final String dimensions, final String metrics) {
+        this.dimensions = dimensions;
+        this.line = dimensions + "," + metrics;
+    }
+
+    private MetricRecord(final String dimensions, final StringBuilder line) {
+        this.dimensions = dimensions;
+        this.line = line.toString();
+    }
+
+    /**
+     * @param line, the dimensions followed by a comma and the metrics, so the line is built once at flush
+     */
+    static MetricRecord ofLine(final String dimensions, final StringBuilder line) {
+        return new MetricRecord(dimensions, line);
+    }
+
+    /**
+     * @return this record with values serialized as "value*n" repeated n times, itself if there are none
+     */
+    MetricRecord withExpandedValues() {
+        if (this.line.indexOf('*', this.dimensions.length() + 1) < 0) {
+            return this;
+        }
+        final StringBuilder line = new StringBuilder(this.line.length() * 2).append(this.dimensions);
+        for (final String pair : getMetricsString().split(",")) {
+            final int separator = pair.indexOf('=') + 1;
+            line.append(',').append(pair, 0, separator);
+            Recorder.appendExpanded(line, pair.substring(separator));
+        }
+        return ofLine(this.dimensions, line);
+    }
+
+    /**
+     * @return serialized dimensions, each one prefixed with "d."
+     */
+    public String getDimensionsString() {
+        return this.dimensions;
+    }
+
+    /**
+     * @return serialized metrics, each one prefixed with "m."
+     */
+    public String getMetricsString() {
+        return this.line.substring(this.dimensions.length() + 1);
+    }
+
+    /**
+     * @return dimension values by dimension name
+     */
+    public Map<String, String> getDimensions() {
+        return parse(this.dimensions, "d.");
+    }
+
+    /**
+     * @return serialized metric data by metric name, e.g. "1" for a counter or "12.5+13.ms" for a timer
+     */
+    public Map<String, String> getMetrics() {
+        return parse(getMetricsString(), "m.");
+    }
+
+    /**
+     * @return metric line as sent to BeeInstant Server
+     */
+    @Override
+    public String toString() {
+        return this.line;
+    }
+
+    private static Map<String, String> parse(final String serialized, final String prefix) {
+        final Map<String, String> map = new LinkedHashMap<>();
+        for (final String pair : serialized.split(",")) {
+            final int separator = pair.indexOf('=');
+            if (separator > 0 && pair.startsWith(prefix)) {
+                map.put(pair.substring(prefix.length(), separator), pair.substring(separator + 1));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Open-addressing table of metrics keyed by metric name id, see MetricNames. Lookups read the current table without
+ * locking, a metric is added under the table lock, written before its key so a reader which finds the key finds the
+ * metric. The table doubles when half full, resized tables hold the same metric objects. This class is thread-safe.
+ */
+class MetricTable {
+
+    /**
+     * Visit metrics of the table
+     */
+    interface Visitor {
+        void visit(int id, Metric metric);
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+    private int size = 0;
+
+    /**
+     * @return metric of an id, null if there is none
+     */
+    Metric get(final int id) {
+        return this.slots.get(id);
+    }
+
+    /**
+     * @return metric of an id, which is the given metric if there was none
+     */
+    Metric putIfAbsent(final int id, final Metric metric) {
+        final Metric existing = this.slots.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (this) {
+            Slots slots = this.slots;
+            final Metric current = slots.get(id);
+            if (current != null) {
+                return current;
+            }
+            if ((this.size + 1) * 2 > slots.capacity()) {
+                slots = slots.resize();
+                this.slots = slots;
+            }
+            slots.put(id, metric);
+            this.size++;
+            return metric;
+        }
+    }
+
+    void forEach(final Visitor visitor) {
+        final Slots slots = this.slots;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            final int key = slots.keys.get(slot);
+            if (key != 0) {
+                visitor.visit(key - 1, slots.metrics[slot]);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    private static class Slots {
+
+        // key is id + 1, 0 marks an empty slot
+        private final AtomicIntegerArray keys;
+        private final Metric[] metrics;
+        private final int mask;
+
+        Slots(final int capacity) {
+            this.keys = new AtomicIntegerArray(capacity);
+            this.metrics = new Metric[capacity];
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return this.metrics.length;
+        }
+
+        Metric get(final int id) {
+            for (int slot = slotOf(id); ; slot = (slot + 1) & this.mask) {
+                final int key = this.keys.get(slot);
+                if (key == id + 1) {
+                    return this.metrics[slot];
+                }
+                if (key == 0) {
+                    return null;
+                }
+            }
+        }
+
+        void put(final int id, final Metric metric) {
+            int slot = slotOf(id);
+            while (this.keys.get(slot) != 0) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.metrics[slot] = metric;
+            this.keys.set(slot, id + 1);
+        }
+
+        Slots resize() {
+            final Slots resized = new Slots(capacity() * 2);
+            for (int slot = 0; slot < capacity(); slot++) {
+                final int key = this.keys.get(slot);
+                if (key != 0) {
+                    resized.put(key - 1, this.metrics[slot]);
+                }
+            }
+            return resized;
+        }
+
+        private int slotOf(final int id) {
+            // ids are dense, spread them over the table
+            final int hash = id * 0x9E3779B9;
+            return (hash ^ hash >>> 16) & this.mask;
+        }
+    }
+}
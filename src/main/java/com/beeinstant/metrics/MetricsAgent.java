@@ -0,0 +1,340 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Host-local aggregation agent. JVMs of the host send their flushed metric lines to the agent (beeinstant.endpoint
+ * set to agent://127.0.0.1:port), the agent merges metrics of the same dimensions with Counter and Recorder merge
+ * semantics, timers being recorders in milliseconds, and forwards one combined batch per interval, so a host
+ * uploads and signs once per interval whatever the number of JVMs. The agent listens on the loopback interface.
+ * <p>
+ * Run it with java -cp &lt;sdk and its dependencies&gt; com.beeinstant.metrics.MetricsAgent, configured with
+ * beeinstant.agent.port, beeinstant.flush.interval, beeinstant.endpoint, beeinstant.publicKey,
+ * beeinstant.secretKey and beeinstant.recorder.precision.
+ */
+public class MetricsAgent {
+
+    private static final Logger LOG = Logger.getLogger(MetricsAgent.class);
+    // most values a metric of a line may expand to, unless the agent keeps them as counts
+    static final long MAX_EXPANDED_VALUES = 1000000;
+
+    private final ServerSocket serverSocket;
+    private final MetricsExporter forwarder;
+    private final double recorderPrecision;
+    private final ScheduledExecutorService executorService;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, Map<String, Metric>> metrics = new ConcurrentHashMap<>();
+    // open connections and the threads reading them
+    private final Map<Socket, Thread> readers = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * @param port,      loopback port to listen on, 0 for an ephemeral port
+     * @param forwarder, exporter receiving the merged batches
+     */
+    public MetricsAgent(final int port, final MetricsExporter forwarder) throws IOException {
+        this(port, forwarder, 0);
+    }
+
+    /**
+     * @param port,              loopback port to listen on, 0 for an ephemeral port
+     * @param forwarder,         exporter receiving the merged batches
+     * @param recorderPrecision, quantize merged recorder and timer values to this precision, 0 to keep them as sent
+     */
+    public MetricsAgent(final int port, final MetricsExporter forwarder, final double recorderPrecision) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.forwarder = forwarder;
+        this.recorderPrecision = recorderPrecision;
+        this.executorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final int port = Integer.valueOf(System.getProperty("beeinstant.agent.port", "5757"));
+        final int flushInSeconds = Integer.valueOf(System.getProperty("beeinstant.flush.interval", "10"));
+        final double recorderPrecision = Double.valueOf(System.getProperty("beeinstant.recorder.precision", "0"));
+        final MetricsAgent agent = new MetricsAgent(port, new HttpExporter(System.getProperty("beeinstant.endpoint", ""),
+                System.getProperty("beeinstant.publicKey", ""), System.getProperty("beeinstant.secretKey", "")), recorderPrecision);
+        Runtime.getRuntime().addShutdownHook(new Thread(agent::close));
+        agent.start(TimeUnit.SECONDS.toMillis(flushInSeconds));
+        LOG.info("Metrics agent listens on " + agent.getAddress());
+    }
+
+    /**
+     * Accept connections and forward merged metrics periodically
+     */
+    public void start(final long flushIntervalMillis) {
+        final Thread acceptor = new Thread(this::accept, "beeinstant-agent-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        this.executorService.scheduleAtFixedRate(() -> {
+            try {
+                flush();
+            } catch (Throwable e) {
+                // Don't stop the thread
+                LOG.error(e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(this.serverSocket.getInetAddress(), this.serverSocket.getLocalPort());
+    }
+
+    /**
+     * Forward merged metrics now
+     */
+    public void flush() throws IOException {
+        final Map<String, Map<String, Metric>> readyToFlush;
+        this.lock.writeLock().lock();
+        try {
+            readyToFlush = this.metrics;
+            this.metrics = new ConcurrentHashMap<>();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        final List<MetricRecord> batch = new ArrayList<>(readyToFlush.size());
+        readyToFlush.forEach((dimensions, metrics) -> {
+            final StringBuilder serialized = new StringBuilder();
+            metrics.forEach((metricName, metric) -> {
+                final String data = metric.flushToString();
+                if (!data.isEmpty()) {
+                    if (serialized.length() > 0) {
+                        serialized.append(',');
+                    }
+                    serialized.append("m.").append(metricName).append('=').append(data);
+                }
+            });
+            if (serialized.length() > 0) {
+                batch.add(new MetricRecord(dimensions, serialized.toString()));
+            }
+        });
+        if (!batch.isEmpty()) {
+            this.forwarder.export(batch);
+        }
+    }
+
+    /**
+     * Stop accepting metrics, close open connections, forward what has been merged and close the forwarder
+     */
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.serverSocket.close();
+        } catch (IOException e) {
+            LOG.debug("Cannot close agent socket", e);
+        }
+        // readers stop once their socket is closed
+        this.readers.forEach((socket, reader) -> closeQuietly(socket));
+        this.readers.values().forEach(reader -> {
+            try {
+                reader.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        this.executorService.shutdown();
+        try {
+            this.executorService.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+            this.forwarder.close();
+        } catch (IOException e) {
+            LOG.error("Cannot forward metrics", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Merge a metric line like d.api=Upload,d.service=Foo,m.NumOfRequests=3,m.Latency=1.0+2.0ms
+     *
+     * @return whether the line is valid
+     */
+    boolean merge(final String line) {
+        final int metricsStart = line.startsWith("m.") ? 0 : line.indexOf(",m.") + 1;
+        if (metricsStart == 0 && !line.startsWith("m.")) {
+            return false;
+        }
+        final String dimensions = metricsStart == 0 ? "" : line.substring(0, metricsStart - 1);
+        // the whole line is parsed before anything is merged, so an invalid line changes nothing
+        final List<String> names = new ArrayList<>();
+        final List<Metric> parsed = new ArrayList<>();
+        for (final String metric : line.substring(metricsStart).split(",")) {
+            final int separator = metric.indexOf('=');
+            if (!metric.startsWith("m.") || separator < 0) {
+                return false;
+            }
+            final Metric newData = parseMetric(metric.substring(separator + 1), this.recorderPrecision,
+                    this.forwarder.decodesCollapsedValues());
+            if (newData == null) {
+                return false;
+            }
+            names.add(metric.substring(2, separator));
+            parsed.add(newData);
+        }
+        this.lock.readLock().lock();
+        try {
+            final Map<String, Metric> metrics = this.metrics.computeIfAbsent(dimensions, key -> new ConcurrentHashMap<>());
+            for (int i = 0; i < names.size(); i++) {
+                try {
+                    metrics.merge(names.get(i), parsed.get(i), Metric::merge);
+                } catch (RuntimeException e) {
+                    LOG.warn("Cannot merge " + names.get(i) + " of " + dimensions + ", " + e.getMessage());
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Parse serialized metric data, "3" for a counter, "1.0+2.0ms" or "1.0+2.0*5ms" for a recorder or a timer.
+     * Recorder data expanding to more than MAX_EXPANDED_VALUES values is rejected, unless the recorder is quantized and
+     * collapses duplicates, so it keeps counts rather than values.
+     *
+     * @param recorderPrecision,  precision of a parsed recorder, 0 to keep values as sent
+     * @param collapseDuplicates, serialize values of a parsed recorder recorded n times as "value*n"
+     * @return parsed metric or null if the data is invalid
+     */
+    static Metric parseMetric(final String data, final double recorderPrecision, final boolean collapseDuplicates) {
+        try {
+            if (isCounter(data)) {
+                final long value = Long.parseLong(data);
+                if (value < 0 || value > Integer.MAX_VALUE) {
+                    LOG.warn("Counter value " + data + " is out of range");
+                    return null;
+                }
+                final Counter counter = new Counter();
+                counter.incCounter((int) value);
+                return counter;
+            }
+            int unitStart = data.length();
+            while (unitStart > 0 && Character.isLetter(data.charAt(unitStart - 1))) {
+                unitStart--;
+            }
+            final Unit unit = unitOf(data.substring(unitStart));
+            if (unit == null || unitStart == 0) {
+                return null;
+            }
+            final String values = data.substring(0, unitStart);
+            if (recorderPrecision <= 0 || !collapseDuplicates) {
+                final long[] expandedValues = {0};
+                Recorder.decode(values, (value, count) -> expandedValues[0] += Math.min(count, MAX_EXPANDED_VALUES + 1));
+                if (expandedValues[0] > MAX_EXPANDED_VALUES) {
+                    LOG.warn("Recorder data expands to more than " + MAX_EXPANDED_VALUES + " values");
+                    return null;
+                }
+            }
+            final Recorder recorder = new Recorder(unit, null, recorderPrecision, collapseDuplicates);
+            Recorder.decode(values, recorder::add);
+            return recorder;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true for digits with an optional minus sign, which is rejected as a counter rather than taken for a
+     * recorder without unit
+     */
+    private static boolean isCounter(final String data) {
+        final int start = data.startsWith("-") ? 1 : 0;
+        return data.length() > start && data.chars().skip(start).allMatch(Character::isDigit);
+    }
+
+    private static Unit unitOf(final String suffix) {
+        for (final Unit unit : Unit.values()) {
+            if (unit.toString().equals(suffix)) {
+                return unit;
+            }
+        }
+        return null;
+    }
+
+    private void accept() {
+        while (!this.closed) {
+            try {
+                final Socket socket = this.serverSocket.accept();
+                final Thread reader = new Thread(() -> read(socket), "beeinstant-agent-" + socket.getPort());
+                reader.setDaemon(true);
+                this.readers.put(socket, reader);
+                if (this.closed) {
+                    // close() may have gone through the readers already
+                    this.readers.remove(socket);
+                    closeQuietly(socket);
+                } else {
+                    reader.start();
+                }
+            } catch (IOException e) {
+                if (!this.closed) {
+                    LOG.error("Cannot accept connection", e);
+                }
+            }
+        }
+    }
+
+    private void read(final Socket socket) {
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !merge(line)) {
+                    LOG.warn("Drop invalid metric line " + line);
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug("Connection closed", e);
+        } finally {
+            this.readers.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.debug("Cannot close connection", e);
+        }
+    }
+}
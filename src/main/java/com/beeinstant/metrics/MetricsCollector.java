@@ -19,74 +19,131 @@
 
 package com.beeinstant.metrics;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.BiFunction;
 
 /**
- * Collect data for Counter, Timer and Recorder
+ * Collect data for Counter, Timer and Recorder. Metrics are kept in a MetricTable by metric name id, names without
+ * an id, see MetricNames, are kept by name. Collectors merged together share their MetricNames.
  */
 class MetricsCollector implements Metrics {
 
-    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+    private final MetricsConfig config;
+    private final MetricNames metricNames;
+    private final MetricTable metrics = new MetricTable();
+    private final Map<String, Metric> overflowMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * @param config, creates recorders and timers, its metric names are shared by collectors merged together
+     */
+    MetricsCollector(final MetricsConfig config) {
+        this.config = config;
+        this.metricNames = config.getMetricNames();
+    }
 
     @Override
     public void incCounter(final String counterName, final int value) {
-        if (DimensionsUtils.isValidName(counterName)) {
-            this.metrics.computeIfAbsent(counterName, key -> new Counter()).incCounter(value);
+        final Metric metric = metricOf(counterName, null, (config, unit) -> new Counter());
+        if (metric != null) {
+            metric.incCounter(value);
         } else {
-            MetricsManager.reportError("Invalid counter name " + counterName);
+            this.config.reportError("Invalid counter name " + counterName);
         }
     }
 
     @Override
     public TimerMetric startTimer(final String timerName) {
-        if (DimensionsUtils.isValidName(timerName)) {
-            return new TimerMetric(this, timerName, this.metrics.computeIfAbsent(timerName, key -> new Timer()).startTimer());
+        final Metric metric = metricOf(timerName, null, (config, unit) -> config.newTimer());
+        if (metric != null) {
+            return new TimerMetric(this, timerName, metric.startTimer());
         }
-        MetricsManager.reportError("Invalid timer name " + timerName);
+        this.config.reportError("Invalid timer name " + timerName);
         return null;
     }
 
     void stopTimer(final String timerName, final long startTime) {
-        if (DimensionsUtils.isValidName(timerName)) {
-            this.metrics.computeIfAbsent(timerName, key -> new Timer()).stopTimer(startTime);
+        final Metric metric = metricOf(timerName, null, (config, unit) -> config.newTimer());
+        if (metric != null) {
+            metric.stopTimer(startTime);
         } else {
-            MetricsManager.reportError("Invalid timer name " + timerName);
+            this.config.reportError("Invalid timer name " + timerName);
         }
     }
 
     @Override
     public void record(final String metricName, final double value, final Unit unit) {
-        if (DimensionsUtils.isValidName(metricName)) {
-            this.metrics.computeIfAbsent(metricName, key -> new Recorder(unit)).record(value, unit);
+        final Metric metric = metricOf(metricName, unit, MetricsConfig::newRecorder);
+        if (metric != null) {
+            metric.record(value, unit);
         } else {
-            MetricsManager.reportError("Invalid recorder name " + metricName);
+            this.config.reportError("Invalid recorder name " + metricName);
+        }
+    }
+
+    /**
+     * Get or create the metric of a name, the factory is not capturing so no lambda is allocated per call
+     *
+     * @return metric, null if the name is invalid
+     */
+    private Metric metricOf(final String metricName, final Unit unit, final BiFunction<MetricsConfig, Unit, Metric> newMetric) {
+        final int id = this.metricNames.idOf(metricName);
+        if (id >= 0) {
+            final Metric metric = this.metrics.get(id);
+            return metric != null ? metric : this.metrics.putIfAbsent(id, newMetric.apply(this.config, unit));
+        }
+        if (id == MetricNames.NO_ID) {
+            return this.overflowMetrics.computeIfAbsent(metricName, key -> newMetric.apply(this.config, unit));
         }
+        return null;
     }
 
     public String flushToString() {
-        final List<String> metrics = new ArrayList<>();
-        this.metrics.forEach((metricName, metricData) -> {
-            final String metricDataString = metricData.flushToString();
-            if (!metricDataString.isEmpty()) {
-                metrics.add("m." + metricName + "=" + metricDataString);
+        final StringBuilder builder = new StringBuilder();
+        flushTo(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Append flushed metrics to a builder, separated by commas
+     *
+     * @return true if any metric is appended
+     */
+    boolean flushTo(final StringBuilder builder) {
+        final int start = builder.length();
+        this.metrics.forEach((id, metricData) -> append(builder, start, this.metricNames.prefixOf(id), metricData));
+        this.overflowMetrics.forEach((metricName, metricData) -> append(builder, start, "m." + metricName + "=", metricData));
+        return builder.length() > start;
+    }
+
+    private static void append(final StringBuilder builder, final int start, final String prefix, final Metric metricData) {
+        final String metricDataString = metricData.flushToString();
+        if (!metricDataString.isEmpty()) {
+            if (builder.length() > start) {
+                builder.append(',');
             }
-        });
-        return metrics.stream().collect(Collectors.joining(","));
+            builder.append(prefix).append(metricDataString);
+        }
     }
 
     void merge(final MetricsCollector metricsCollector) {
         if (this != metricsCollector) {
-            metricsCollector.metrics.forEach((metricName, metricData) -> this.metrics.merge(metricName, metricData, Metric::merge));
+            metricsCollector.metrics.forEach((id, metricData) -> {
+                final Metric metric = this.metrics.putIfAbsent(id, metricData);
+                if (metric != metricData) {
+                    metric.merge(metricData);
+                }
+            });
+            metricsCollector.overflowMetrics.forEach((metricName, metricData) -> this.overflowMetrics.merge(metricName, metricData, Metric::merge));
         }
     }
 
     // for testing purpose
     Map<String, Metric> getMetrics() {
-        return Collections.unmodifiableMap(this.metrics);
+        final Map<String, Metric> metrics = new HashMap<>(this.overflowMetrics);
+        this.metrics.forEach((id, metricData) -> metrics.put(this.metricNames.nameOf(id), metricData));
+        return Collections.unmodifiableMap(metrics);
     }
 }
@@ -0,0 +1,272 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Runtime settings of the SDK. Flush intervals and queue bounds are applied to the flush scheduler and the queue,
+ * sampling and disabled metrics are read by MetricsGroup and SharedMemoryMetrics on each update, with a volatile
+ * read only. This class is thread-safe.
+ */
+class MetricsConfig implements MetricsConfigMBean {
+
+    private static final Logger LOG = Logger.getLogger(MetricsConfig.class);
+    private static final String OBJECT_NAME = "com.beeinstant.metrics:type=Config";
+    private static final String[] NO_PREFIXES = new String[0];
+
+    private volatile ObjectName objectName;
+
+    private final MetricNames metricNames;
+    private final OffHeapSamplePool offHeapSamplePool;
+    private final double recorderPrecision;
+    private final boolean collapseDuplicates;
+    private final Consumer<String> errorReporter;
+
+    private volatile MetricsQueue queue;
+    private volatile FlushScheduler flushScheduler;
+    private volatile double recorderSampleRate = 1.0;
+    private volatile String[] disabledPrefixes = NO_PREFIXES;
+
+    MetricsConfig() {
+        this(new MetricNames(65536), null, 0, false, MetricsManager::reportError);
+    }
+
+    /**
+     * @param metricNames,        metric names of the loggers using this configuration
+     * @param offHeapSamplePool,  slabs of their recorders and timers, null to keep samples on the heap
+     * @param recorderPrecision,  quantize recorder and timer values to this precision, 0 to keep them as recorded
+     * @param collapseDuplicates, serialize a value recorded n times as "value*n"
+     * @param errorReporter,      counts and logs errors of the loggers using this configuration
+     */
+    MetricsConfig(final MetricNames metricNames, final OffHeapSamplePool offHeapSamplePool,
+                  final double recorderPrecision, final boolean collapseDuplicates, final Consumer<String> errorReporter) {
+        this.metricNames = metricNames;
+        this.offHeapSamplePool = offHeapSamplePool;
+        this.recorderPrecision = recorderPrecision;
+        this.collapseDuplicates = collapseDuplicates;
+        this.errorReporter = errorReporter;
+    }
+
+    MetricNames getMetricNames() {
+        return this.metricNames;
+    }
+
+    OffHeapSamplePool getOffHeapSamplePool() {
+        return this.offHeapSamplePool;
+    }
+
+    boolean collapsesDuplicates() {
+        return this.collapseDuplicates;
+    }
+
+    /**
+     * Report an error to the registry owning this configuration, the default registry for standalone loggers
+     */
+    void reportError(final String errorMessage) {
+        this.errorReporter.accept(errorMessage);
+    }
+
+    Recorder newRecorder(final Unit unit) {
+        return new Recorder(unit, this.offHeapSamplePool, this.recorderPrecision, this.collapseDuplicates);
+    }
+
+    Timer newTimer() {
+        return new Timer(newRecorder(Unit.MILLI_SECOND));
+    }
+
+    /**
+     * Apply settings to the queue and the flush scheduler, which is null when flushes are manual
+     */
+    synchronized void attach(final MetricsQueue queue, final FlushScheduler flushScheduler) {
+        this.queue = queue;
+        this.flushScheduler = flushScheduler;
+    }
+
+    /**
+     * Check whether a metric is collected
+     */
+    boolean isEnabled(final String metricName) {
+        final String[] disabledPrefixes = this.disabledPrefixes;
+        for (final String prefix : disabledPrefixes) {
+            if (metricName.startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decide whether a timer or recorder value is kept
+     */
+    boolean sampleRecorder() {
+        final double recorderSampleRate = this.recorderSampleRate;
+        return recorderSampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < recorderSampleRate;
+    }
+
+    /**
+     * Register under the default object name, qualified by registry=registryName unless the registry name is empty.
+     * Nothing is registered if another registry uses the same name already.
+     */
+    void registerMBean(final String registryName) {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final String name = registryName.isEmpty() ? OBJECT_NAME : OBJECT_NAME + ",registry=" + ObjectName.quote(registryName);
+        try {
+            final ObjectName objectName = new ObjectName(name);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(this, objectName);
+                this.objectName = objectName;
+            } else {
+                LOG.warn("MBean " + name + " is registered already, skip it");
+            }
+        } catch (JMException e) {
+            LOG.error("Cannot register MBean " + name, e);
+        }
+    }
+
+    void unregisterMBean() {
+        final ObjectName objectName = this.objectName;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.error("Cannot unregister MBean " + objectName, e);
+            }
+            this.objectName = null;
+        }
+    }
+
+    @Override
+    public int getFlushIntervalSeconds() {
+        final FlushScheduler scheduler = this.flushScheduler;
+        return scheduler != null ? (int) MILLISECONDS.toSeconds(scheduler.getIntervalMillis()) : 0;
+    }
+
+    /**
+     * Set the interval, the minimum and maximum intervals are widened to include it
+     */
+    @Override
+    public synchronized void setFlushIntervalSeconds(final int flushIntervalSeconds) {
+        final FlushScheduler scheduler = scheduler();
+        final long intervalMillis = SECONDS.toMillis(flushIntervalSeconds);
+        scheduler.setIntervals(intervalMillis,
+                Math.min(scheduler.getMinIntervalMillis(), intervalMillis),
+                Math.max(scheduler.getMaxIntervalMillis(), intervalMillis));
+    }
+
+    @Override
+    public int getFlushMinIntervalSeconds() {
+        final FlushScheduler scheduler = this.flushScheduler;
+        return scheduler != null ? (int) MILLISECONDS.toSeconds(scheduler.getMinIntervalMillis()) : 0;
+    }
+
+    @Override
+    public synchronized void setFlushMinIntervalSeconds(final int flushMinIntervalSeconds) {
+        final FlushScheduler scheduler = scheduler();
+        scheduler.setIntervals(scheduler.getIntervalMillis(), SECONDS.toMillis(flushMinIntervalSeconds), scheduler.getMaxIntervalMillis());
+    }
+
+    @Override
+    public int getFlushMaxIntervalSeconds() {
+        final FlushScheduler scheduler = this.flushScheduler;
+        return scheduler != null ? (int) MILLISECONDS.toSeconds(scheduler.getMaxIntervalMillis()) : 0;
+    }
+
+    @Override
+    public synchronized void setFlushMaxIntervalSeconds(final int flushMaxIntervalSeconds) {
+        final FlushScheduler scheduler = scheduler();
+        scheduler.setIntervals(scheduler.getIntervalMillis(), scheduler.getMinIntervalMillis(), SECONDS.toMillis(flushMaxIntervalSeconds));
+    }
+
+    @Override
+    public int getQueueMaxLines() {
+        final MetricsQueue queue = this.queue;
+        return queue != null ? queue.getMaxLines() : 0;
+    }
+
+    @Override
+    public synchronized void setQueueMaxLines(final int queueMaxLines) {
+        queue().setBounds(queueMaxLines, queue().getMaxBytes());
+    }
+
+    @Override
+    public long getQueueMaxBytes() {
+        final MetricsQueue queue = this.queue;
+        return queue != null ? queue.getMaxBytes() : 0;
+    }
+
+    @Override
+    public synchronized void setQueueMaxBytes(final long queueMaxBytes) {
+        queue().setBounds(queue().getMaxLines(), queueMaxBytes);
+    }
+
+    @Override
+    public double getRecorderSampleRate() {
+        return this.recorderSampleRate;
+    }
+
+    @Override
+    public void setRecorderSampleRate(final double recorderSampleRate) {
+        if (!(recorderSampleRate >= 0.0 && recorderSampleRate <= 1.0)) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+        this.recorderSampleRate = recorderSampleRate;
+    }
+
+    @Override
+    public String getDisabledMetrics() {
+        return String.join(",", this.disabledPrefixes);
+    }
+
+    @Override
+    public void setDisabledMetrics(final String disabledMetrics) {
+        this.disabledPrefixes = disabledMetrics == null ? NO_PREFIXES : Arrays.stream(disabledMetrics.split(","))
+                .map(String::trim)
+                .filter(prefix -> !prefix.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    private FlushScheduler scheduler() {
+        final FlushScheduler flushScheduler = this.flushScheduler;
+        if (flushScheduler == null) {
+            throw new IllegalStateException("Flushes are not scheduled");
+        }
+        return flushScheduler;
+    }
+
+    private MetricsQueue queue() {
+        final MetricsQueue queue = this.queue;
+        if (queue == null) {
+            throw new IllegalStateException("MetricsManager is not initialized");
+        }
+        return queue;
+    }
+}
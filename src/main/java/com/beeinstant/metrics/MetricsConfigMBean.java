@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+/**
+ * Settings which can be changed while the SDK runs, through JMX as MBean com.beeinstant.metrics:type=Config or
+ * through MetricsManager.getConfig(). Invalid values are rejected with IllegalArgumentException.
+ */
+public interface MetricsConfigMBean {
+
+    /**
+     * Flush interval, kept within the minimum and maximum intervals by adaptive flushes. Setting it widens the
+     * minimum and maximum intervals to include it. The intervals read 0 and cannot be set when flushes are manual.
+     */
+    int getFlushIntervalSeconds();
+
+    void setFlushIntervalSeconds(int flushIntervalSeconds);
+
+    int getFlushMinIntervalSeconds();
+
+    void setFlushMinIntervalSeconds(int flushMinIntervalSeconds);
+
+    int getFlushMaxIntervalSeconds();
+
+    void setFlushMaxIntervalSeconds(int flushMaxIntervalSeconds);
+
+    int getQueueMaxLines();
+
+    void setQueueMaxLines(int queueMaxLines);
+
+    long getQueueMaxBytes();
+
+    void setQueueMaxBytes(long queueMaxBytes);
+
+    /**
+     * Fraction of timer and recorder values which are kept, from 0 to 1. Counters are never sampled.
+     */
+    double getRecorderSampleRate();
+
+    void setRecorderSampleRate(double recorderSampleRate);
+
+    /**
+     * Comma-separated prefixes of metric names which are not collected, for example "Cache,Debug"
+     */
+    String getDisabledMetrics();
+
+    void setDisabledMetrics(String disabledMetrics);
+}
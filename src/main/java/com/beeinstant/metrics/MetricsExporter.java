@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receive metrics flushed by MetricsManager, in addition to the upload to BeeInstant Server. Register an exporter
+ * with MetricsManager.addExporter, each exporter gets its own bounded queue of batches and its own thread, so a
+ * slow exporter never delays flushes nor other exporters.
+ */
+public interface MetricsExporter {
+
+    /**
+     * Export one flushed batch. Called by a single thread.
+     *
+     * @param records, metrics of the batch
+     * @throws IOException if the batch cannot be exported, it is then dropped
+     */
+    void export(List<MetricRecord> records) throws IOException;
+
+    /**
+     * @return true if the exporter takes a value recorded n times serialized as "value*n", as MetricsAgent does,
+     * with beeinstant.recorder.collapseDuplicates. Other exporters get the value repeated n times.
+     */
+    default boolean decodesCollapsedValues() {
+        return false;
+    }
+
+    /**
+     * Release resources once the last batch is exported
+     */
+    default void close() throws IOException {
+    }
+}
@@ -32,33 +32,49 @@ class MetricsGroup implements Metrics {
 
     private final MetricsLogger metricsLogger;
     private final Set<String> dimensionsGroup;
+    private final MetricsConfig config;
 
     MetricsGroup(final MetricsLogger metricsLogger, final String... dimensionsGroup) {
         this.metricsLogger = metricsLogger;
+        this.config = metricsLogger.getConfig();
         this.dimensionsGroup = Arrays.stream(dimensionsGroup)
-                .map(dimensions -> DimensionsUtils.extendAndSerializeDimensions(metricsLogger.getRootDimensions(), dimensions))
+                .map(dimensions -> DimensionsUtils.extendAndSerializeDimensions(metricsLogger.getRootDimensions(), dimensions,
+                        this.config::reportError))
                 .filter(dimensions -> !dimensions.isEmpty())
                 .collect(Collectors.toSet());
     }
 
     @Override
     public void incCounter(final String counterName, final int value) {
+        if (!this.config.isEnabled(counterName)) {
+            return;
+        }
         updateMetricsCollector(metricsCollector -> metricsCollector.incCounter(counterName, value));
     }
 
     @Override
     public TimerMetric startTimer(final String timerName) {
+        if (!this.config.isEnabled(timerName)) {
+            // a timer which never started is not recorded
+            return new TimerMetric(this, timerName, 0);
+        }
         final AtomicLong startTime = new AtomicLong(0);
         updateMetricsCollector(metricsCollector -> startTime.set(metricsCollector.startTimer(timerName).getStartTime()));
         return new TimerMetric(this, timerName, startTime.get());
     }
 
     void stopTimer(final String timerName, final long startTime) {
+        if (startTime <= 0 || !this.config.sampleRecorder()) {
+            return;
+        }
         updateMetricsCollector(metricsCollector -> metricsCollector.stopTimer(timerName, startTime));
     }
 
     @Override
     public void record(final String metricName, final double value, final Unit unit) {
+        if (!this.config.isEnabled(metricName) || !this.config.sampleRecorder()) {
+            return;
+        }
         updateMetricsCollector(metricsCollector -> metricsCollector.record(metricName, value, unit));
     }
 
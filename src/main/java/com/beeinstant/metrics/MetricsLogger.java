@@ -22,10 +22,12 @@ package com.beeinstant.metrics;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -33,10 +35,17 @@ import java.util.stream.Collectors;
  */
 public class MetricsLogger implements Metrics {
 
+    // settings of loggers which are not created by a registry
+    private static final MetricsConfig STANDALONE_CONFIG = new MetricsConfig();
+
     private final Map<String, MetricsCollector> metricsCollectors = new ConcurrentHashMap<>();
     private final Map<String, String> rootDimensions;
     private final MetricsGroup rootMetricsGroup;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MetricsRegistry registry;
+    private final MetricsConfig config;
+    // created once, so looking up a collector allocates nothing
+    private final Function<String, MetricsCollector> newMetricsCollector;
 
     MetricsLogger() {
         this("");
@@ -47,6 +56,14 @@ public class MetricsLogger implements Metrics {
     }
 
     MetricsLogger(final Map<String, String> dimensionsMap) {
+        this(dimensionsMap, null);
+    }
+
+    MetricsLogger(final Map<String, String> dimensionsMap, final MetricsRegistry registry) {
+        this.registry = registry;
+        final MetricsConfig config = registry != null ? registry.getMetricsConfig() : STANDALONE_CONFIG;
+        this.config = config;
+        this.newMetricsCollector = dimensions -> new MetricsCollector(config);
         this.rootDimensions = dimensionsMap;
         this.rootMetricsGroup = new MetricsGroup(this, getRootDimensionsString());
     }
@@ -95,9 +112,32 @@ public class MetricsLogger implements Metrics {
         return new MetricsGroup(this, dimensionsGroupWithRoot);
     }
 
+    /**
+     * Flush metrics collected by this logger. The calling thread waits until metrics are uploaded.
+     *
+     * @param now, timestamp in seconds
+     */
     public void flush(long now) {
-        MetricsManager.flushMetricsLogger(this);
-        MetricsManager.flushToServer(now);
+        if (this.registry != null) {
+            this.registry.flushMetricsLogger(this);
+            this.registry.flushToServer(now).join();
+        } else {
+            MetricsManager.flushMetricsLogger(this);
+            MetricsManager.flushToServer(now).join();
+        }
+    }
+
+    /**
+     * Flush metrics collected by this logger without blocking the calling thread.
+     *
+     * @param now, timestamp in seconds
+     * @return future completed when metrics are uploaded
+     */
+    public CompletableFuture<Void> flushAsync(long now) {
+        if (this.registry != null) {
+            return this.registry.flushMetricsLoggerAsync(this, now);
+        }
+        return MetricsManager.flushMetricsLoggerAsync(this, now);
     }
 
     @Override
@@ -120,6 +160,10 @@ public class MetricsLogger implements Metrics {
     }
 
     void flushToString(final Consumer<String> consumer) {
+        flushToRecords(record -> consumer.accept(record.toString()));
+    }
+
+    void flushToRecords(final Consumer<MetricRecord> consumer) {
         final Map<String, MetricsCollector> readyToFlush = new HashMap<>();
 
         lock.writeLock().lock();
@@ -131,10 +175,13 @@ public class MetricsLogger implements Metrics {
         }
 
         // do actual flush outside of critical section
+        // each line is built in one builder from the cached dimensions string and the cached metric name prefixes
+        final StringBuilder line = new StringBuilder();
         readyToFlush.forEach((dimensions, metricsCollector) -> {
-            final String metricsString = metricsCollector.flushToString();
-            if (!metricsString.isEmpty()) {
-                consumer.accept(dimensions + "," + metricsString);
+            line.setLength(0);
+            line.append(dimensions).append(',');
+            if (metricsCollector.flushTo(line)) {
+                consumer.accept(MetricRecord.ofLine(dimensions, line));
             }
         });
     }
@@ -143,8 +190,12 @@ public class MetricsLogger implements Metrics {
         return this.rootDimensions;
     }
 
+    MetricsConfig getConfig() {
+        return this.config;
+    }
+
     void updateMetricsCollector(final String dimensions, final Consumer<MetricsCollector> consumer) {
-        final MetricsCollector metricsCollector = this.metricsCollectors.computeIfAbsent(dimensions, key -> new MetricsCollector());
+        final MetricsCollector metricsCollector = this.metricsCollectors.computeIfAbsent(dimensions, this.newMetricsCollector);
         consumer.accept(metricsCollector);
         if (metricsCollector != this.metricsCollectors.get(dimensions)) {
             addOrMergeMetricsCollector(dimensions, metricsCollector);
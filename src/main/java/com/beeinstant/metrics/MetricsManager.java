@@ -19,27 +19,11 @@
 
 package com.beeinstant.metrics;
 
-import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.log4j.Logger;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.*;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Map;
-import java.util.concurrent.*;
-
-import static java.util.concurrent.TimeUnit.SECONDS;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The entry point to start collecting metrics.
@@ -47,7 +31,8 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  * - First, initialize MetricsManager with a Service Name and hostInfo info.
  * - Second, get a MetricsLogger to start collecting metrics.
  * <p>
- * This class is thread-safe except method shutdown.
+ * MetricsManager delegates to a default {@link MetricsRegistry} configured by system properties. Create more
+ * registries to give tenants their own pipeline. This class is thread-safe.
  */
 public class MetricsManager {
 
@@ -55,34 +40,12 @@ public class MetricsManager {
     private static final String EMPTY_STRING = "";
 
     private static final DummyLogger dummyLogger = new DummyLogger();
+    // settings handed out before init, they cannot be changed
+    private static final MetricsConfig detachedConfig = new MetricsConfig();
 
-    private static final BlockingDeque<String> metricsQueue = new LinkedBlockingDeque<>();
-
-    private static final int flushInSeconds = Integer.valueOf(System.getProperty("beeinstant.flush.interval", "10"));
-    private static final int flushStartDelayInSeconds = Integer.valueOf(System.getProperty("beeinstant.flush.startDelay", "5"));
-    private static final boolean manualFlush = Boolean.valueOf(System.getProperty("beeinstant.flush.manual", "false"));
-    private static final String publicKey = System.getProperty("beeinstant.publicKey", EMPTY_STRING);
-    private static final String secretKey = System.getProperty("beeinstant.secretKey", EMPTY_STRING);
-    private static final String endpoint = System.getProperty("beeinstant.endpoint", EMPTY_STRING);
-
-    private static final String METRIC_ERRORS = "MetricErrors";
-    private static CloseableHttpClient httpClient = null;
-    private static PoolingHttpClientConnectionManager poolManager = null;
-    private static MetricsLogger rootMetricsLogger = null;
-    private static volatile MetricsManager instance = null;
-    private static ScheduledExecutorService executorService = null;
-
-    private static HttpHost beeInstantHost;
-    private final String serviceName;
-    private final String env;
-    private final String hostInfo;
-    private final Map<String, MetricsLogger> metricsLoggers = new ConcurrentHashMap<>();
+    private static volatile MetricsRegistry defaultRegistry = null;
 
-    private MetricsManager(final String serviceName, final String env, final String hostInfo) {
-        this.serviceName = serviceName;
-        this.env = env.trim();
-        this.hostInfo = hostInfo;
-        beeInstantHost = createHostFromEndpoint(endpoint);
+    private MetricsManager() {
     }
 
     /**
@@ -99,60 +62,54 @@ public class MetricsManager {
         if (!DimensionsUtils.isValidName(serviceName)) {
             throw new IllegalArgumentException("Invalid service name");
         }
-        if (MetricsManager.instance == null) {
+        if (MetricsManager.defaultRegistry == null) {
             synchronized (MetricsManager.class) {
-                if (MetricsManager.instance == null) {
-                    MetricsManager.instance = new MetricsManager(serviceName, env, hostInfo);
-                    String envDimension = EMPTY_STRING;
-                    if (env.trim().length() > 0) {
-                        envDimension = ",env=" + env.trim();
-                    }
-                    MetricsManager.rootMetricsLogger = MetricsManager.instance.metricsLoggers
-                            .computeIfAbsent("service=" + serviceName + envDimension, MetricsLogger::new);
-                    MetricsManager.poolManager = new PoolingHttpClientConnectionManager(Integer.MAX_VALUE, TimeUnit.DAYS); //no more than 2 concurrent connections per given route
-                    MetricsManager.httpClient = HttpClients.custom()
-                            .setConnectionManager(poolManager)
-                            .setKeepAliveStrategy((response, context) -> 60000)
-                            .setRetryHandler(new DefaultHttpRequestRetryHandler()) // 3 times retry by default
-                            .build();
-                    if (!manualFlush) {
-                        try {
-                            executorService = Executors.newScheduledThreadPool(1);
-                            executorService.scheduleAtFixedRate(() -> {
-                                try {
-                                    flushAll(System.currentTimeMillis() / 1000);
-                                } catch (Throwable e) {
-                                    // Don't stop the thread
-                                    LOG.error(e);
-                                }
-                            }, flushStartDelayInSeconds, flushInSeconds, SECONDS);
-                        } catch (Throwable e) {
-                            LOG.error("Cannot submit metrics", e);
-                        }
-                    }
+                if (MetricsManager.defaultRegistry == null) {
+                    MetricsManager.defaultRegistry = new MetricsRegistry(serviceName, env, hostInfo, System.getProperties());
                 }
             }
         }
     }
 
     /**
-     * Shutdown MetricsManager, clean up resources
-     * This method is not thread-safe, only use it to clean up resources when your application is shutting down.
+     * Shutdown MetricsManager gracefully: stop handing out metrics loggers, flush metrics collected so far and upload
+     * them, waiting at most timeoutMillis. Metrics which are not uploaded by then, including uploads waiting for a
+     * retry, are spooled on disk when beeinstant.spool.dir is set, then resources are cleaned up as by shutdown().
+     * Metrics recorded after the final flush, into loggers obtained before, are lost.
+     * <p>
+     * This method is installed as a JVM shutdown hook when beeinstant.shutdown.hook is true, with the timeout
+     * beeinstant.shutdown.timeoutMillis.
+     *
+     * @param timeoutMillis, how long to wait for the final flush
      */
-    public static void shutdown() {
-        if (MetricsManager.executorService != null) {
-            MetricsManager.executorService.shutdown();
-            MetricsManager.executorService = null;
+    public static synchronized void shutdown(final long timeoutMillis) {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        if (registry != null) {
+            registry.shutdown(timeoutMillis);
+            MetricsManager.defaultRegistry = null;
         }
-        if (MetricsManager.instance != null) {
-            MetricsManager.instance = null;
-            MetricsManager.poolManager.shutdown();
-            MetricsManager.poolManager = null;
-            MetricsManager.httpClient = null;
-            MetricsManager.rootMetricsLogger = null;
+    }
+
+    /**
+     * Shutdown MetricsManager, clean up resources
+     */
+    public static synchronized void shutdown() {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        if (registry != null) {
+            registry.shutdown();
+            MetricsManager.defaultRegistry = null;
         }
     }
 
+    /**
+     * Get the default registry, which MetricsManager delegates to
+     *
+     * @return default registry, null if MetricsManager is not initialized
+     */
+    public static MetricsRegistry getDefaultRegistry() {
+        return MetricsManager.defaultRegistry;
+    }
+
     /**
      * Initialize MetricsManager by providing a service name, environment, customized hostInfo,
      * for example, an IP address of the localhost.
@@ -189,20 +146,35 @@ public class MetricsManager {
      * @return metrics logger
      */
     public static MetricsLogger getMetricsLogger(final String dimensions) {
-        if (MetricsManager.instance != null) {
-            final Map<String, String> dimensionsMap = DimensionsUtils.parseDimensions(dimensions);
-            if (!dimensionsMap.isEmpty()) {
-                dimensionsMap.put("service", MetricsManager.instance.serviceName);
-                if (MetricsManager.instance.env.length() > 0) {
-                    dimensionsMap.put("env", MetricsManager.instance.env);
-                }
-                return MetricsManager.instance.metricsLoggers.computeIfAbsent(
-                        DimensionsUtils.serializeDimensionsToString(dimensionsMap), key -> new MetricsLogger(dimensionsMap));
-            } else {
-                throw new IllegalArgumentException("Dimensions must be valid and non-empty");
-            }
-        }
-        return dummyLogger;
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.getMetricsLogger(dimensions) : dummyLogger;
+    }
+
+    /**
+     * Get Metrics which write into the shared memory file configured by beeinstant.sharedMemory.file, so processes of
+     * a host share their counters and recorders and only one of them flushes them. Timers and recorders are kept as
+     * histograms with about 9% precision.
+     *
+     * @param dimensions, key-value pairs aka dimensions for example "api=Upload, region=DUB"
+     * @return metrics, which do nothing if no shared memory file is configured
+     */
+    public static Metrics getSharedMetrics(final String dimensions) {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.getSharedMetrics(dimensions) : dummyLogger;
+    }
+
+    /**
+     * Get the settings which can be changed at runtime, like flush interval, queue bounds, sampling or disabled
+     * metrics. They are also exposed through JMX as MBean com.beeinstant.metrics:type=Config.
+     * <p>
+     * Before init, a placeholder which is not registered in JMX is returned: flush intervals and queue bounds read
+     * as 0, and changing them throws IllegalStateException.
+     *
+     * @return runtime settings
+     */
+    public static MetricsConfigMBean getConfig() {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.getConfig() : detachedConfig;
     }
 
     /**
@@ -211,61 +183,66 @@ public class MetricsManager {
      * @return metrics logger for the root dimensions
      */
     public static MetricsLogger getRootMetricsLogger() {
-        if (MetricsManager.instance != null) {
-            return MetricsManager.rootMetricsLogger;
-        }
-        return dummyLogger;
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.getRootMetricsLogger() : dummyLogger;
     }
 
     /**
      * Flush all metrics which have been collected so far by all MetricsLoggers. Metrics can also be flushed by
-     * each MetricsLogger individually.
+     * each MetricsLogger individually. The calling thread waits until metrics are uploaded.
      */
     public static void flushAll(long now) {
-        if (MetricsManager.instance != null) {
-            MetricsManager.instance.metricsLoggers.values().forEach(MetricsManager::flushMetricsLogger);
-            flushToServer(now);
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        if (registry != null) {
+            registry.flushAll(now);
         }
     }
 
     /**
-     * Flush metrics to BeeInstant Server
+     * Flush all metrics which have been collected so far by all MetricsLoggers without blocking the calling thread.
+     * Metrics are collected and uploaded by the flush thread.
+     *
+     * @return future completed when metrics are uploaded
      */
-    static void flushToServer(long now) {
-        LOG.debug("Flush to BeeInstant Server");
-        Collection<String> readyToSubmit = new ArrayList<>();
-        metricsQueue.drainTo(readyToSubmit);
-        StringBuilder builder = new StringBuilder();
-        readyToSubmit.forEach(string -> {
-            builder.append(string);
-            builder.append("\n");
-        });
-        if (!readyToSubmit.isEmpty() && beeInstantHost != null) {
-            try {
-                final String body = builder.toString();
-                StringEntity entity = new StringEntity(body);
-                entity.setContentType("text/plain");
+    public static CompletableFuture<Void> flushAllAsync(long now) {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.flushAllAsync(now) : CompletableFuture.completedFuture(null);
+    }
 
-                String uri = "/PutMetric";
-                final String signature = sign(entity);
-                if (!signature.isEmpty()) {
-                    uri += "?signature=" + URLEncoder.encode(signature, "UTF-8");
-                    uri += "&publicKey=" + URLEncoder.encode(publicKey, "UTF-8");
-                    uri += "&timestamp=" + now;
+    static CompletableFuture<Void> flushToServer(long now) {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.flushToServer(now) : CompletableFuture.completedFuture(null);
+    }
 
-                    HttpPost putMetricCommand = new HttpPost(uri);
-                    try {
-                        putMetricCommand.setEntity(entity);
-                        HttpResponse response = httpClient.execute(beeInstantHost, putMetricCommand);
-                        LOG.info("Response: " + response.getStatusLine().getStatusCode());
-                    } finally {
-                        putMetricCommand.releaseConnection();
-                    }
-                }
+    static CompletableFuture<Void> flushMetricsLoggerAsync(final MetricsLogger metricsLogger, final long now) {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.flushMetricsLoggerAsync(metricsLogger, now) : CompletableFuture.completedFuture(null);
+    }
 
-            } catch (Throwable e) {
-                LOG.error("Fail to emit metrics", e);
-            }
+    /**
+     * Export flushed metrics with an exporter, in addition to uploading them to BeeInstant Server. The exporter
+     * gets its own queue and thread, it is closed by shutdown.
+     *
+     * @param exporter, exporter to add
+     */
+    public static void addExporter(final MetricsExporter exporter) {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        if (registry != null) {
+            registry.addExporter(exporter);
+        } else {
+            LOG.warn("MetricsManager is not initialized, ignore exporter " + exporter);
+        }
+    }
+
+    /**
+     * Stop exporting metrics with an exporter, queued metrics are exported before the exporter is closed
+     *
+     * @param exporter, exporter to remove
+     */
+    public static void removeExporter(final MetricsExporter exporter) {
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        if (registry != null) {
+            registry.removeExporter(exporter);
         }
     }
 
@@ -275,10 +252,8 @@ public class MetricsManager {
      * @return localhost
      */
     public static String getHostInfo() {
-        if (MetricsManager.instance != null) {
-            return MetricsManager.instance.hostInfo;
-        }
-        return EMPTY_STRING;
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.getHostInfo() : EMPTY_STRING;
     }
 
     /**
@@ -287,10 +262,8 @@ public class MetricsManager {
      * @return service name
      */
     public static String getServiceName() {
-        if (MetricsManager.instance != null) {
-            return MetricsManager.instance.serviceName;
-        }
-        return EMPTY_STRING;
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.getServiceName() : EMPTY_STRING;
     }
 
     /**
@@ -299,23 +272,23 @@ public class MetricsManager {
      * @return environment
      */
     public static String getEnvironment() {
-        if (MetricsManager.instance != null) {
-            return MetricsManager.instance.env;
-        }
-        return EMPTY_STRING;
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        return registry != null ? registry.getEnvironment() : EMPTY_STRING;
     }
 
     /**
-     * Report errors during metric data collecting process. Report in two forms, a host level metric which counts
-     * number of errors and a log line with message for each error. Will be used by MetricsLogger to report errors.
+     * Report errors during metric data collecting process to the default registry, see MetricsRegistry.reportError.
+     * Will be used by loggers and stores which don't belong to a registry, other ones report to their own registry.
      *
      * @param errorMessage, error message during metric data collecting process
      */
     static void reportError(final String errorMessage) {
-        if (MetricsManager.instance != null) {
-            MetricsManager.rootMetricsLogger.incCounter(METRIC_ERRORS, 1);
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        if (registry != null) {
+            registry.reportError(errorMessage);
+        } else {
+            LOG.error(errorMessage);
         }
-        LOG.error(errorMessage);
     }
 
     /**
@@ -324,37 +297,9 @@ public class MetricsManager {
      * @param metricsLogger, contain metric dimensions, metric names, metric data (counter, timer, recorder)
      */
     static void flushMetricsLogger(final MetricsLogger metricsLogger) {
-        metricsLogger.flushToString(MetricsManager::queue);
-        MetricsManager.rootMetricsLogger.flushToString(MetricsManager::queue);
-    }
-
-    private static void queue(String metricString) {
-        metricsQueue.add(metricString);
-    }
-
-    private static String sign(StringEntity entity) throws IOException {
-        if (!publicKey.isEmpty() && !secretKey.isEmpty()) {
-            InputStream content = entity.getContent();
-            byte[] contentBytes = new byte[content.available()];
-            content.read(contentBytes);
-            content.close();
-            try {
-                return new String(Signature.sign(contentBytes, secretKey));
-            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-                LOG.error(e.getMessage());
-            }
-        }
-        return EMPTY_STRING;
-    }
-
-    private static HttpHost createHostFromEndpoint(String endpoint) {
-        HttpHost host = null;
-        try {
-            final URL url = new URL(endpoint);
-            host = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
-        } catch (MalformedURLException e) {
-            LOG.error(e.getMessage());
+        final MetricsRegistry registry = MetricsManager.defaultRegistry;
+        if (registry != null) {
+            registry.flushMetricsLogger(metricsLogger);
         }
-        return host;
     }
 }
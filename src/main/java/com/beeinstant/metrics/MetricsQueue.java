@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Queue of serialized metric lines waiting to be sent, bounded by number of lines and by bytes.
+ * When the queue is full, new lines are handled by the OverflowPolicy and lines which cannot be kept are
+ * counted as dropped. Bounds are checked without locking, so concurrent producers may overshoot them slightly.
+ */
+class MetricsQueue {
+
+    enum OverflowPolicy {
+        /* drop the oldest lines to make room for the new one */
+        DROP_OLDEST,
+        /* drop the new line */
+        DROP_NEWEST,
+        /* wait for room until the block timeout, then drop the new line; the flush thread never waits */
+        BLOCK,
+        /* hand the new line over to the spill handler */
+        SPILL
+    }
+
+    private final BlockingDeque<String> lines = new LinkedBlockingDeque<>();
+    private final AtomicLong bytes = new AtomicLong(0);
+    private final AtomicLong droppedLines = new AtomicLong(0);
+    private final AtomicInteger blockedProducers = new AtomicInteger(0);
+    private volatile int maxLines;
+    private volatile long maxBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private volatile Predicate<String> spillHandler = line -> false;
+
+    MetricsQueue(final int maxLines, final long maxBytes, final OverflowPolicy overflowPolicy, final long blockTimeoutMillis) {
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Queue a metric line, apply the overflow policy if the queue is full
+     *
+     * @param line, serialized metric line
+     * @return true if the line is queued
+     */
+    boolean add(final String line) {
+        return add(line, true);
+    }
+
+    /**
+     * Queue a metric line, apply the overflow policy if the queue is full. Threads which drain the queue themselves
+     * must not wait for room, so with mayBlock false BLOCK drops the new line like DROP_NEWEST.
+     *
+     * @param line, serialized metric line
+     * @param mayBlock, false if the calling thread must not wait for room
+     * @return true if the line is queued
+     */
+    boolean add(final String line, final boolean mayBlock) {
+        if (!hasRoomFor(line)) {
+            switch (this.overflowPolicy) {
+                case DROP_OLDEST:
+                    while (!hasRoomFor(line) && poll() != null) {
+                        this.droppedLines.incrementAndGet();
+                    }
+                    if (!hasRoomFor(line)) {
+                        // the line alone is bigger than the queue
+                        this.droppedLines.incrementAndGet();
+                        return false;
+                    }
+                    break;
+                case BLOCK:
+                    if (!mayBlock || !awaitRoomFor(line)) {
+                        this.droppedLines.incrementAndGet();
+                        return false;
+                    }
+                    break;
+                case SPILL:
+                    if (!this.spillHandler.test(line)) {
+                        this.droppedLines.incrementAndGet();
+                    }
+                    return false;
+                default:
+                    this.droppedLines.incrementAndGet();
+                    return false;
+            }
+        }
+        this.lines.offerLast(line);
+        this.bytes.addAndGet(sizeOf(line));
+        return true;
+    }
+
+    /**
+     * Put a line taken by poll back to the head of the queue. Bounds are not applied since the line was already
+     * accounted for.
+     *
+     * @param line, serialized metric line
+     */
+    void addFirst(final String line) {
+        this.lines.offerFirst(line);
+        this.bytes.addAndGet(sizeOf(line));
+    }
+
+    String poll() {
+        final String line = this.lines.pollFirst();
+        if (line != null) {
+            this.bytes.addAndGet(-sizeOf(line));
+            if (this.blockedProducers.get() > 0) {
+                synchronized (this.blockedProducers) {
+                    this.blockedProducers.notifyAll();
+                }
+            }
+        }
+        return line;
+    }
+
+    boolean isEmpty() {
+        return this.lines.isEmpty();
+    }
+
+    int size() {
+        return this.lines.size();
+    }
+
+    long bytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * Get number of dropped lines since the last call and reset it
+     *
+     * @return number of dropped lines
+     */
+    long takeDroppedLines() {
+        return this.droppedLines.getAndSet(0);
+    }
+
+    /**
+     * Change the bounds, lines already queued are kept even if they exceed the new bounds
+     */
+    void setBounds(final int maxLines, final long maxBytes) {
+        if (maxLines <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid queue bounds " + maxLines + ", " + maxBytes);
+        }
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        synchronized (this.blockedProducers) {
+            this.blockedProducers.notifyAll();
+        }
+    }
+
+    /**
+     * Set the handler receiving lines which overflow the queue with the SPILL policy. The handler returns false
+     * if it cannot keep the line, the line is then counted as dropped.
+     *
+     * @param spillHandler, receives lines which do not fit into the queue
+     */
+    void setSpillHandler(final Predicate<String> spillHandler) {
+        this.spillHandler = spillHandler;
+    }
+
+    /**
+     * @return maximum number of queued lines
+     */
+    int getMaxLines() {
+        return this.maxLines;
+    }
+
+    /**
+     * @return maximum number of queued bytes
+     */
+    long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    private boolean hasRoomFor(final String line) {
+        return this.lines.size() < this.maxLines && this.bytes.get() + sizeOf(line) <= this.maxBytes;
+    }
+
+    private boolean awaitRoomFor(final String line) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.blockTimeoutMillis);
+        this.blockedProducers.incrementAndGet();
+        try {
+            synchronized (this.blockedProducers) {
+                long remainingNanos;
+                while (!hasRoomFor(line)) {
+                    remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this.blockedProducers, remainingNanos);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            this.blockedProducers.decrementAndGet();
+        }
+    }
+
+    // lines are sent separated by a new line, metric lines only contain ASCII characters
+    private static long sizeOf(final String line) {
+        return line.length() + 1;
+    }
+}
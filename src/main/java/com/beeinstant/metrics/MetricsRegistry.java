@@ -0,0 +1,1061 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.HttpHost;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+
+import javax.crypto.Mac;
+import java.io.File;
+import java.io.IOException;
+import java.net.*;
+import java.nio.file.Paths;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * A metrics pipeline: loggers, queue, flush scheduler, transport, exporters and spool, configured by its own
+ * properties. Registries are isolated from each other, so a high-volume tenant can get its own registry with its
+ * own endpoint, bounds and flush cadence. MetricsManager delegates to a default registry.
+ * <p>
+ * This class is thread-safe.
+ */
+public class MetricsRegistry {
+
+    private static final Logger LOG = Logger.getLogger(MetricsRegistry.class);
+    private static final String EMPTY_STRING = "";
+    private static final String UDP_SCHEME = "udp://";
+    private static final String AGENT_SCHEME = "agent://";
+    private static final String METRIC_ERRORS = "MetricErrors";
+    private static final String METRIC_DROPPED_LINES = "DroppedMetricLines";
+    private static final String METRIC_DROPPED_SAMPLES = "DroppedRecorderSamples";
+    private static final String METRIC_HTTP_CONNECTIONS_LEASED = "HttpConnectionsLeased";
+    private static final String METRIC_HTTP_CONNECTIONS_AVAILABLE = "HttpConnectionsAvailable";
+    private static final String METRIC_HTTP_CONNECTIONS_PENDING = "HttpConnectionsPending";
+
+    private static final DummyLogger dummyLogger = new DummyLogger();
+
+    private final Properties properties;
+    private final String name;
+    private final int flushInSeconds;
+    private final int flushStartDelayInSeconds;
+    private final int flushMinIntervalInSeconds;
+    private final int flushMaxIntervalInSeconds;
+    private final long flushJitterMillis;
+    private final boolean flushAlign;
+    private final long flushTargetBytes;
+    private final int flushParallelism;
+    private final String exportFile;
+    private final String exportDir;
+    private final int exportSegmentBytes;
+    private final long exportMaxBytes;
+    private final long exportMaxAgeMillis;
+    private final String exportUdp;
+    private final int exportMaxBatches;
+    private final long exportCloseTimeoutMillis;
+    private final String sharedMemoryFile;
+    private final int sharedMemorySlots;
+    private final int sharedMemoryMaxKeyBytes;
+    private final boolean sharedMemoryReader;
+    private final boolean shutdownHook;
+    private final long shutdownTimeoutMillis;
+    private final boolean selfMetricsJmx;
+    private final boolean selfMetricsEmit;
+    private final double recorderSampleRate;
+    private final String disabledMetrics;
+    private final boolean configJmx;
+    private final boolean jvmMetrics;
+    private final boolean manualFlush;
+    private final String publicKey;
+    private final String secretKey;
+    private final String endpoint;
+    private final int maxPayloadBytes;
+    private final int uploadThreads;
+    private final int queueMaxLines;
+    private final long queueMaxBytes;
+    private final MetricsQueue.OverflowPolicy queueOverflowPolicy;
+    private final long queueBlockTimeoutMillis;
+    private final String spoolDir;
+    private final int spoolSegmentBytes;
+    private final long spoolMaxBytes;
+    private final int retryMaxAttempts;
+    private final long retryBaseDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final long retryMaxBytes;
+    private final int httpTimeoutMillis;
+    private final boolean httpAsync;
+    private final int httpMaxInFlight;
+    private final long httpConnectionTtlMillis;
+    private final long httpIdleTimeoutMillis;
+    private final int httpValidateAfterInactivityMillis;
+    private final int httpWarmUpConnections;
+    private final boolean httpPoolMetrics;
+
+    private final MetricsQueue metricsQueue;
+    private final SelfMetrics selfMetrics = new SelfMetrics();
+    private final MetricsConfig config;
+    private MetricsTransport transport = null;
+    private final MetricsLogger rootMetricsLogger;
+    private ScheduledExecutorService executorService = null;
+    private FlushScheduler flushScheduler = null;
+    private ForkJoinPool flushPool = null;
+    private final List<ExporterSink> exporterSinks = new CopyOnWriteArrayList<>();
+    private DiskSpool spool = null;
+    private SharedMemoryStore sharedMemoryStore = null;
+    private JvmMetricsCollector jvmMetricsCollector = null;
+    private ScheduledExecutorService retryExecutorService = null;
+    private RetryScheduler retryScheduler = null;
+    private final AtomicBoolean replayingSpool = new AtomicBoolean(false);
+    private volatile boolean closing = false;
+    private volatile boolean closed = false;
+    private Thread shutdownHookThread = null;
+
+    private final HttpHost beeInstantHost;
+    private final InetSocketAddress udpTarget;
+    private final InetSocketAddress agentAddress;
+    private final String serviceName;
+    private final String env;
+    private final String hostInfo;
+    private final Map<String, MetricsLogger> metricsLoggers = new ConcurrentHashMap<>();
+
+    /**
+     * Create a registry configured by system properties, see README for the available beeinstant.* properties
+     *
+     * @param serviceName, used to identify your service
+     * @param env,         the environment the service is running in like Development, Production, etc.
+     * @param hostInfo,    customized hostInfo info, can be an IP address of the localhost
+     */
+    public MetricsRegistry(final String serviceName, final String env, final String hostInfo) {
+        this(serviceName, env, hostInfo, new Properties());
+    }
+
+    /**
+     * Create a registry configured by the given beeinstant.* properties, falling back to system properties for
+     * settings which are not given. The registry starts flushing right away, unless beeinstant.flush.manual is true.
+     *
+     * @param serviceName, used to identify your service
+     * @param env,         the environment the service is running in like Development, Production, etc.
+     * @param hostInfo,    customized hostInfo info, can be an IP address of the localhost
+     * @param properties,  settings of this registry, like beeinstant.endpoint or beeinstant.flush.interval
+     */
+    public MetricsRegistry(final String serviceName, final String env, final String hostInfo, final Properties properties) {
+        if (!DimensionsUtils.isValidName(serviceName)) {
+            throw new IllegalArgumentException("Invalid service name");
+        }
+        this.properties = properties;
+        this.name = setting("beeinstant.registry.name", EMPTY_STRING);
+        final long offHeapMaxBytes = Long.valueOf(setting("beeinstant.recorder.offHeap.maxBytes", "0"));
+        this.config = new MetricsConfig(new MetricNames(Integer.valueOf(setting("beeinstant.metrics.maxNames", "65536"))),
+                offHeapMaxBytes > 0 ? new OffHeapSamplePool(Integer.valueOf(setting("beeinstant.recorder.offHeap.slabBytes", "65536")), offHeapMaxBytes) : null,
+                Double.valueOf(setting("beeinstant.recorder.precision", "0")),
+                Boolean.valueOf(setting("beeinstant.recorder.collapseDuplicates", "false")), this::reportError);
+        this.flushInSeconds = Integer.valueOf(setting("beeinstant.flush.interval", "10"));
+        this.flushStartDelayInSeconds = Integer.valueOf(setting("beeinstant.flush.startDelay", "5"));
+        this.flushMinIntervalInSeconds = Integer.valueOf(setting("beeinstant.flush.minInterval", String.valueOf(flushInSeconds)));
+        this.flushMaxIntervalInSeconds = Integer.valueOf(setting("beeinstant.flush.maxInterval", String.valueOf(flushInSeconds)));
+        this.flushJitterMillis = Long.valueOf(setting("beeinstant.flush.jitterMillis", "1000"));
+        this.flushAlign = Boolean.valueOf(setting("beeinstant.flush.align", "false"));
+        this.flushTargetBytes = Long.valueOf(setting("beeinstant.flush.targetBytes", "0"));
+        this.flushParallelism = Integer.valueOf(setting("beeinstant.flush.parallelism", "1"));
+        this.exportFile = setting("beeinstant.export.file", EMPTY_STRING);
+        this.exportDir = setting("beeinstant.export.dir", EMPTY_STRING);
+        this.exportSegmentBytes = Integer.valueOf(setting("beeinstant.export.segmentBytes", "16777216"));
+        this.exportMaxBytes = Long.valueOf(setting("beeinstant.export.maxBytes", "1073741824"));
+        this.exportMaxAgeMillis = Long.valueOf(setting("beeinstant.export.maxAgeMillis", "0"));
+        this.exportUdp = setting("beeinstant.export.udp", EMPTY_STRING);
+        this.exportMaxBatches = Integer.valueOf(setting("beeinstant.export.maxBatches", "16"));
+        this.exportCloseTimeoutMillis = Long.valueOf(setting("beeinstant.export.closeTimeoutMillis", "5000"));
+        this.sharedMemoryFile = setting("beeinstant.sharedMemory.file", EMPTY_STRING);
+        this.sharedMemorySlots = Integer.valueOf(setting("beeinstant.sharedMemory.slots", "4096"));
+        this.sharedMemoryMaxKeyBytes = Integer.valueOf(setting("beeinstant.sharedMemory.maxKeyBytes", "1024"));
+        this.sharedMemoryReader = Boolean.valueOf(setting("beeinstant.sharedMemory.reader", "true"));
+        this.shutdownHook = Boolean.valueOf(setting("beeinstant.shutdown.hook", "false"));
+        this.shutdownTimeoutMillis = Long.valueOf(setting("beeinstant.shutdown.timeoutMillis", "5000"));
+        this.selfMetricsJmx = Boolean.valueOf(setting("beeinstant.selfMetrics.jmx", "true"));
+        this.selfMetricsEmit = Boolean.valueOf(setting("beeinstant.selfMetrics.emit", "false"));
+        this.recorderSampleRate = Double.valueOf(setting("beeinstant.recorder.sampleRate", "1.0"));
+        this.disabledMetrics = setting("beeinstant.metrics.disabled", EMPTY_STRING);
+        this.configJmx = Boolean.valueOf(setting("beeinstant.config.jmx", "true"));
+        this.jvmMetrics = Boolean.valueOf(setting("beeinstant.jvmMetrics.enabled", "false"));
+        this.manualFlush = Boolean.valueOf(setting("beeinstant.flush.manual", "false"));
+        this.publicKey = setting("beeinstant.publicKey", EMPTY_STRING);
+        this.secretKey = setting("beeinstant.secretKey", EMPTY_STRING);
+        this.endpoint = setting("beeinstant.endpoint", EMPTY_STRING);
+        this.maxPayloadBytes = Integer.valueOf(setting("beeinstant.flush.maxPayloadBytes", "1048576"));
+        this.uploadThreads = Integer.valueOf(setting("beeinstant.flush.uploadThreads", "2"));
+        this.queueMaxLines = Integer.valueOf(setting("beeinstant.queue.maxLines", "1000000"));
+        this.queueMaxBytes = Long.valueOf(setting("beeinstant.queue.maxBytes", "67108864"));
+        this.queueOverflowPolicy = MetricsQueue.OverflowPolicy.valueOf(setting("beeinstant.queue.overflowPolicy", "DROP_OLDEST").toUpperCase());
+        this.queueBlockTimeoutMillis = Long.valueOf(setting("beeinstant.queue.blockTimeoutMillis", "1000"));
+        this.spoolDir = setting("beeinstant.spool.dir", EMPTY_STRING);
+        this.spoolSegmentBytes = Integer.valueOf(setting("beeinstant.spool.segmentBytes", "8388608"));
+        this.spoolMaxBytes = Long.valueOf(setting("beeinstant.spool.maxBytes", "268435456"));
+        this.retryMaxAttempts = Integer.valueOf(setting("beeinstant.retry.maxAttempts", "5"));
+        this.retryBaseDelayMillis = Long.valueOf(setting("beeinstant.retry.baseDelayMillis", "1000"));
+        this.retryMaxDelayMillis = Long.valueOf(setting("beeinstant.retry.maxDelayMillis", "60000"));
+        this.retryMaxBytes = Long.valueOf(setting("beeinstant.retry.maxBytes", "16777216"));
+        this.httpTimeoutMillis = Integer.valueOf(setting("beeinstant.http.timeoutMillis", "10000"));
+        this.httpAsync = Boolean.valueOf(setting("beeinstant.http.async", "false"));
+        this.httpMaxInFlight = Integer.valueOf(setting("beeinstant.http.maxInFlight", "8"));
+        this.httpConnectionTtlMillis = Long.valueOf(setting("beeinstant.http.connectionTtlMillis", "300000"));
+        this.httpIdleTimeoutMillis = Long.valueOf(setting("beeinstant.http.idleTimeoutMillis", "30000"));
+        this.httpValidateAfterInactivityMillis = Integer.valueOf(setting("beeinstant.http.validateAfterInactivityMillis", "2000"));
+        this.httpWarmUpConnections = Integer.valueOf(setting("beeinstant.http.warmUpConnections", "1"));
+        this.httpPoolMetrics = Boolean.valueOf(setting("beeinstant.http.poolMetrics", "false"));
+        this.metricsQueue = new MetricsQueue(queueMaxLines, queueMaxBytes, queueOverflowPolicy, queueBlockTimeoutMillis);
+        this.serviceName = serviceName;
+        this.env = env.trim();
+        this.hostInfo = hostInfo;
+        if (endpoint.startsWith(UDP_SCHEME)) {
+            this.udpTarget = createSocketAddressFromEndpoint(endpoint);
+            this.agentAddress = null;
+            this.beeInstantHost = null;
+        } else if (endpoint.startsWith(AGENT_SCHEME)) {
+            this.udpTarget = null;
+            this.agentAddress = createSocketAddressFromEndpoint(endpoint);
+            this.beeInstantHost = null;
+        } else {
+            this.udpTarget = null;
+            this.agentAddress = null;
+            this.beeInstantHost = createHostFromEndpoint(endpoint);
+        }
+        String envDimension = EMPTY_STRING;
+        if (this.env.length() > 0) {
+            envDimension = ",env=" + this.env;
+        }
+        this.rootMetricsLogger = this.metricsLoggers.computeIfAbsent("service=" + serviceName + envDimension,
+                key -> new MetricsLogger(DimensionsUtils.parseDimensions(key, this::reportError), this));
+        start();
+    }
+
+    private synchronized void start() {
+        if (beeInstantHost != null) {
+            this.transport = createTransport(beeInstantHost);
+            this.transport.warmUp(httpWarmUpConnections);
+        }
+        this.spool = createSpool(spoolDir);
+        createExporters();
+        this.sharedMemoryStore = createSharedMemoryStore(sharedMemoryFile);
+        if (jvmMetrics) {
+            this.jvmMetricsCollector = new JvmMetricsCollector();
+        }
+        if (this.spool != null) {
+            final DiskSpool diskSpool = this.spool;
+            metricsQueue.setSpillHandler(line -> diskSpool.append(line + "\n"));
+        }
+        this.retryExecutorService = Executors.newSingleThreadScheduledExecutor();
+        this.retryScheduler = new RetryScheduler(retryExecutorService,
+                payload -> putMetric(payload, System.currentTimeMillis() / 1000).join(),
+                this::spoolOrDrop,
+                retryMaxAttempts, retryBaseDelayMillis, retryMaxDelayMillis, retryMaxBytes);
+        this.selfMetrics.setGauges(metricsQueue::size, metricsQueue::bytes, this::getRetryBytes, this::getSpoolBytes);
+        if (selfMetricsJmx) {
+            this.selfMetrics.registerMBean(this.name);
+        }
+        if (flushParallelism > 1) {
+            this.flushPool = new ForkJoinPool(flushParallelism);
+        }
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        // a flush scheduled for later must not hold up shutdown
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executorService = executor;
+        if (shutdownHook) {
+            this.shutdownHookThread = new Thread(() -> shutdown(shutdownTimeoutMillis), "beeinstant-shutdown");
+            Runtime.getRuntime().addShutdownHook(this.shutdownHookThread);
+        }
+        FlushScheduler flushScheduler = null;
+        if (!manualFlush) {
+            try {
+                // don't wait for uploads, a slow upload must not delay the next flush
+                flushScheduler = new FlushScheduler(executorService,
+                        this::collectAll,
+                        metricsQueue::bytes,
+                        () -> flushToServer(System.currentTimeMillis() / 1000),
+                        System::currentTimeMillis,
+                        SECONDS.toMillis(flushInSeconds),
+                        SECONDS.toMillis(flushMinIntervalInSeconds),
+                        SECONDS.toMillis(flushMaxIntervalInSeconds),
+                        flushJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(flushJitterMillis) : 0,
+                        flushAlign,
+                        flushTargetBytes);
+                flushScheduler.start(SECONDS.toMillis(flushStartDelayInSeconds));
+            } catch (Throwable e) {
+                LOG.error("Cannot submit metrics", e);
+            }
+        }
+        this.flushScheduler = flushScheduler;
+        this.config.attach(metricsQueue, flushScheduler);
+        this.config.setRecorderSampleRate(recorderSampleRate);
+        this.config.setDisabledMetrics(disabledMetrics);
+        if (configJmx) {
+            this.config.registerMBean(this.name);
+        }
+    }
+
+    private String setting(final String key, final String defaultValue) {
+        return this.properties.getProperty(key, System.getProperty(key, defaultValue));
+    }
+
+    /**
+     * Shutdown this registry gracefully: stop handing out metrics loggers, flush metrics collected so far and upload
+     * them, waiting at most timeoutMillis. Metrics which are not uploaded by then, including uploads waiting for a
+     * retry, are spooled on disk when beeinstant.spool.dir is set, then resources are cleaned up as by shutdown().
+     * Metrics recorded after the final flush, into loggers obtained before, are lost.
+     * <p>
+     * This method is installed as a JVM shutdown hook when beeinstant.shutdown.hook is true, with the timeout
+     * beeinstant.shutdown.timeoutMillis.
+     *
+     * @param timeoutMillis, how long to wait for the final flush
+     */
+    public synchronized void shutdown(final long timeoutMillis) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (!this.closed && !closing) {
+            closing = true;
+            final ScheduledExecutorService executorService = this.executorService;
+            try {
+                if (this.flushScheduler != null) {
+                    this.flushScheduler.stop();
+                }
+                // let a running flush finish, it may hold metrics taken from the loggers, flushes scheduled for
+                // later are dropped
+                executorService.shutdown();
+                executorService.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), MILLISECONDS);
+                collectAll();
+                // wait for the uploads of the last scheduled flush along with the final one
+                final CompletableFuture<Void> lastFlush = this.flushScheduler != null
+                        ? this.flushScheduler.getLastFlush().exceptionally(e -> null)
+                        : CompletableFuture.completedFuture(null);
+                CompletableFuture.allOf(lastFlush, flushToServer(System.currentTimeMillis() / 1000))
+                        .get(Math.max(deadline - System.currentTimeMillis(), 0), MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                LOG.warn("Final flush did not complete in " + timeoutMillis + " ms", e);
+            }
+            spoolRemaining();
+        }
+        shutdown();
+    }
+
+    /**
+     * Spool metric lines still queued and uploads waiting for a retry
+     */
+    private void spoolRemaining() {
+        if (this.retryExecutorService != null) {
+            this.retryExecutorService.shutdownNow();
+            this.retryScheduler.giveUpPending();
+        }
+        Payload payload;
+        while (!(payload = nextPayload()).isEmpty()) {
+            if (beeInstantHost != null && !spool(payload.toString())) {
+                this.selfMetrics.recordDroppedBytes(payload.length());
+                LOG.error("Drop " + payload.length() + " bytes of metrics");
+            }
+        }
+    }
+
+    /**
+     * Shutdown this registry, clean up resources. Metrics loggers of a registry which is shut down do nothing.
+     */
+    public synchronized void shutdown() {
+        if (this.shutdownHookThread != null) {
+            if (Thread.currentThread() != this.shutdownHookThread) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(this.shutdownHookThread);
+                } catch (IllegalStateException e) {
+                    // the JVM is shutting down already
+                }
+            }
+            this.shutdownHookThread = null;
+        }
+        if (this.executorService != null) {
+            this.executorService.shutdown();
+            this.executorService = null;
+        }
+        if (this.flushPool != null) {
+            this.flushPool.shutdown();
+            this.flushPool = null;
+        }
+        if (this.retryExecutorService != null) {
+            this.retryScheduler = null;
+            this.retryExecutorService.shutdownNow();
+            this.retryExecutorService = null;
+        }
+        if (!this.closed) {
+            this.closed = true;
+            if (this.transport != null) {
+                this.transport.close();
+                this.transport = null;
+            }
+        }
+        exporterSinks.forEach(sink -> sink.close(exportCloseTimeoutMillis));
+        exporterSinks.clear();
+        this.jvmMetricsCollector = null;
+        if (this.sharedMemoryStore != null) {
+            this.sharedMemoryStore.close();
+            this.sharedMemoryStore = null;
+        }
+        if (this.spool != null) {
+            metricsQueue.setSpillHandler(line -> false);
+            this.spool.close();
+            this.spool = null;
+        }
+        if (selfMetricsJmx) {
+            this.selfMetrics.unregisterMBean();
+        }
+        if (configJmx) {
+            this.config.unregisterMBean();
+        }
+        this.config.attach(metricsQueue, null);
+        closing = false;
+    }
+
+    /**
+     * Get MetricsLogger to start collecting metrics. MetricsLogger can be used to collect Counter, Timer or Recorder
+     *
+     * @param dimensions, key-value pairs aka dimensions for example "api=Upload, region=DUB"
+     * @return metrics logger
+     */
+    public MetricsLogger getMetricsLogger(final String dimensions) {
+        if (!this.closed && !closing) {
+            final Map<String, String> dimensionsMap = DimensionsUtils.parseDimensions(dimensions, this::reportError);
+            if (!dimensionsMap.isEmpty()) {
+                dimensionsMap.put("service", this.serviceName);
+                if (this.env.length() > 0) {
+                    dimensionsMap.put("env", this.env);
+                }
+                return this.metricsLoggers.computeIfAbsent(
+                        DimensionsUtils.serializeDimensionsToString(dimensionsMap), key -> new MetricsLogger(dimensionsMap, this));
+            } else {
+                throw new IllegalArgumentException("Dimensions must be valid and non-empty");
+            }
+        }
+        return dummyLogger;
+    }
+
+    /**
+     * Get Metrics which write into the shared memory file configured by beeinstant.sharedMemory.file, so processes of
+     * a host share their counters and recorders and only one of them flushes them. Timers and recorders are kept as
+     * histograms with about 9% precision.
+     *
+     * @param dimensions, key-value pairs aka dimensions for example "api=Upload, region=DUB"
+     * @return metrics, which do nothing if no shared memory file is configured
+     */
+    public Metrics getSharedMetrics(final String dimensions) {
+        final SharedMemoryStore sharedMemoryStore = this.sharedMemoryStore;
+        if (!this.closed && !closing && sharedMemoryStore != null) {
+            final Map<String, String> dimensionsMap = DimensionsUtils.parseDimensions(dimensions, this::reportError);
+            if (!dimensionsMap.isEmpty()) {
+                dimensionsMap.put("service", this.serviceName);
+                if (this.env.length() > 0) {
+                    dimensionsMap.put("env", this.env);
+                }
+                return new SharedMemoryMetrics(sharedMemoryStore,
+                        DimensionsUtils.serializeDimensionsToString(dimensionsMap), this.config);
+            } else {
+                throw new IllegalArgumentException("Dimensions must be valid and non-empty");
+            }
+        }
+        return dummyLogger;
+    }
+
+    /**
+     * Get the settings which can be changed at runtime, like flush interval, queue bounds, sampling or disabled
+     * metrics. They are also exposed through JMX as MBean com.beeinstant.metrics:type=Config, qualified by
+     * registry=name when beeinstant.registry.name is set.
+     *
+     * @return runtime settings
+     */
+    public MetricsConfigMBean getConfig() {
+        return this.config;
+    }
+
+    MetricsConfig getMetricsConfig() {
+        return this.config;
+    }
+
+    SelfMetricsMBean getSelfMetrics() {
+        return this.selfMetrics;
+    }
+
+    /**
+     * Get Root metrics logger which manages the root dimensions "service=YourServiceName"
+     *
+     * @return metrics logger for the root dimensions
+     */
+    public MetricsLogger getRootMetricsLogger() {
+        if (!this.closed && !closing) {
+            return this.rootMetricsLogger;
+        }
+        return dummyLogger;
+    }
+
+    /**
+     * Report errors during metric data collecting process of this registry. Report in two forms, a host level metric
+     * which counts number of errors and a log line with message for each error.
+     *
+     * @param errorMessage, error message during metric data collecting process
+     */
+    void reportError(final String errorMessage) {
+        final MetricsLogger rootMetricsLogger = getRootMetricsLogger();
+        // errors may be reported while the registry is being created
+        if (rootMetricsLogger != null) {
+            rootMetricsLogger.incCounter(METRIC_ERRORS, 1);
+        }
+        LOG.error(errorMessage);
+    }
+
+    /**
+     * Flush all metrics which have been collected so far by all MetricsLoggers. Metrics can also be flushed by
+     * each MetricsLogger individually. The calling thread waits until metrics are uploaded.
+     */
+    public void flushAll(long now) {
+        if (!this.closed) {
+            collectAll();
+            flushToServer(now).join();
+        }
+    }
+
+    /**
+     * Flush all metrics which have been collected so far by all MetricsLoggers without blocking the calling thread.
+     * Metrics are collected and uploaded by the flush thread.
+     *
+     * @return future completed when metrics are uploaded
+     */
+    public CompletableFuture<Void> flushAllAsync(long now) {
+        return runOnFlushThread(() -> {
+            if (!this.closed) {
+                collectAll();
+            }
+            return flushToServer(now);
+        });
+    }
+
+    private void collectAll() {
+        if (!this.closed) {
+            final long start = System.nanoTime();
+            final long droppedLines = metricsQueue.takeDroppedLines();
+            if (droppedLines > 0) {
+                this.selfMetrics.recordDroppedLines(droppedLines);
+                this.rootMetricsLogger.incCounter(METRIC_DROPPED_LINES, (int) Math.min(droppedLines, Integer.MAX_VALUE));
+            }
+            final OffHeapSamplePool offHeapSamplePool = this.config.getOffHeapSamplePool();
+            final long droppedSamples = offHeapSamplePool != null ? offHeapSamplePool.takeDroppedSamples() : 0;
+            if (droppedSamples > 0) {
+                this.rootMetricsLogger.incCounter(METRIC_DROPPED_SAMPLES, (int) Math.min(droppedSamples, Integer.MAX_VALUE));
+            }
+            if (selfMetricsEmit) {
+                this.selfMetrics.emitTo(this.rootMetricsLogger);
+            }
+            final JvmMetricsCollector jvmMetricsCollector = this.jvmMetricsCollector;
+            if (jvmMetricsCollector != null) {
+                jvmMetricsCollector.collect(this.rootMetricsLogger);
+            }
+            final MetricsTransport transport = this.transport;
+            if (httpPoolMetrics && transport != null) {
+                final PoolStats poolStats = transport.getPoolStats();
+                this.rootMetricsLogger.record(METRIC_HTTP_CONNECTIONS_LEASED, poolStats.getLeased(), Unit.NONE);
+                this.rootMetricsLogger.record(METRIC_HTTP_CONNECTIONS_AVAILABLE, poolStats.getAvailable(), Unit.NONE);
+                this.rootMetricsLogger.record(METRIC_HTTP_CONNECTIONS_PENDING, poolStats.getPending(), Unit.NONE);
+            }
+            final MetricsLogger rootMetricsLogger = this.rootMetricsLogger;
+            final ForkJoinPool flushPool = this.flushPool;
+            final List<MetricRecord> batch = new ArrayList<>();
+            if (flushPool != null) {
+                collectInParallel(flushPool, this.metricsLoggers.values(), batch);
+                rootMetricsLogger.flushToRecords(batch::add);
+            } else {
+                // the root logger follows the first logger, as when flushing a single logger
+                boolean rootFlushed = false;
+                for (final MetricsLogger metricsLogger : this.metricsLoggers.values()) {
+                    if (metricsLogger != rootMetricsLogger) {
+                        metricsLogger.flushToRecords(batch::add);
+                    }
+                    if (!rootFlushed) {
+                        rootMetricsLogger.flushToRecords(batch::add);
+                        rootFlushed = true;
+                    }
+                }
+            }
+            final SharedMemoryStore sharedMemoryStore = this.sharedMemoryStore;
+            if (sharedMemoryStore != null) {
+                if (sharedMemoryReader && sharedMemoryStore.tryBecomeReader()) {
+                    sharedMemoryStore.drain(batch::add, this.config.collapsesDuplicates());
+                } else {
+                    sharedMemoryStore.publish();
+                }
+            }
+            export(batch, false);
+            this.selfMetrics.recordCollect(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Serialize loggers on the flush pool. Loggers are partitioned over the workers, each partition is serialized
+     * into its own buffer, then buffers are merged by the calling thread, so workers don't contend with each other.
+     */
+    private void collectInParallel(final ForkJoinPool flushPool,
+                                   final Collection<MetricsLogger> metricsLoggers,
+                                   final List<MetricRecord> batch) {
+        final MetricsLogger rootMetricsLogger = this.rootMetricsLogger;
+        final List<MetricsLogger> loggers = new ArrayList<>(metricsLoggers.size());
+        metricsLoggers.forEach(metricsLogger -> {
+            if (metricsLogger != rootMetricsLogger) {
+                loggers.add(metricsLogger);
+            }
+        });
+        final int partitions = Math.min(loggers.size(), flushPool.getParallelism() * 4);
+        final List<ForkJoinTask<List<MetricRecord>>> tasks = new ArrayList<>(partitions);
+        try {
+            for (int partition = 0; partition < partitions; partition++) {
+                final int first = partition;
+                tasks.add(flushPool.submit(() -> {
+                    final List<MetricRecord> buffer = new ArrayList<>();
+                    for (int i = first; i < loggers.size(); i += partitions) {
+                        loggers.get(i).flushToRecords(buffer::add);
+                    }
+                    return buffer;
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Flush pool is shut down, serialize on the calling thread");
+        }
+        for (final ForkJoinTask<List<MetricRecord>> task : tasks) {
+            batch.addAll(task.join());
+        }
+        // partitions which could not be submitted
+        for (int i = tasks.size(); i < partitions; i++) {
+            for (int j = i; j < loggers.size(); j += partitions) {
+                loggers.get(j).flushToRecords(batch::add);
+            }
+        }
+    }
+
+    /**
+     * Flush metrics to BeeInstant Server. Queued metrics are split into payloads of at most
+     * beeinstant.flush.maxPayloadBytes bytes, each payload is signed and uploaded separately. Payloads are
+     * uploaded concurrently, the flushing thread is only blocked while the in-flight upload limit of the transport
+     * is reached, so no more payloads than in-flight uploads are held in memory at the same time. Payloads which
+     * cannot be uploaded are retried, then spooled on disk when beeinstant.spool.dir is set, and replayed
+     * oldest-first once uploads succeed again.
+     *
+     * @return future completed when all payloads are uploaded
+     */
+    CompletableFuture<Void> flushToServer(long now) {
+        LOG.debug("Flush to BeeInstant Server");
+        final MetricsTransport transport = this.transport;
+        if (transport != null) {
+            transport.evictConnections();
+        }
+        final List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        Payload payload;
+        while (!(payload = nextPayload()).isEmpty()) {
+            if (beeInstantHost != null) {
+                uploads.add(upload(payload, now));
+            }
+        }
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(ignored -> replaySpoolAsync(now));
+    }
+
+    /**
+     * Flush metrics collected by MetricsLogger without blocking the calling thread
+     *
+     * @param metricsLogger, logger to flush
+     * @return future completed when metrics are uploaded
+     */
+    CompletableFuture<Void> flushMetricsLoggerAsync(final MetricsLogger metricsLogger, final long now) {
+        return runOnFlushThread(() -> {
+            if (!this.closed) {
+                flushMetricsLogger(metricsLogger);
+            }
+            return flushToServer(now);
+        });
+    }
+
+    private CompletableFuture<Void> runOnFlushThread(final Supplier<CompletableFuture<Void>> flush) {
+        final ScheduledExecutorService executorService = this.executorService;
+        if (executorService == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            return CompletableFuture.supplyAsync(flush, executorService).thenCompose(Function.identity());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private CompletableFuture<Void> upload(final Payload payload, final long now) {
+        final long start = System.nanoTime();
+        return putMetric(payload, now).thenAccept(result -> {
+            this.selfMetrics.recordUpload(System.nanoTime() - start, result.isRetryable());
+            if (result.isRetryable()) {
+                retry(payload.toString(), result);
+            }
+        }).exceptionally(e -> {
+            LOG.error("Fail to emit metrics", e);
+            return null;
+        });
+    }
+
+    private void retry(final String payload, final RetryScheduler.Result failure) {
+        final RetryScheduler retryScheduler = this.retryScheduler;
+        if (retryScheduler != null) {
+            this.selfMetrics.recordRetry();
+            retryScheduler.retry(payload, failure);
+        } else if (!spoolOrDrop(payload)) {
+            LOG.error("Drop " + payload.length() + " bytes of metrics");
+        }
+    }
+
+    /**
+     * Spool a payload which is given up, count its bytes as dropped if it cannot be spooled
+     */
+    private boolean spoolOrDrop(final String payload) {
+        if (spool(payload)) {
+            return true;
+        }
+        this.selfMetrics.recordDroppedBytes(payload.length());
+        return false;
+    }
+
+    private boolean spool(final String payload) {
+        final DiskSpool spool = this.spool;
+        if (spool != null && spool.append(payload)) {
+            this.selfMetrics.recordSpooled(payload.length());
+            LOG.info("Spooled " + payload.length() + " bytes of metrics");
+            return true;
+        }
+        return false;
+    }
+
+    private CompletableFuture<Void> replaySpoolAsync(final long now) {
+        final ScheduledExecutorService retryExecutorService = this.retryExecutorService;
+        if (this.spool != null && retryExecutorService != null) {
+            // uploads complete on transport threads, don't block them while replaying
+            try {
+                return CompletableFuture.runAsync(() -> replaySpool(now), retryExecutorService);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Retry executor is shut down, skip spool replay");
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Replay spooled payloads oldest-first, stop at the first failed upload or after one flush interval.
+     * Nothing is replayed while uploads are waiting for a retry.
+     */
+    private void replaySpool(final long now) {
+        final DiskSpool spool = this.spool;
+        final RetryScheduler retryScheduler = this.retryScheduler;
+        if (spool == null || beeInstantHost == null || (retryScheduler != null && !retryScheduler.isIdle())
+                || !replayingSpool.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final long deadline = System.currentTimeMillis() + SECONDS.toMillis(flushInSeconds);
+            String payload;
+            while (System.currentTimeMillis() < deadline && (payload = spool.read(maxPayloadBytes)) != null) {
+                if (putMetric(payload, now).join().isRetryable()) {
+                    break;
+                }
+                spool.commit();
+            }
+        } finally {
+            replayingSpool.set(false);
+        }
+    }
+
+    /**
+     * Take metric lines from the queue until the payload reaches beeinstant.flush.maxPayloadBytes. A line which
+     * is bigger than the limit on its own is sent alone. The payload is signed while lines are appended.
+     */
+    private Payload nextPayload() {
+        final Payload payload = newPayload((int) Math.min(maxPayloadBytes, metricsQueue.bytes()));
+        int lines = 0;
+        String line;
+        while ((line = metricsQueue.poll()) != null) {
+            // metric lines only contain ASCII characters, see DimensionsUtils.isValidName
+            if (!payload.isEmpty() && payload.length() + line.length() + 1 > maxPayloadBytes) {
+                metricsQueue.addFirst(line);
+                break;
+            }
+            payload.appendLine(line);
+            lines++;
+        }
+        payload.sign();
+        this.selfMetrics.recordPayload(lines, payload.length());
+        return payload;
+    }
+
+    private Payload newPayload(final int capacity) {
+        Mac mac = null;
+        if (!publicKey.isEmpty() && !secretKey.isEmpty()) {
+            try {
+                mac = Signature.getMac(secretKey);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                LOG.error(e.getMessage());
+            }
+        }
+        return new Payload(mac, capacity);
+    }
+
+    private CompletableFuture<RetryScheduler.Result> putMetric(final String body, final long now) {
+        final Payload payload = newPayload(body.length());
+        payload.append(body);
+        payload.sign();
+        return putMetric(payload, now);
+    }
+
+    /**
+     * Upload a payload to BeeInstant Server
+     *
+     * @return whether the upload failed and can be tried again later
+     */
+    private CompletableFuture<RetryScheduler.Result> putMetric(final Payload payload, final long now) {
+        try {
+            if (!payload.getSignature().isEmpty()) {
+                final MetricsTransport transport = this.transport;
+                if (transport == null) {
+                    return CompletableFuture.completedFuture(RetryScheduler.Result.RETRY);
+                }
+                return transport.send(MetricsTransport.newPutMetricRequest(payload, publicKey, now)).thenApply(result -> {
+                    this.selfMetrics.recordHttpStatus(result.getStatusCode());
+                    return result;
+                });
+            }
+            return CompletableFuture.completedFuture(RetryScheduler.Result.DONE);
+        } catch (Throwable e) {
+            LOG.error("Fail to emit metrics", e);
+            return CompletableFuture.completedFuture(RetryScheduler.Result.RETRY);
+        }
+    }
+
+    private MetricsTransport createTransport(final HttpHost host) {
+        if (httpAsync) {
+            try {
+                return new AsyncHttpTransport(host, httpMaxInFlight, httpTimeoutMillis,
+                        httpConnectionTtlMillis, httpIdleTimeoutMillis);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Cannot start asynchronous HTTP transport, use the blocking one", e);
+            }
+        }
+        return new BlockingHttpTransport(host, uploadThreads, httpTimeoutMillis,
+                httpConnectionTtlMillis, httpIdleTimeoutMillis, httpValidateAfterInactivityMillis);
+    }
+
+    private DiskSpool createSpool(final String spoolDir) {
+        if (!spoolDir.isEmpty()) {
+            try {
+                return new DiskSpool(new File(spoolDir), spoolSegmentBytes, spoolMaxBytes);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Cannot open spool " + spoolDir, e);
+            }
+        }
+        return null;
+    }
+
+    private long getRetryBytes() {
+        final RetryScheduler retryScheduler = this.retryScheduler;
+        return retryScheduler != null ? retryScheduler.bytes() : 0;
+    }
+
+    private long getSpoolBytes() {
+        final DiskSpool spool = this.spool;
+        return spool != null ? spool.bytes() : 0;
+    }
+
+    private SharedMemoryStore createSharedMemoryStore(final String file) {
+        if (!file.isEmpty()) {
+            try {
+                return new SharedMemoryStore(new File(file), sharedMemorySlots, sharedMemoryMaxKeyBytes, this::reportError);
+            } catch (IOException e) {
+                LOG.error("Cannot open shared memory file " + file, e);
+            }
+        }
+        return null;
+    }
+
+    private void createExporters() {
+        if (udpTarget != null) {
+            try {
+                addExporter(new UdpExporter(udpTarget));
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Cannot send metrics to " + endpoint, e);
+            }
+        }
+        if (agentAddress != null) {
+            addExporter(new AgentExporter(agentAddress));
+        }
+        if (!exportFile.isEmpty()) {
+            try {
+                addExporter(new FileExporter(Paths.get(exportFile)));
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Cannot open export file " + exportFile, e);
+            }
+        }
+        if (!exportDir.isEmpty()) {
+            try {
+                addExporter(new RotatingFileExporter(Paths.get(exportDir), exportSegmentBytes, exportMaxBytes, exportMaxAgeMillis));
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Cannot open export directory " + exportDir, e);
+            }
+        }
+        final InetSocketAddress exportUdpTarget = exportUdp.isEmpty() ? null : createSocketAddressFromEndpoint(UDP_SCHEME + exportUdp);
+        if (exportUdpTarget != null) {
+            try {
+                addExporter(new UdpExporter(exportUdpTarget));
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Cannot export metrics to " + exportUdp, e);
+            }
+        }
+    }
+
+    /**
+     * Export flushed metrics with an exporter, in addition to uploading them to BeeInstant Server. The exporter
+     * gets its own queue and thread, it is closed by shutdown.
+     *
+     * @param exporter, exporter to add
+     */
+    public void addExporter(final MetricsExporter exporter) {
+        exporterSinks.add(new ExporterSink(exporter, exportMaxBatches));
+    }
+
+    /**
+     * Stop exporting metrics with an exporter, queued metrics are exported before the exporter is closed
+     *
+     * @param exporter, exporter to remove
+     */
+    public void removeExporter(final MetricsExporter exporter) {
+        exporterSinks.removeIf(sink -> {
+            if (sink.getExporter() == exporter) {
+                sink.close(exportCloseTimeoutMillis);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Get localhost, this value can be a hostname or a customized value for example an IP address
+     *
+     * @return localhost
+     */
+    public String getHostInfo() {
+        if (!this.closed) {
+            return this.hostInfo;
+        }
+        return EMPTY_STRING;
+    }
+
+    /**
+     * Get Service name of this registry
+     *
+     * @return service name
+     */
+    public String getServiceName() {
+        if (!this.closed) {
+            return this.serviceName;
+        }
+        return EMPTY_STRING;
+    }
+
+    /**
+     * Get environment of this registry
+     *
+     * @return environment
+     */
+    public String getEnvironment() {
+        if (!this.closed) {
+            return this.env;
+        }
+        return EMPTY_STRING;
+    }
+
+    /**
+     * Flush metrics collected by MetricsLogger to log files. Will be used by MetricsLogger to flush itself.
+     *
+     * @param metricsLogger, contain metric dimensions, metric names, metric data (counter, timer, recorder)
+     */
+    void flushMetricsLogger(final MetricsLogger metricsLogger) {
+        final List<MetricRecord> batch = new ArrayList<>();
+        metricsLogger.flushToRecords(batch::add);
+        this.rootMetricsLogger.flushToRecords(batch::add);
+        export(batch, true);
+    }
+
+    /**
+     * Queue flushed metrics for BeeInstant Server and hand them over to the exporters. Values collapsed as "value*n"
+     * are expanded, except for exporters which decode them. Only application threads may wait for room in the queue,
+     * the flush thread is its only consumer.
+     */
+    private void export(final List<MetricRecord> batch, final boolean mayBlock) {
+        final List<MetricRecord> expanded = this.config.collapsesDuplicates() ? expand(batch) : batch;
+        if (beeInstantHost != null) {
+            expanded.forEach(record -> metricsQueue.add(record.toString(), mayBlock));
+        }
+        exporterSinks.forEach(sink -> sink.offer(sink.getExporter().decodesCollapsedValues() ? batch : expanded));
+    }
+
+    private static List<MetricRecord> expand(final List<MetricRecord> batch) {
+        final List<MetricRecord> expanded = new ArrayList<>(batch.size());
+        batch.forEach(record -> expanded.add(record.withExpandedValues()));
+        return expanded;
+    }
+
+    /**
+     * Parse an endpoint like udp://localhost:8125 or agent://127.0.0.1:5757
+     */
+    static InetSocketAddress createSocketAddressFromEndpoint(final String endpoint) {
+        final String hostAndPort = endpoint.substring(endpoint.indexOf("://") + 3);
+        final int separator = hostAndPort.lastIndexOf(':');
+        try {
+            return new InetSocketAddress(hostAndPort.substring(0, separator), Integer.parseInt(hostAndPort.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            LOG.error("Invalid endpoint " + endpoint);
+        }
+        return null;
+    }
+
+    static HttpHost createHostFromEndpoint(String endpoint) {
+        HttpHost host = null;
+        try {
+            final URL url = new URL(endpoint);
+            host = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
+        } catch (MalformedURLException e) {
+            LOG.error(e.getMessage());
+        }
+        return host;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Send PutMetric requests to BeeInstant Server
+ */
+interface MetricsTransport extends Closeable {
+
+    /**
+     * Send a request. The calling thread is blocked while the in-flight request limit is reached.
+     *
+     * @param request, signed PutMetric request
+     * @return outcome of the request, the future never completes exceptionally
+     */
+    CompletableFuture<RetryScheduler.Result> send(final HttpPost request);
+
+    /**
+     * Open connections to BeeInstant Server ahead of the first upload, so that uploads don't pay for TCP and TLS
+     * handshakes
+     *
+     * @param connections, number of connections to open
+     * @return future completed when connections are open, the future never completes exceptionally
+     */
+    CompletableFuture<Void> warmUp(final int connections);
+
+    /**
+     * Close connections which are expired or idle for too long
+     */
+    void evictConnections();
+
+    /**
+     * Get statistics of the connection pool
+     *
+     * @return number of leased, pending and available connections
+     */
+    PoolStats getPoolStats();
+
+    @Override
+    void close();
+
+    /**
+     * Build the PutMetric request of a signed payload
+     */
+    static HttpPost newPutMetricRequest(final Payload payload, final String publicKey, final long now)
+            throws UnsupportedEncodingException {
+        String uri = "/PutMetric";
+        uri += "?signature=" + URLEncoder.encode(payload.getSignature(), "UTF-8");
+        uri += "&publicKey=" + URLEncoder.encode(publicKey, "UTF-8");
+        uri += "&timestamp=" + now;
+        final HttpPost request = new HttpPost(uri);
+        request.setEntity(payload.toEntity());
+        return request;
+    }
+
+    /**
+     * Get the route requests to a host go through, with the default port of the scheme if the host has no port
+     */
+    static HttpRoute routeOf(final HttpHost host) {
+        HttpHost target = host;
+        if (target.getPort() <= 0) {
+            try {
+                target = new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host), host.getSchemeName());
+            } catch (UnsupportedSchemeException e) {
+                throw new IllegalArgumentException("Unsupported scheme " + host.getSchemeName(), e);
+            }
+        }
+        return new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName()));
+    }
+
+    /**
+     * Keep connections alive as long as the server allows, or 60 seconds if the server doesn't tell
+     */
+    static long getKeepAliveMillis(final HttpResponse response, final HttpContext context) {
+        final long keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        return keepAliveMillis > 0 ? keepAliveMillis : 60000;
+    }
+
+    static RetryScheduler.Result resultOf(final HttpResponse response) {
+        final int statusCode = response.getStatusLine().getStatusCode();
+        final boolean retryable = statusCode >= 500 || statusCode == 429;
+        return RetryScheduler.Result.ofResponse(statusCode, retryable, retryable ? getRetryAfterMillis(response) : 0);
+    }
+
+    /**
+     * Get Retry-After header of a response, given either in seconds or as a HTTP date
+     *
+     * @return milliseconds to wait before retrying, 0 if the header is missing or invalid
+     */
+    static long getRetryAfterMillis(final HttpResponse response) {
+        final Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter != null) {
+            final String value = retryAfter.getValue().trim();
+            try {
+                return SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+            } catch (NumberFormatException e) {
+                final Date date = DateUtils.parseDate(value);
+                if (date != null) {
+                    return Math.max(0, date.getTime() - System.currentTimeMillis());
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct ByteBuffer slabs which hold recorder and timer samples outside of the heap. A recorder starts with
+ * a small slab and doubles the size of the next one up to the slab size, so rarely used recorders don't hold a whole
+ * slab. Slabs are allocated on demand up to the budget of a registry and reused after each flush, they are never
+ * freed. Samples which don't fit into the budget are dropped and counted. This class is thread-safe.
+ */
+class OffHeapSamplePool {
+
+    private static final Logger LOG = Logger.getLogger(OffHeapSamplePool.class);
+    private static final int FIRST_SLAB_BYTES = 256;
+
+    private final int[] slabSizes;
+    private final long maxBytes;
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+    private final List<Queue<ByteBuffer>> freeSlabs = new ArrayList<>();
+    private final LongAdder droppedSamples = new LongAdder();
+
+    /**
+     * @param slabBytes, size of the largest slab
+     * @param maxBytes,  budget of all slabs
+     */
+    OffHeapSamplePool(final int slabBytes, final long maxBytes) {
+        if (slabBytes < Double.BYTES) {
+            throw new IllegalArgumentException("A slab must hold at least one sample");
+        }
+        final int maxSlabBytes = slabBytes - slabBytes % Double.BYTES;
+        final List<Integer> slabSizes = new ArrayList<>();
+        for (int size = Math.min(FIRST_SLAB_BYTES, maxSlabBytes); size < maxSlabBytes; size *= 2) {
+            slabSizes.add(size);
+        }
+        slabSizes.add(maxSlabBytes);
+        this.slabSizes = slabSizes.stream().mapToInt(Integer::intValue).toArray();
+        for (int i = 0; i < this.slabSizes.length; i++) {
+            this.freeSlabs.add(new ConcurrentLinkedQueue<>());
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    int getFirstSlabBytes() {
+        return this.slabSizes[0];
+    }
+
+    /**
+     * @return size of the slab following a full slab of the given size
+     */
+    int getNextSlabBytes(final int slabBytes) {
+        return this.slabSizes[Math.min(indexOf(slabBytes) + 1, this.slabSizes.length - 1)];
+    }
+
+    /**
+     * Take a free slab or allocate a new one. When the budget is used up, smaller slabs are allocated, then larger
+     * free slabs are taken.
+     *
+     * @return an empty slab, or null if the budget is used up
+     */
+    ByteBuffer acquire(final int slabBytes) {
+        final int requested = indexOf(slabBytes);
+        for (int index = requested; index >= 0; index--) {
+            final ByteBuffer slab = this.freeSlabs.get(index).poll();
+            if (slab != null) {
+                return slab;
+            }
+            final int size = this.slabSizes[index];
+            if (reserve(size)) {
+                return allocate(size);
+            }
+        }
+        for (int index = requested + 1; index < this.slabSizes.length; index++) {
+            final ByteBuffer slab = this.freeSlabs.get(index).poll();
+            if (slab != null) {
+                return slab;
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer allocate(final int size) {
+        try {
+            return ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError e) {
+            this.allocatedBytes.addAndGet(-size);
+            LOG.error("Cannot allocate " + size + " bytes off the heap", e);
+            return null;
+        }
+    }
+
+    private boolean reserve(final int size) {
+        long allocated;
+        do {
+            allocated = this.allocatedBytes.get();
+            if (allocated + size > this.maxBytes) {
+                return false;
+            }
+        } while (!this.allocatedBytes.compareAndSet(allocated, allocated + size));
+        return true;
+    }
+
+    private int indexOf(final int slabBytes) {
+        for (int index = 0; index < this.slabSizes.length; index++) {
+            if (this.slabSizes[index] >= slabBytes) {
+                return index;
+            }
+        }
+        return this.slabSizes.length - 1;
+    }
+
+    void release(final ByteBuffer slab) {
+        slab.clear();
+        this.freeSlabs.get(indexOf(slab.capacity())).add(slab);
+    }
+
+    void recordDroppedSample() {
+        this.droppedSamples.increment();
+    }
+
+    long takeDroppedSamples() {
+        return this.droppedSamples.sumThenReset();
+    }
+
+    long getAllocatedBytes() {
+        return this.allocatedBytes.get();
+    }
+
+    int getFreeSlabs() {
+        return this.freeSlabs.stream().mapToInt(Queue::size).sum();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.beeinstant.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Samples of one recorder, appended as doubles into slabs of an OffHeapSamplePool. Only the list of slabs is kept
+ * on the heap. Adding a sample is lock-free, a position in the current slab is reserved by an atomic counter. This
+ * class is thread-safe.
+ */
+class OffHeapSamples {
+
+    // reserved positions of a drained slab start from here, so late writers find it full
+    private static final int CLOSED = Integer.MAX_VALUE / 2;
+
+    private static final class Slab {
+        private final ByteBuffer buffer;
+        private final int capacity;
+        private final Slab previous;
+        private final AtomicInteger reserved = new AtomicInteger(0);
+        private final AtomicInteger written = new AtomicInteger(0);
+
+        private Slab(final ByteBuffer buffer, final Slab previous) {
+            this.buffer = buffer;
+            this.capacity = buffer.capacity() / Double.BYTES;
+            this.previous = previous;
+        }
+    }
+
+    private final OffHeapSamplePool pool;
+    private final AtomicReference<Slab> current = new AtomicReference<>(null);
+
+    OffHeapSamples(final OffHeapSamplePool pool) {
+        this.pool = pool;
+    }
+
+    void add(final double value) {
+        while (true) {
+            final Slab slab = this.current.get();
+            if (slab != null) {
+                final int index = slab.reserved.getAndIncrement();
+                if (index < slab.capacity) {
+                    slab.buffer.putDouble(index * Double.BYTES, value);
+                    slab.written.incrementAndGet();
+                    return;
+                }
+            }
+            final ByteBuffer buffer = this.pool.acquire(slab == null ? this.pool.getFirstSlabBytes()
+                    : this.pool.getNextSlabBytes(slab.buffer.capacity()));
+            if (buffer == null) {
+                this.pool.recordDroppedSample();
+                return;
+            }
+            // another thread may have replaced the full slab already, then retry with its slab
+            if (!this.current.compareAndSet(slab, new Slab(buffer, slab))) {
+                this.pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Hand samples over to the consumer in the order they were added, then give the slabs back to the pool. Samples
+     * being added concurrently are either drained now or kept for the next drain.
+     */
+    void drain(final DoubleConsumer consumer) {
+        final Deque<Slab> slabs = new ArrayDeque<>();
+        for (Slab slab = this.current.getAndSet(null); slab != null; slab = slab.previous) {
+            slabs.push(slab);
+        }
+        for (final Slab slab : slabs) {
+            final int count = Math.min(slab.reserved.getAndSet(CLOSED), slab.capacity);
+            while (slab.written.get() < count) {
+                // a writer is between reserving its position and writing the sample
+                Thread.yield();
+            }
+            for (int index = 0; index < count; index++) {
+                consumer.accept(slab.buffer.getDouble(index * Double.BYTES));
+            }
+            this.pool.release(slab.buffer);
+        }
+    }
+}
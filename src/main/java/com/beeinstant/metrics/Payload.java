@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.entity.ByteArrayEntity;
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Body of one PutMetric request. Metric lines are encoded once into a growable buffer and fed to the HMAC as they
+ * are appended, so the body is neither copied again for signing nor when it is sent.
+ */
+class Payload {
+
+    private final Mac mac;
+    private byte[] bytes;
+    private int length;
+    private String signature = "";
+
+    /**
+     * @param mac Mac to update with the body, null when requests are not signed
+     */
+    Payload(final Mac mac, final int capacity) {
+        this.mac = mac;
+        this.bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Append a metric line followed by a new line
+     */
+    void appendLine(final String line) {
+        final int start = this.length;
+        ensureCapacity(start + line.length() + 1);
+        this.length = encode(line, this.bytes, this.length);
+        this.bytes[this.length++] = '\n';
+        update(start);
+    }
+
+    /**
+     * Append text as is, e.g. a payload read back from the spool
+     */
+    void append(final String text) {
+        final int start = this.length;
+        ensureCapacity(start + text.length());
+        this.length = encode(text, this.bytes, this.length);
+        update(start);
+    }
+
+    /**
+     * Complete the signature, must be called by the thread which appended the lines
+     */
+    void sign() {
+        if (this.mac != null) {
+            this.signature = new String(Signature.encode(this.mac), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    String getSignature() {
+        return this.signature;
+    }
+
+    int length() {
+        return this.length;
+    }
+
+    boolean isEmpty() {
+        return this.length == 0;
+    }
+
+    ByteArrayEntity toEntity() {
+        final ByteArrayEntity entity = new ByteArrayEntity(this.bytes, 0, this.length);
+        entity.setContentType("text/plain");
+        return entity;
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.bytes, 0, this.length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encode text as ISO-8859-1, the default charset of HTTP entities, other characters become '?'. Metric lines
+     * sent by any exporter are encoded this way.
+     *
+     * @return offset following the encoded text
+     */
+    static int encode(final String text, final byte[] bytes, final int offset) {
+        int position = offset;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            bytes[position++] = c < 256 ? (byte) c : (byte) '?';
+        }
+        return position;
+    }
+
+    private void update(final int start) {
+        if (this.mac != null) {
+            this.mac.update(this.bytes, start, this.length - start);
+        }
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(capacity, this.bytes.length * 2));
+        }
+    }
+}
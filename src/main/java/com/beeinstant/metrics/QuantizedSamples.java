@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Samples of one recorder quantized to a precision, e.g. 1.0 keeps whole milliseconds of a timer, and kept as one
+ * count per distinct value in an open-addressing table, so repetitive values take no more room than distinct ones.
+ * This class is thread-safe.
+ */
+class QuantizedSamples {
+
+    /**
+     * Receive a distinct value and how many times it was recorded
+     */
+    interface ValueCountConsumer {
+        void accept(double value, long count);
+    }
+
+    private final double precision;
+    private final BigDecimal step;
+    private long[] keys = new long[16];
+    private long[] counts = new long[16];
+    private int size = 0;
+
+    QuantizedSamples(final double precision) {
+        if (!(precision > 0)) {
+            throw new IllegalArgumentException("Precision must be positive");
+        }
+        this.precision = precision;
+        this.step = BigDecimal.valueOf(precision);
+    }
+
+    synchronized void add(final double value, final long count) {
+        if (count <= 0) {
+            return;
+        }
+        final long key = Math.round(value / this.precision);
+        final int mask = this.keys.length - 1;
+        int index = hash(key) & mask;
+        while (this.counts[index] != 0) {
+            if (this.keys[index] == key) {
+                this.counts[index] += count;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        this.keys[index] = key;
+        this.counts[index] = count;
+        if (++this.size * 2 > this.keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Hand distinct values over to the consumer in ascending order, then start over with an empty table
+     */
+    void drain(final ValueCountConsumer consumer) {
+        final long[] keys;
+        final long[] counts;
+        synchronized (this) {
+            if (this.size == 0) {
+                return;
+            }
+            keys = this.keys;
+            counts = this.counts;
+            this.keys = new long[16];
+            this.counts = new long[16];
+            this.size = 0;
+        }
+        final long[][] entries = new long[keys.length][];
+        int length = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                entries[length++] = new long[] {keys[i], counts[i]};
+            }
+        }
+        Arrays.sort(entries, 0, length, (a, b) -> Long.compare(a[0], b[0]));
+        for (int i = 0; i < length; i++) {
+            consumer.accept(valueOf(entries[i][0]), entries[i][1]);
+        }
+    }
+
+    /**
+     * Multiply in decimal so a key of 3 at precision 0.1 gives 0.3 rather than 0.30000000000000004
+     */
+    private double valueOf(final long key) {
+        return this.step.multiply(BigDecimal.valueOf(key)).doubleValue();
+    }
+
+    private void resize() {
+        final long[] keys = this.keys;
+        final long[] counts = this.counts;
+        this.keys = new long[keys.length * 2];
+        this.counts = new long[keys.length * 2];
+        final int mask = this.keys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                int index = hash(keys[i]) & mask;
+                while (this.counts[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                this.keys[index] = keys[i];
+                this.counts[index] = counts[i];
+            }
+        }
+    }
+
+    private static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -19,51 +19,174 @@
 
 package com.beeinstant.metrics;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.stream.Collectors;
 
 /**
- * Record measurements with Recorder such as response size of a request etc
+ * Record measurements with Recorder such as response size of a request etc. Values are kept on the heap, or off
+ * the heap in the slabs of an OffHeapSamplePool, or quantized to a precision and counted per distinct value. A value
+ * recorded n times can be serialized once as "value*n" instead of n times, for receivers which decode it.
  */
 class Recorder implements Metric {
 
-    private final ConcurrentLinkedQueue<Double> values = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Double> values;
+    private final OffHeapSamples offHeapSamples;
+    private final QuantizedSamples quantizedSamples;
+    private final boolean collapseDuplicates;
     private final Unit unit;
 
     Recorder(final Unit unit) {
+        this(unit, null, 0, false);
+    }
+
+    /**
+     * @param precision, quantize values to this precision and count them per distinct value, 0 to keep values as
+     *                   recorded, takes over from the off-heap pool
+     * @param collapseDuplicates, serialize a value recorded n times as "value*n"
+     */
+    Recorder(final Unit unit, final OffHeapSamplePool pool, final double precision, final boolean collapseDuplicates) {
         this.unit = unit;
+        this.quantizedSamples = precision > 0 ? new QuantizedSamples(precision) : null;
+        this.offHeapSamples = this.quantizedSamples == null && pool != null ? new OffHeapSamples(pool) : null;
+        this.values = this.quantizedSamples == null && pool == null ? new ConcurrentLinkedQueue<>() : null;
+        this.collapseDuplicates = collapseDuplicates;
     }
 
     @Override
     public void record(final double value, final Unit unit) {
         if (this.unit.equals(unit)) {
-            values.add(Math.max(0.0, value));
+            add(value, 1);
+        }
+    }
+
+    /**
+     * Record a value n times, e.g. a "value*n" pair parsed by decode
+     */
+    void add(final double value, final long count) {
+        if (this.quantizedSamples != null) {
+            this.quantizedSamples.add(Math.max(0.0, value), count);
+        } else {
+            for (long i = 0; i < count; i++) {
+                if (this.offHeapSamples != null) {
+                    this.offHeapSamples.add(Math.max(0.0, value));
+                } else {
+                    this.values.add(Math.max(0.0, value));
+                }
+            }
         }
     }
 
     @Override
     public String flushToString() {
-        Double value;
-        final List<Double> values = new ArrayList<>();
-        while ((value = this.values.poll()) != null) {
-            values.add(value);
-        }
-        if (!values.isEmpty()) {
-            return values.stream().map(String::valueOf).collect(Collectors.joining("+")) + unit;
+        final StringBuilder builder = new StringBuilder();
+        drain((value, count) -> appendValue(builder, value, count, this.collapseDuplicates));
+        if (builder.length() > 0) {
+            return builder.append(unit).toString();
         }
         return "";
     }
 
+    /**
+     * Append a value recorded n times to serialized values, either as "value*n" or as n values separated by "+"
+     */
+    static void appendValue(final StringBuilder builder, final double value, final long count, final boolean collapseDuplicates) {
+        if (builder.length() > 0) {
+            builder.append('+');
+        }
+        builder.append(value);
+        if (count > 1) {
+            if (collapseDuplicates) {
+                builder.append('*').append(count);
+            } else {
+                final String serialized = String.valueOf(value);
+                for (long i = 1; i < count; i++) {
+                    builder.append('+').append(serialized);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append serialized values without the unit, expanding each "value*n" into n values
+     */
+    static void appendExpanded(final StringBuilder builder, final String values) {
+        int start = 0;
+        while (true) {
+            int end = values.indexOf('+', start);
+            if (end < 0) {
+                end = values.length();
+            }
+            final int separator = values.indexOf('*', start);
+            if (separator >= 0 && separator < end) {
+                int countEnd = separator + 1;
+                while (countEnd < end && Character.isDigit(values.charAt(countEnd))) {
+                    countEnd++;
+                }
+                final long count = Long.parseLong(values.substring(separator + 1, countEnd));
+                builder.append(values, start, separator);
+                for (long i = 1; i < count; i++) {
+                    builder.append('+').append(values, start, separator);
+                }
+                // the unit follows the last value
+                builder.append(values, countEnd, end);
+            } else {
+                builder.append(values, start, end);
+            }
+            if (end == values.length()) {
+                return;
+            }
+            builder.append('+');
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Decode serialized values without the unit, e.g. "1.0+3.0*120+4.0", into values and counts
+     *
+     * @throws NumberFormatException if a value or a count is invalid
+     */
+    static void decode(final String values, final QuantizedSamples.ValueCountConsumer consumer) {
+        int start = 0;
+        while (start <= values.length()) {
+            int end = values.indexOf('+', start);
+            if (end < 0) {
+                end = values.length();
+            }
+            final int separator = values.indexOf('*', start);
+            if (separator >= 0 && separator < end) {
+                final long count = Long.parseLong(values.substring(separator + 1, end));
+                if (count <= 0) {
+                    throw new NumberFormatException("Invalid count " + count);
+                }
+                consumer.accept(Double.parseDouble(values.substring(start, separator)), count);
+            } else {
+                consumer.accept(Double.parseDouble(values.substring(start, end)), 1);
+            }
+            start = end + 1;
+        }
+    }
+
+    private void drain(final QuantizedSamples.ValueCountConsumer consumer) {
+        if (this.quantizedSamples != null) {
+            this.quantizedSamples.drain(consumer);
+        } else if (this.offHeapSamples != null) {
+            this.offHeapSamples.drain(value -> consumer.accept(value, 1));
+        } else {
+            Double value;
+            while ((value = this.values.poll()) != null) {
+                consumer.accept(value, 1);
+            }
+        }
+    }
+
     @Override
     public Metric merge(final Metric newData) {
         if (newData instanceof Recorder) {
-            Double value;
             final Recorder newRecorder = (Recorder) newData;
-            while ((value = newRecorder.values.poll()) != null) {
-                record(value, newRecorder.unit);
-            }
+            newRecorder.drain((value, count) -> {
+                if (this.unit.equals(newRecorder.unit)) {
+                    add(value, count);
+                }
+            });
             return this;
         }
         throw new RuntimeException("Merge with an invalid Recorder");
@@ -0,0 +1,221 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Retry failed uploads in the background with exponential backoff and full jitter, so that hosts which failed
+ * together do not retry together. A Retry-After given by the server is respected. Payloads waiting for a retry are
+ * bounded by bytes, payloads which do not fit or run out of attempts are handed over to the give up handler.
+ * This class is thread-safe.
+ */
+class RetryScheduler {
+
+    private static final Logger LOG = Logger.getLogger(RetryScheduler.class);
+
+    /**
+     * Outcome of an upload
+     */
+    static class Result {
+
+        static final Result DONE = new Result(false, 0, 0);
+        static final Result RETRY = new Result(true, 0, 0);
+
+        private final boolean retryable;
+        private final long retryAfterMillis;
+        private final int statusCode;
+
+        private Result(final boolean retryable, final long retryAfterMillis, final int statusCode) {
+            this.retryable = retryable;
+            this.retryAfterMillis = retryAfterMillis;
+            this.statusCode = statusCode;
+        }
+
+        static Result retryAfter(final long retryAfterMillis) {
+            return retryAfterMillis > 0 ? new Result(true, retryAfterMillis, 0) : RETRY;
+        }
+
+        /**
+         * Outcome of an HTTP upload, which keeps the status code of the response
+         */
+        static Result ofResponse(final int statusCode, final boolean retryable, final long retryAfterMillis) {
+            return new Result(retryable, retryAfterMillis, statusCode);
+        }
+
+        boolean isRetryable() {
+            return this.retryable;
+        }
+
+        int getStatusCode() {
+            return this.statusCode;
+        }
+
+        long getRetryAfterMillis() {
+            return this.retryAfterMillis;
+        }
+    }
+
+    private final ScheduledExecutorService executorService;
+    private final Function<String, Result> upload;
+    private final Predicate<String> giveUpHandler;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong(0);
+    private final AtomicInteger payloads = new AtomicInteger(0);
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+
+    RetryScheduler(final ScheduledExecutorService executorService,
+                   final Function<String, Result> upload,
+                   final Predicate<String> giveUpHandler,
+                   final int maxAttempts,
+                   final long baseDelayMillis,
+                   final long maxDelayMillis,
+                   final long maxBytes) {
+        this.executorService = executorService;
+        this.upload = upload;
+        this.giveUpHandler = giveUpHandler;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Schedule retries for a payload whose upload failed with a retryable result
+     *
+     * @param payload, payload to upload again
+     * @param failure, result of the failed upload
+     */
+    void retry(final String payload, final Result failure) {
+        if (this.maxAttempts <= 0) {
+            giveUp(payload);
+            return;
+        }
+        final long newBytes = this.bytes.addAndGet(payload.length());
+        if (newBytes > this.maxBytes) {
+            this.bytes.addAndGet(-payload.length());
+            LOG.warn("Retry buffer is full");
+            giveUp(payload);
+            return;
+        }
+        this.payloads.incrementAndGet();
+        this.pending.add(payload);
+        schedule(payload, 1, failure);
+    }
+
+    /**
+     * Check whether there are payloads waiting for a retry
+     *
+     * @return true if no payload is waiting for a retry
+     */
+    boolean isIdle() {
+        return this.payloads.get() == 0;
+    }
+
+    long bytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * Hand over all payloads waiting for a retry to the give up handler, used once the executor is shut down
+     */
+    void giveUpPending() {
+        String payload;
+        while ((payload = this.pending.poll()) != null) {
+            // counted as pending until handed over, so isIdle is only true once the handler has run
+            giveUp(payload);
+            this.bytes.addAndGet(-payload.length());
+            this.payloads.decrementAndGet();
+        }
+    }
+
+    long nextDelayMillis(final int attempt, final Result failure) {
+        if (failure.getRetryAfterMillis() > 0) {
+            // never earlier than asked by the server, spread over the base delay
+            return failure.getRetryAfterMillis() + random(this.baseDelayMillis);
+        }
+        return random(Math.min(this.maxDelayMillis, this.baseDelayMillis << Math.min(attempt - 1, 30)));
+    }
+
+    private void schedule(final String payload, final int attempt, final Result failure) {
+        final long delayMillis = nextDelayMillis(attempt, failure);
+        try {
+            this.executorService.schedule(() -> attempt(payload, attempt), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            release(payload, true);
+        }
+    }
+
+    private void attempt(final String payload, final int attempt) {
+        Result result;
+        try {
+            result = this.upload.apply(payload);
+        } catch (RuntimeException e) {
+            LOG.error("Fail to retry metrics upload", e);
+            result = Result.RETRY;
+        }
+        if (!result.isRetryable()) {
+            release(payload, false);
+        } else if (attempt >= this.maxAttempts) {
+            LOG.warn("Give up metrics upload after " + attempt + " retries");
+            release(payload, true);
+        } else {
+            schedule(payload, attempt + 1, result);
+        }
+    }
+
+    /**
+     * Stop tracking a payload unless giveUpPending took it already. A payload given up is handed over to the give
+     * up handler before it stops counting as pending, so isIdle is only true once the handler has run.
+     */
+    private void release(final String payload, final boolean giveUp) {
+        if (this.pending.remove(payload)) {
+            if (giveUp) {
+                giveUp(payload);
+            }
+            this.bytes.addAndGet(-payload.length());
+            this.payloads.decrementAndGet();
+        }
+    }
+
+    private static long random(final long bound) {
+        return ThreadLocalRandom.current().nextLong(Math.max(bound, 1));
+    }
+
+    private void giveUp(final String payload) {
+        if (!this.giveUpHandler.test(payload)) {
+            LOG.error("Drop " + payload.length() + " bytes of metrics");
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Append exported metrics to size-rotated files of a local directory, one metric line per line.
+ * <p>
+ * Lines are copied into a memory-mapped segment file, so exporting doesn't make a write system call per line.
+ * A full segment is truncated to its written length and a new one is started. Oldest segments are deleted when the
+ * directory exceeds maxBytes or when they are older than maxAgeMillis. Segments left padded by a process which died
+ * are truncated on start.
+ * <p>
+ * Lines are not forced to disk on every export, they are safe when the process dies but may be lost when the host
+ * crashes.
+ */
+public class RotatingFileExporter implements MetricsExporter {
+
+    private static final Logger LOG = Logger.getLogger(RotatingFileExporter.class);
+    private static final String SEGMENT_PREFIX = "metrics-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final Deque<File> segments = new ArrayDeque<>();
+    private long nextSequence = 0;
+    private File segment;
+    private MappedByteBuffer buffer;
+
+    /**
+     * @param directory,    where segment files are written
+     * @param segmentBytes, size of a segment file
+     * @param maxBytes,     size of all segment files, oldest segments are deleted beyond it
+     * @param maxAgeMillis, age of a segment file before it is deleted, 0 to keep segments regardless of their age
+     */
+    public RotatingFileExporter(final Path directory, final int segmentBytes, final long maxBytes, final long maxAgeMillis) throws IOException {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("Segments are too small");
+        }
+        this.directory = directory.toFile();
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create export directory " + directory);
+        }
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = Math.max(maxBytes, segmentBytes);
+        this.maxAgeMillis = maxAgeMillis;
+        final File[] files = this.directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (final File file : files) {
+                trimPadding(file);
+                this.segments.addLast(file);
+                this.nextSequence = Math.max(this.nextSequence, sequenceOf(file) + 1);
+            }
+        }
+        newSegment();
+    }
+
+    @Override
+    public synchronized void export(final List<MetricRecord> records) throws IOException {
+        if (this.buffer == null) {
+            throw new IOException("Exporter is closed");
+        }
+        for (final MetricRecord record : records) {
+            final byte[] line = (record.toString() + '\n').getBytes(StandardCharsets.ISO_8859_1);
+            if (line.length > this.segmentBytes) {
+                LOG.warn("Metric line of " + line.length + " bytes is too big for a segment");
+                continue;
+            }
+            if (line.length > this.buffer.remaining()) {
+                finishSegment();
+                newSegment();
+            }
+            this.buffer.put(line);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.buffer != null) {
+            finishSegment();
+        }
+    }
+
+    // for testing purpose
+    synchronized List<File> getSegments() {
+        return Arrays.asList(this.segments.toArray(new File[0]));
+    }
+
+    private void newSegment() throws IOException {
+        this.segment = new File(this.directory, String.format("%s%020d%s", SEGMENT_PREFIX, this.nextSequence++, SEGMENT_SUFFIX));
+        this.segments.addLast(this.segment);
+        applyRetention();
+        // the mapping stays valid after the file is closed
+        try (RandomAccessFile file = new RandomAccessFile(this.segment, "rw")) {
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentBytes);
+        }
+    }
+
+    private void finishSegment() throws IOException {
+        final int length = this.buffer.position();
+        this.buffer.force();
+        this.buffer = null;
+        try (RandomAccessFile file = new RandomAccessFile(this.segment, "rw")) {
+            file.setLength(length);
+        }
+    }
+
+    private void applyRetention() {
+        final long oldest = System.currentTimeMillis() - this.maxAgeMillis;
+        // the new segment is mapped at its full size
+        long bytes = this.segmentBytes;
+        for (final File file : this.segments) {
+            if (file != this.segment) {
+                bytes += file.length();
+            }
+        }
+        File file;
+        while ((file = this.segments.peekFirst()) != null && file != this.segment
+                && (bytes > this.maxBytes || this.maxAgeMillis > 0 && file.lastModified() < oldest)) {
+            this.segments.pollFirst();
+            bytes -= file.length();
+            if (!file.delete()) {
+                LOG.error("Cannot delete export segment " + file);
+            }
+        }
+    }
+
+    private static void trimPadding(final File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            final long length = randomAccessFile.length();
+            if (length == 0 || length > Integer.MAX_VALUE) {
+                return;
+            }
+            final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int end = (int) length;
+            while (end > 0 && buffer.get(end - 1) == 0) {
+                end--;
+            }
+            if (end < length) {
+                randomAccessFile.setLength(end);
+            }
+        }
+    }
+
+    private static long sequenceOf(final File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
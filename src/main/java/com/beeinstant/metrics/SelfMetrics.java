@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of metrics about the SDK itself: collect time, flushed lines and bytes, upload latency and HTTP status,
+ * retries, spooled and dropped data, and the current size of queue, retry buffer and spool.
+ * <p>
+ * Counters are striped LongAdders, so threads updating them don't contend. They are exposed over JMX and can be
+ * emitted as beeinstant.* metrics of the root logger at each flush. This class is thread-safe.
+ */
+class SelfMetrics implements SelfMetricsMBean {
+
+    private static final Logger LOG = Logger.getLogger(SelfMetrics.class);
+    private static final String OBJECT_NAME = "com.beeinstant.metrics:type=SelfMetrics";
+    private static final String PREFIX = "beeinstant.";
+
+    private volatile ObjectName objectName;
+
+    private final LongAdder collects = new LongAdder();
+    private final LongAdder collectNanos = new LongAdder();
+    private volatile long lastCollectNanos = 0;
+    private final LongAdder flushedLines = new LongAdder();
+    private final LongAdder flushedBytes = new LongAdder();
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder uploadNanos = new LongAdder();
+    private final LongAdder failedUploads = new LongAdder();
+    // upload latencies in whole milliseconds since the last emit, kept as counts per distinct value
+    private final QuantizedSamples uploadMillis = new QuantizedSamples(1.0);
+    private final LongAdder http2xxResponses = new LongAdder();
+    private final LongAdder http4xxResponses = new LongAdder();
+    private final LongAdder http5xxResponses = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder spooledBytes = new LongAdder();
+    private final LongAdder droppedLines = new LongAdder();
+    private final LongAdder droppedBytes = new LongAdder();
+    private volatile LongSupplier queueLines = () -> 0;
+    private volatile LongSupplier queueBytes = () -> 0;
+    private volatile LongSupplier retryBytes = () -> 0;
+    private volatile LongSupplier spoolBytes = () -> 0;
+    // counter totals at the last emit
+    private final long[] emitted = new long[11];
+
+    void recordCollect(final long nanos) {
+        this.collects.increment();
+        this.collectNanos.add(nanos);
+        this.lastCollectNanos = nanos;
+    }
+
+    void recordPayload(final long lines, final long bytes) {
+        this.flushedLines.add(lines);
+        this.flushedBytes.add(bytes);
+    }
+
+    void recordUpload(final long nanos, final boolean failed) {
+        this.uploads.increment();
+        this.uploadNanos.add(nanos);
+        this.uploadMillis.add(nanos / 1e6, 1);
+        if (failed) {
+            this.failedUploads.increment();
+        }
+    }
+
+    void recordHttpStatus(final int statusCode) {
+        if (statusCode >= 500) {
+            this.http5xxResponses.increment();
+        } else if (statusCode >= 400) {
+            this.http4xxResponses.increment();
+        } else if (statusCode >= 200 && statusCode < 300) {
+            this.http2xxResponses.increment();
+        }
+    }
+
+    void recordRetry() {
+        this.retries.increment();
+    }
+
+    void recordSpooled(final long bytes) {
+        this.spooledBytes.add(bytes);
+    }
+
+    void recordDroppedLines(final long lines) {
+        this.droppedLines.add(lines);
+    }
+
+    void recordDroppedBytes(final long bytes) {
+        this.droppedBytes.add(bytes);
+    }
+
+    void setGauges(final LongSupplier queueLines, final LongSupplier queueBytes,
+                   final LongSupplier retryBytes, final LongSupplier spoolBytes) {
+        this.queueLines = queueLines;
+        this.queueBytes = queueBytes;
+        this.retryBytes = retryBytes;
+        this.spoolBytes = spoolBytes;
+    }
+
+    /**
+     * Record counters increased since the last emit and current gauges as beeinstant.* metrics
+     */
+    synchronized void emitTo(final Metrics metrics) {
+        emitCounter(metrics, 0, "Collects", getCollects());
+        emitCounter(metrics, 1, "FlushedLines", getFlushedLines());
+        emitCounter(metrics, 2, "FlushedBytes", getFlushedBytes());
+        emitCounter(metrics, 3, "Uploads", getUploads());
+        emitCounter(metrics, 4, "FailedUploads", getFailedUploads());
+        emitCounter(metrics, 5, "Retries", getRetries());
+        emitCounter(metrics, 6, "SpooledBytes", getSpooledBytes());
+        emitCounter(metrics, 7, "DroppedBytes", getDroppedBytes());
+        emitCounter(metrics, 8, "Http2xxResponses", getHttp2xxResponses());
+        emitCounter(metrics, 9, "Http4xxResponses", getHttp4xxResponses());
+        emitCounter(metrics, 10, "Http5xxResponses", getHttp5xxResponses());
+        this.uploadMillis.drain((value, count) -> {
+            for (long i = 0; i < count; i++) {
+                metrics.record(PREFIX + "UploadLatency", value, Unit.MILLI_SECOND);
+            }
+        });
+        metrics.record(PREFIX + "LastCollectTime", getLastCollectMillis(), Unit.MILLI_SECOND);
+        metrics.record(PREFIX + "QueueLines", getQueueLines(), Unit.NONE);
+        metrics.record(PREFIX + "QueueBytes", getQueueBytes(), Unit.BYTE);
+        metrics.record(PREFIX + "RetryBytes", getRetryBytes(), Unit.BYTE);
+        metrics.record(PREFIX + "SpoolBytes", getSpoolBytes(), Unit.BYTE);
+    }
+
+    /**
+     * Register under the default object name, qualified by registry=registryName unless the registry name is empty.
+     * Nothing is registered if another registry uses the same name already.
+     */
+    void registerMBean(final String registryName) {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final String name = registryName.isEmpty() ? OBJECT_NAME : OBJECT_NAME + ",registry=" + ObjectName.quote(registryName);
+        try {
+            final ObjectName objectName = new ObjectName(name);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(this, objectName);
+                this.objectName = objectName;
+            } else {
+                LOG.warn("MBean " + name + " is registered already, skip it");
+            }
+        } catch (JMException e) {
+            LOG.error("Cannot register MBean " + name, e);
+        }
+    }
+
+    void unregisterMBean() {
+        final ObjectName objectName = this.objectName;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.error("Cannot unregister MBean " + objectName, e);
+            }
+            this.objectName = null;
+        }
+    }
+
+    @Override
+    public long getCollects() {
+        return this.collects.sum();
+    }
+
+    @Override
+    public long getCollectMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.collectNanos.sum());
+    }
+
+    @Override
+    public long getLastCollectMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastCollectNanos);
+    }
+
+    @Override
+    public long getFlushedLines() {
+        return this.flushedLines.sum();
+    }
+
+    @Override
+    public long getFlushedBytes() {
+        return this.flushedBytes.sum();
+    }
+
+    @Override
+    public long getUploads() {
+        return this.uploads.sum();
+    }
+
+    @Override
+    public long getUploadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.uploadNanos.sum());
+    }
+
+    @Override
+    public long getFailedUploads() {
+        return this.failedUploads.sum();
+    }
+
+    @Override
+    public long getHttp2xxResponses() {
+        return this.http2xxResponses.sum();
+    }
+
+    @Override
+    public long getHttp4xxResponses() {
+        return this.http4xxResponses.sum();
+    }
+
+    @Override
+    public long getHttp5xxResponses() {
+        return this.http5xxResponses.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return this.retries.sum();
+    }
+
+    @Override
+    public long getSpooledBytes() {
+        return this.spooledBytes.sum();
+    }
+
+    @Override
+    public long getDroppedLines() {
+        return this.droppedLines.sum();
+    }
+
+    @Override
+    public long getDroppedBytes() {
+        return this.droppedBytes.sum();
+    }
+
+    @Override
+    public long getQueueLines() {
+        return this.queueLines.getAsLong();
+    }
+
+    @Override
+    public long getQueueBytes() {
+        return this.queueBytes.getAsLong();
+    }
+
+    @Override
+    public long getRetryBytes() {
+        return this.retryBytes.getAsLong();
+    }
+
+    @Override
+    public long getSpoolBytes() {
+        return this.spoolBytes.getAsLong();
+    }
+
+    private void emitCounter(final Metrics metrics, final int index, final String name, final long total) {
+        final long delta = total - this.emitted[index];
+        this.emitted[index] = total;
+        if (delta > 0) {
+            metrics.incCounter(PREFIX + name, (int) Math.min(delta, Integer.MAX_VALUE));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+/**
+ * Metrics of one dimensions written into a shared memory store, see {@link MetricsRegistry#getSharedMetrics(String)}
+ */
+class SharedMemoryMetrics implements Metrics {
+
+    private final SharedMemoryStore store;
+    private final String dimensions;
+    private final MetricsConfig config;
+
+    SharedMemoryMetrics(final SharedMemoryStore store, final String dimensions, final MetricsConfig config) {
+        this.store = store;
+        this.dimensions = dimensions;
+        this.config = config;
+    }
+
+    @Override
+    public void incCounter(final String counterName, final int value) {
+        if (!this.config.isEnabled(counterName)) {
+            return;
+        }
+        if (DimensionsUtils.isValidName(counterName)) {
+            this.store.incCounter(this.dimensions, counterName, value);
+        } else {
+            this.config.reportError("Invalid counter name " + counterName);
+        }
+    }
+
+    @Override
+    public TimerMetric startTimer(final String timerName) {
+        if (!this.config.isEnabled(timerName)) {
+            return new TimerMetric(this, timerName, 0);
+        }
+        if (DimensionsUtils.isValidName(timerName)) {
+            return new TimerMetric(this, timerName, System.currentTimeMillis());
+        }
+        this.config.reportError("Invalid timer name " + timerName);
+        return null;
+    }
+
+    void stopTimer(final String timerName, final long startTime) {
+        if (startTime <= 0 || !this.config.sampleRecorder()) {
+            return;
+        }
+        this.store.record(this.dimensions, timerName, System.currentTimeMillis() - startTime, Unit.MILLI_SECOND);
+    }
+
+    @Override
+    public void record(final String metricName, final double value, final Unit unit) {
+        if (!this.config.isEnabled(metricName) || !this.config.sampleRecorder()) {
+            return;
+        }
+        if (DimensionsUtils.isValidName(metricName)) {
+            this.store.record(this.dimensions, metricName, value, unit);
+        } else {
+            this.config.reportError("Invalid recorder name " + metricName);
+        }
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Counters and histograms shared by the processes of a host through a memory-mapped file. The file is a table of
+ * fixed-size slots, one per metric name and dimensions. Each write is added to its slot in the file right away, while
+ * holding a lock on the file, so other processes see it at once and it outlives the process. One process, the
+ * reader, drains the table at each flush and turns it into metric records. A slot which stays empty for IDLE_DRAINS
+ * drains is freed, so metrics which are not written anymore, e.g. by processes which are gone, don't keep the file
+ * full. Writes of a new metric while no slot is left are kept by the process until a slot is freed.
+ * <p>
+ * Slot layout: state (int, empty or used), type (int), unit (int), key length (int), key hash (int), idle drains
+ * (int), key bytes, then one long for a counter, or one long per histogram bucket. Histogram buckets are a quarter
+ * of an octave wide, so recorded values from 0.0625 to 10^8 are flushed with about 9% precision.
+ * <p>
+ * This class is thread-safe and process-safe.
+ */
+class SharedMemoryStore {
+
+    private static final Logger LOG = Logger.getLogger(SharedMemoryStore.class);
+
+    private static final int MAGIC = 0xBEE5C002;
+    private static final int HEADER_BYTES = 64;
+    private static final int STATE = 0;
+    private static final int TYPE = 4;
+    private static final int UNIT = 8;
+    private static final int KEY_LENGTH = 12;
+    private static final int HASH = 16;
+    private static final int IDLE = 20;
+    private static final int KEY = 24;
+    static final int BUCKETS = 128;
+    static final int IDLE_DRAINS = 10;
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int COUNTER = 1;
+    private static final int HISTOGRAM = 2;
+    private static final int BUCKETS_PER_OCTAVE = 4;
+    // bucket 1 starts at 2^-4
+    private static final int BUCKET_OFFSET = 4 * BUCKETS_PER_OCTAVE + 1;
+    private static final char KEY_SEPARATOR = ' ';
+    private static final int FULL = -2;
+    // file locks are held by the whole JVM, so threads of the JVM lock the same file one at a time
+    private static final Map<String, Object> FILE_MONITORS = new ConcurrentHashMap<>();
+
+    /**
+     * Counts of a metric not written to the file yet, one for a counter or one per histogram bucket
+     */
+    private static final class PendingMetric {
+        private final int type;
+        private final Unit unit;
+        private final AtomicLongArray values;
+        private int slotHint = -1;
+
+        private PendingMetric(final int type, final Unit unit) {
+            this.type = type;
+            this.unit = unit;
+            this.values = new AtomicLongArray(type == COUNTER ? 1 : BUCKETS);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Object monitor;
+    private final int slots;
+    private final int maxKeyBytes;
+    private final int values;
+    private final int slotBytes;
+    private final Consumer<String> errorReporter;
+    private final Map<String, PendingMetric> pendingMetrics = new ConcurrentHashMap<>();
+    private FileLock readerLock;
+
+    SharedMemoryStore(final File file, final int slots, final int maxKeyBytes) throws IOException {
+        this(file, slots, maxKeyBytes, MetricsManager::reportError);
+    }
+
+    /**
+     * @param slots,         metrics the file can hold
+     * @param maxKeyBytes,   longest dimensions and metric name of a metric
+     * @param errorReporter, counts and logs errors of the registry owning the store
+     * @throws IOException if the file cannot be mapped or has been created with other slots or key length
+     */
+    SharedMemoryStore(final File file, final int slots, final int maxKeyBytes, final Consumer<String> errorReporter) throws IOException {
+        final long keyBytes = (maxKeyBytes + 7L) / 8 * 8;
+        final long size = HEADER_BYTES + slots * (KEY + keyBytes + 8L * BUCKETS);
+        if (slots <= 0 || maxKeyBytes <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid shared memory size, " + slots + " slots of " + maxKeyBytes + " key bytes");
+        }
+        this.slots = slots;
+        this.maxKeyBytes = maxKeyBytes;
+        this.values = KEY + (int) keyBytes;
+        this.slotBytes = this.values + 8 * BUCKETS;
+        this.errorReporter = errorReporter;
+        this.monitor = FILE_MONITORS.computeIfAbsent(file.getCanonicalPath(), path -> new Object());
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            this.channel = this.file.getChannel();
+            // processes opening the file together initialize it once
+            synchronized (this.monitor) {
+                final FileLock lock = this.channel.lock(0, HEADER_BYTES, false);
+                try {
+                    if (this.file.length() == 0) {
+                        this.file.setLength(size);
+                        this.file.writeInt(MAGIC);
+                        this.file.writeInt(slots);
+                        this.file.writeInt(maxKeyBytes);
+                    } else {
+                        this.file.seek(0);
+                        if (this.file.length() != size || this.file.readInt() != MAGIC
+                                || this.file.readInt() != slots || this.file.readInt() != maxKeyBytes) {
+                            throw new IOException("Shared memory file " + file + " has another layout");
+                        }
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Add to a counter in the file
+     */
+    void incCounter(final String dimensions, final String counterName, final long value) {
+        final String key = dimensions + KEY_SEPARATOR + counterName;
+        final PendingMetric metric = pendingMetricOf(key, counterName, COUNTER, Unit.NONE);
+        if (metric != null && value > 0) {
+            metric.values.getAndAdd(0, value);
+            publish(key, metric);
+        }
+    }
+
+    /**
+     * Count a value in the bucket of a histogram in the file. Values of another unit than the first one are ignored.
+     */
+    void record(final String dimensions, final String metricName, final double value, final Unit unit) {
+        final String key = dimensions + KEY_SEPARATOR + metricName;
+        final PendingMetric metric = pendingMetricOf(key, metricName, HISTOGRAM, unit);
+        if (metric != null && metric.unit == unit) {
+            metric.values.getAndIncrement(bucketOf(value));
+            publish(key, metric);
+        }
+    }
+
+    /**
+     * Try to become the process which drains the store, the first process wins until it closes the store or exits
+     *
+     * @return whether this process is the reader
+     */
+    synchronized boolean tryBecomeReader() {
+        if (this.readerLock == null) {
+            try {
+                // a region beyond the end of the file, so it never overlaps the table lock
+                this.readerLock = this.channel.tryLock(Long.MAX_VALUE - 1, 1, false);
+            } catch (IOException | OverlappingFileLockException e) {
+                LOG.debug("Cannot lock shared memory file", e);
+            }
+        }
+        return this.readerLock != null;
+    }
+
+    /**
+     * Add the counts this process has kept while the file was full to the file
+     */
+    void publish() {
+        publish(null, null);
+    }
+
+    /**
+     * Publish the kept counts of this process, then take and reset all metrics of the store, one record per dimensions
+     *
+     * @param collapseDuplicates, serialize a histogram bucket counted n times as "value*n"
+     */
+    void drain(final Consumer<MetricRecord> consumer, final boolean collapseDuplicates) {
+        final Map<String, StringBuilder> metricsByDimensions = new LinkedHashMap<>();
+        synchronized (this.monitor) {
+            try {
+                final FileLock lock = this.channel.lock(0, HEADER_BYTES, false);
+                try {
+                    publishLocked();
+                    drainLocked(metricsByDimensions, collapseDuplicates);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                LOG.error("Cannot drain shared memory", e);
+            }
+        }
+        metricsByDimensions.forEach((dimensions, metrics) -> consumer.accept(new MetricRecord(dimensions, metrics.toString())));
+    }
+
+    /**
+     * Publish the kept counts of this process and release the file
+     */
+    synchronized void close() {
+        publish();
+        this.buffer.force();
+        try {
+            if (this.readerLock != null) {
+                this.readerLock.release();
+                this.readerLock = null;
+            }
+            this.file.close();
+        } catch (IOException e) {
+            LOG.error("Cannot close shared memory file", e);
+        }
+    }
+
+    static int bucketOf(final double value) {
+        if (!(value > 0)) {
+            return 0;
+        }
+        final int bucket = (int) Math.floor(Math.log(value) / Math.log(2) * BUCKETS_PER_OCTAVE) + BUCKET_OFFSET;
+        return Math.max(0, Math.min(BUCKETS - 1, bucket));
+    }
+
+    /**
+     * @return geometric middle of a bucket, rounded to 4 significant digits
+     */
+    static double valueOf(final int bucket) {
+        if (bucket == 0) {
+            return 0.0;
+        }
+        final double value = Math.pow(2, (bucket - BUCKET_OFFSET + 0.5) / BUCKETS_PER_OCTAVE);
+        return new BigDecimal(value).round(new MathContext(4)).doubleValue();
+    }
+
+    /**
+     * @return counts of a metric, null if the metric cannot be stored
+     */
+    private PendingMetric pendingMetricOf(final String key, final String metricName, final int type, final Unit unit) {
+        PendingMetric metric = this.pendingMetrics.get(key);
+        if (metric == null) {
+            if (key.length() > this.maxKeyBytes) {
+                this.errorReporter.accept("Metric name and dimensions are too long for shared memory " + key);
+                return null;
+            }
+            metric = this.pendingMetrics.computeIfAbsent(key, k -> new PendingMetric(type, unit));
+        }
+        if (metric.type != type) {
+            this.errorReporter.accept("Metric " + metricName + " has another type in shared memory");
+            return null;
+        }
+        return metric;
+    }
+
+    /**
+     * Add the counts of one metric, or of all metrics if key is null, to the file
+     */
+    private void publish(final String key, final PendingMetric metric) {
+        synchronized (this.monitor) {
+            try {
+                final FileLock lock = this.channel.lock(0, HEADER_BYTES, false);
+                try {
+                    if (key != null) {
+                        publishLocked(key, metric);
+                    } else {
+                        publishLocked();
+                    }
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                LOG.error("Cannot publish metrics to shared memory", e);
+            }
+        }
+    }
+
+    private void publishLocked() {
+        this.pendingMetrics.forEach(this::publishLocked);
+    }
+
+    private void publishLocked(final String key, final PendingMetric metric) {
+        final long[] counts = new long[metric.values.length()];
+        boolean published = false;
+        for (int i = 0; i < counts.length; i++) {
+            if (metric.values.get(i) != 0) {
+                counts[i] = metric.values.getAndSet(i, 0);
+                published = true;
+            }
+        }
+        if (!published) {
+            return;
+        }
+        final int slot = slotOf(key, metric);
+        if (slot == FULL) {
+            // published once a slot is freed
+            for (int i = 0; i < counts.length; i++) {
+                metric.values.getAndAdd(i, counts[i]);
+            }
+            return;
+        }
+        if (slot < 0) {
+            return;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                final int position = slot + this.values + 8 * i;
+                this.buffer.putLong(position, this.buffer.getLong(position) + counts[i]);
+            }
+        }
+        this.buffer.putInt(slot + IDLE, 0);
+    }
+
+    private void drainLocked(final Map<String, StringBuilder> metricsByDimensions, final boolean collapseDuplicates) {
+        final List<String> idleKeys = new ArrayList<>();
+        for (int i = 0; i < this.slots; i++) {
+            final int slot = offsetOf(i);
+            if (this.buffer.getInt(slot + STATE) != USED) {
+                continue;
+            }
+            final String key = readKey(slot);
+            final String data = this.buffer.getInt(slot + TYPE) == COUNTER ? drainCounter(slot) : drainHistogram(slot, collapseDuplicates);
+            if (!data.isEmpty()) {
+                final int separator = key.indexOf(KEY_SEPARATOR);
+                final StringBuilder metrics = metricsByDimensions.computeIfAbsent(key.substring(0, separator), k -> new StringBuilder());
+                if (metrics.length() > 0) {
+                    metrics.append(',');
+                }
+                metrics.append("m.").append(key, separator + 1, key.length()).append('=').append(data);
+            } else {
+                final int idle = this.buffer.getInt(slot + IDLE) + 1;
+                this.buffer.putInt(slot + IDLE, idle);
+                if (idle >= IDLE_DRAINS) {
+                    idleKeys.add(key);
+                }
+            }
+        }
+        // freeing a slot moves other slots, so they are looked up again
+        for (final String key : idleKeys) {
+            final int index = indexOf(key.hashCode(), key.getBytes(StandardCharsets.ISO_8859_1));
+            if (index >= 0) {
+                free(index);
+            }
+        }
+    }
+
+    private String drainCounter(final int slot) {
+        final long value = this.buffer.getLong(slot + this.values);
+        this.buffer.putLong(slot + this.values, 0);
+        return value > 0 ? String.valueOf(value) : "";
+    }
+
+    private String drainHistogram(final int slot, final boolean collapseDuplicates) {
+        final StringBuilder values = new StringBuilder();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            final int position = slot + this.values + 8 * bucket;
+            final long count = this.buffer.getLong(position);
+            if (count > 0) {
+                this.buffer.putLong(position, 0);
+                Recorder.appendValue(values, valueOf(bucket), count, collapseDuplicates);
+            }
+        }
+        if (values.length() > 0) {
+            values.append(Unit.values()[this.buffer.getInt(slot + UNIT)]);
+        }
+        return values.toString();
+    }
+
+    /**
+     * Find the slot of a metric, claim an empty one if the metric is new. Slots are probed linearly from the hash of
+     * the key.
+     *
+     * @return offset of the slot, FULL if there is no slot left, -1 if the metric cannot be stored
+     */
+    private int slotOf(final String key, final PendingMetric metric) {
+        final int hash = key.hashCode();
+        final byte[] keyBytes = key.getBytes(StandardCharsets.ISO_8859_1);
+        final int hint = metric.slotHint;
+        int index = hint >= 0 && keyAt(hint, hash, keyBytes) ? hint : indexOf(hash, keyBytes);
+        if (index < 0) {
+            index = claim(hash, keyBytes, metric);
+            if (index < 0) {
+                if (hint != FULL) {
+                    this.errorReporter.accept("Shared memory is full, keep metric " + key + " until a slot is freed");
+                }
+                metric.slotHint = FULL;
+                return FULL;
+            }
+        }
+        metric.slotHint = index;
+        final int slot = offsetOf(index);
+        if (this.buffer.getInt(slot + TYPE) != metric.type) {
+            this.errorReporter.accept("Metric " + key + " has another type in shared memory");
+            return -1;
+        }
+        // values of another unit than the first one are ignored
+        return this.buffer.getInt(slot + UNIT) == metric.unit.ordinal() ? slot : -1;
+    }
+
+    /**
+     * @return index of the slot holding a key, -1 if there is none
+     */
+    private int indexOf(final int hash, final byte[] keyBytes) {
+        final int start = Math.floorMod(hash, this.slots);
+        for (int probe = 0; probe < this.slots; probe++) {
+            final int index = (start + probe) % this.slots;
+            if (this.buffer.getInt(offsetOf(index) + STATE) == EMPTY) {
+                return -1;
+            }
+            if (keyAt(index, hash, keyBytes)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the claimed slot, -1 if the file is full
+     */
+    private int claim(final int hash, final byte[] keyBytes, final PendingMetric metric) {
+        final int start = Math.floorMod(hash, this.slots);
+        for (int probe = 0; probe < this.slots; probe++) {
+            final int index = (start + probe) % this.slots;
+            final int slot = offsetOf(index);
+            if (this.buffer.getInt(slot + STATE) == EMPTY) {
+                this.buffer.putInt(slot + TYPE, metric.type);
+                this.buffer.putInt(slot + UNIT, metric.unit.ordinal());
+                this.buffer.putInt(slot + KEY_LENGTH, keyBytes.length);
+                this.buffer.putInt(slot + HASH, hash);
+                this.buffer.putInt(slot + IDLE, 0);
+                for (int i = 0; i < keyBytes.length; i++) {
+                    this.buffer.put(slot + KEY + i, keyBytes[i]);
+                }
+                for (int i = 0; i < BUCKETS; i++) {
+                    this.buffer.putLong(slot + this.values + 8 * i, 0);
+                }
+                this.buffer.putInt(slot + STATE, USED);
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Empty a slot, then move back the slots which follow it in the same probe sequence, so lookups still find them
+     */
+    private void free(final int index) {
+        int hole = index;
+        // a full table has no empty slot to stop at, so the walk stops after one round
+        for (int step = 1; step < this.slots; step++) {
+            final int next = (index + step) % this.slots;
+            final int slot = offsetOf(next);
+            if (this.buffer.getInt(slot + STATE) == EMPTY) {
+                break;
+            }
+            final int home = Math.floorMod(this.buffer.getInt(slot + HASH), this.slots);
+            // the slot may move unless its home is cyclically within (hole, next]
+            if (hole <= next ? home <= hole || home > next : home <= hole && home > next) {
+                final int target = offsetOf(hole);
+                for (int i = 0; i < this.slotBytes; i += 8) {
+                    this.buffer.putLong(target + i, this.buffer.getLong(slot + i));
+                }
+                hole = next;
+            }
+        }
+        this.buffer.putInt(offsetOf(hole) + STATE, EMPTY);
+    }
+
+    private int offsetOf(final int index) {
+        return HEADER_BYTES + index * this.slotBytes;
+    }
+
+    private boolean keyAt(final int index, final int hash, final byte[] keyBytes) {
+        final int slot = offsetOf(index);
+        if (this.buffer.getInt(slot + STATE) != USED || this.buffer.getInt(slot + HASH) != hash
+                || this.buffer.getInt(slot + KEY_LENGTH) != keyBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (this.buffer.get(slot + KEY + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readKey(final int slot) {
+        final byte[] keyBytes = new byte[this.buffer.getInt(slot + KEY_LENGTH)];
+        for (int i = 0; i < keyBytes.length; i++) {
+            keyBytes[i] = this.buffer.get(slot + KEY + i);
+        }
+        return new String(keyBytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -26,14 +26,68 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 
+/**
+ * HMAC-SHA256 signatures of payloads. Each thread keeps its own Mac initialised with the secret key, cloned from
+ * a shared prototype, so signing neither looks up the algorithm nor expands the key again.
+ */
 public class Signature {
 
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final ThreadLocal<KeyedMac> macs = new ThreadLocal<>();
+    private static volatile KeyedMac prototype;
+
     public static byte[] sign(final byte[] data, final String key)
             throws NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
-        String algorithm = "HmacSHA256";
-        Mac mac = Mac.getInstance(algorithm);
-        mac.init(new SecretKeySpec(key.getBytes(), algorithm));
-        return Base64.getEncoder().encode(mac.doFinal(data));
+        final Mac mac = getMac(key);
+        mac.update(data);
+        return encode(mac);
+    }
+
+    /**
+     * @return Mac of the calling thread initialised with the key, ready to be updated
+     */
+    static Mac getMac(final String key) throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyedMac keyedMac = macs.get();
+        if (keyedMac == null || !keyedMac.key.equals(key)) {
+            keyedMac = new KeyedMac(key, cloneMac(key));
+            macs.set(keyedMac);
+        }
+        keyedMac.mac.reset();
+        return keyedMac.mac;
+    }
+
+    /**
+     * Complete the signature, the Mac is reset and can be used again
+     */
+    static byte[] encode(final Mac mac) {
+        return Base64.getEncoder().encode(mac.doFinal());
+    }
+
+    private static Mac cloneMac(final String key) throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyedMac keyedMac = prototype;
+        if (keyedMac == null || !keyedMac.key.equals(key)) {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key.getBytes(), ALGORITHM));
+            keyedMac = new KeyedMac(key, mac);
+            prototype = keyedMac;
+        }
+        try {
+            // the prototype is never updated, cloning it is safe from any thread
+            return (Mac) keyedMac.mac.clone();
+        } catch (CloneNotSupportedException e) {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key.getBytes(), ALGORITHM));
+            return mac;
+        }
     }
 
+    private static class KeyedMac {
+        private final String key;
+        private final Mac mac;
+
+        private KeyedMac(final String key, final Mac mac) {
+            this.key = key;
+            this.mac = mac;
+        }
+    }
 }
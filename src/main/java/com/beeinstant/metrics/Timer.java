@@ -24,7 +24,18 @@ package com.beeinstant.metrics;
  */
 class Timer implements Metric {
 
-    private final Recorder recorder = new Recorder(Unit.MILLI_SECOND);
+    private final Recorder recorder;
+
+    Timer() {
+        this(new Recorder(Unit.MILLI_SECOND));
+    }
+
+    /**
+     * @param recorder, keeps durations in milliseconds
+     */
+    Timer(final Recorder recorder) {
+        this.recorder = recorder;
+    }
 
     @Override
     public long startTimer() {
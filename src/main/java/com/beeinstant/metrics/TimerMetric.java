@@ -48,6 +48,8 @@ public class TimerMetric implements AutoCloseable {
                 ((MetricsCollector) this.metrics).stopTimer(timerName, startTime);
             } else if (this.metrics instanceof MetricsGroup) {
                 ((MetricsGroup) this.metrics).stopTimer(timerName, startTime);
+            } else if (this.metrics instanceof SharedMemoryMetrics) {
+                ((SharedMemoryMetrics) this.metrics).stopTimer(timerName, startTime);
             }
         }
     }
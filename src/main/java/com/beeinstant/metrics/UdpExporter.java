@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send exported metrics as UDP datagrams of new-line separated metric lines, fire-and-forget. Lines are encoded
+ * straight into one reused direct buffer of at most one datagram, and datagrams are sent through a non-blocking
+ * channel, so a full socket buffer drops the datagram instead of blocking the flush. A line which doesn't fit in a
+ * datagram is dropped. This class is not thread-safe, exporters are called by a single thread.
+ */
+public class UdpExporter implements MetricsExporter {
+
+    private static final Logger LOG = Logger.getLogger(UdpExporter.class);
+
+    /**
+     * Fits in an Ethernet frame with IPv4 or IPv6 and UDP headers, and some room for tunnels
+     */
+    static final int DEFAULT_MAX_DATAGRAM_BYTES = 1432;
+
+    private final DatagramChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] line;
+    private final AtomicLong droppedLines = new AtomicLong(0);
+    private final AtomicLong droppedDatagrams = new AtomicLong(0);
+
+    public UdpExporter(final InetSocketAddress target) throws IOException {
+        this(target, DEFAULT_MAX_DATAGRAM_BYTES);
+    }
+
+    public UdpExporter(final InetSocketAddress target, final int maxDatagramBytes) throws IOException {
+        this.buffer = ByteBuffer.allocateDirect(maxDatagramBytes);
+        this.line = new byte[maxDatagramBytes];
+        this.channel = DatagramChannel.open();
+        try {
+            this.channel.configureBlocking(false);
+            this.channel.connect(target);
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void export(final List<MetricRecord> records) throws IOException {
+        this.buffer.clear();
+        for (final MetricRecord record : records) {
+            final String dimensions = record.getDimensionsString();
+            final String metrics = record.getMetricsString();
+            final int lineBytes = dimensions.length() + metrics.length() + 2;
+            if (lineBytes > this.buffer.capacity()) {
+                this.droppedLines.incrementAndGet();
+                LOG.warn("Drop a metric line of " + lineBytes + " bytes, bigger than a datagram");
+                continue;
+            }
+            if (lineBytes > this.buffer.remaining()) {
+                send();
+            }
+            int length = Payload.encode(dimensions, this.line, 0);
+            this.line[length++] = ',';
+            length = Payload.encode(metrics, this.line, length);
+            this.line[length++] = '\n';
+            this.buffer.put(this.line, 0, length);
+        }
+        if (this.buffer.position() > 0) {
+            send();
+        }
+    }
+
+    long getDroppedLines() {
+        return this.droppedLines.get();
+    }
+
+    long getDroppedDatagrams() {
+        return this.droppedDatagrams.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void send() throws IOException {
+        this.buffer.flip();
+        try {
+            if (this.channel.write(this.buffer) == 0) {
+                this.droppedDatagrams.incrementAndGet();
+                LOG.debug("Socket buffer is full, drop a datagram");
+            }
+        } catch (IOException e) {
+            // e.g. ICMP port unreachable reported on a connected channel, the next datagram may go through
+            this.droppedDatagrams.incrementAndGet();
+            LOG.debug("Cannot send a datagram", e);
+        } finally {
+            this.buffer.clear();
+        }
+    }
+}
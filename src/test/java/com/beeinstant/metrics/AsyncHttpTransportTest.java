@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import com.github.kristofa.test.http.MockHttpServer;
+import com.github.kristofa.test.http.SimpleHttpResponseProvider;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.pool.PoolStats;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.kristofa.test.http.Method.POST;
+
+public class AsyncHttpTransportTest {
+
+    private static final int PORT = 8993;
+    private MockHttpServer server;
+    private SimpleHttpResponseProvider responseProvider;
+    private AsyncHttpTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        responseProvider = new SimpleHttpResponseProvider();
+        server = new MockHttpServer(PORT, responseProvider);
+        server.start();
+        transport = new AsyncHttpTransport(new HttpHost("localhost", PORT), 2, 5000, 300000, 30000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.close();
+        server.stop();
+    }
+
+    @Test
+    public void testWarmUpOpensConnections() throws Exception {
+        transport.warmUp(2).get(10, TimeUnit.SECONDS);
+        final PoolStats stats = transport.getPoolStats();
+        Assert.assertEquals(2, stats.getAvailable());
+        Assert.assertEquals(0, stats.getLeased());
+    }
+
+    @Test
+    public void testWarmUpIsCappedByPoolSize() throws Exception {
+        transport.warmUp(5).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, transport.getPoolStats().getAvailable());
+    }
+
+    @Test
+    public void testConnectionIsReusedAfterResponseIsDrained() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            responseProvider.expect(POST, "/PutMetric", "text/plain", "m.Count=" + i + "\n")
+                    .respondWith(200, "application/json", "{\"status\":\"ok\"}");
+            Assert.assertFalse(transport.send(post("m.Count=" + i + "\n")).get(10, TimeUnit.SECONDS).isRetryable());
+            final PoolStats stats = transport.getPoolStats();
+            Assert.assertEquals(0, stats.getLeased());
+            Assert.assertEquals(1, stats.getAvailable());
+        }
+        responseProvider.verify();
+    }
+
+    @Test
+    public void testServerErrorIsRetryable() throws Exception {
+        responseProvider.expect(POST, "/PutMetric", "text/plain", "m.Count=1\n")
+                .respondWith(503, "application/json", "{\"status\":\"unavailable\"}");
+        Assert.assertTrue(transport.send(post("m.Count=1\n")).get(10, TimeUnit.SECONDS).isRetryable());
+        Assert.assertEquals(0, transport.getPoolStats().getLeased());
+    }
+
+    @Test
+    public void testEvictIdleConnections() throws Exception {
+        transport.close();
+        transport = new AsyncHttpTransport(new HttpHost("localhost", PORT), 2, 5000, 300000, 1);
+        transport.warmUp(2).get(10, TimeUnit.SECONDS);
+        Thread.sleep(50);
+        transport.evictConnections();
+        Assert.assertEquals(0, transport.getPoolStats().getAvailable());
+    }
+
+    private static HttpPost post(final String body) {
+        final HttpPost request = new HttpPost("/PutMetric");
+        request.setEntity(new StringEntity(body, "UTF-8"));
+        return request;
+    }
+}
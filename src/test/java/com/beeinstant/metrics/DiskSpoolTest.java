@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class DiskSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadAndCommitOldestFirst() throws IOException {
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 1024, 4096)) {
+            Assert.assertTrue(spool.isEmpty());
+            Assert.assertNull(spool.read(100));
+            Assert.assertTrue(spool.append("line1\n"));
+            Assert.assertTrue(spool.append("line2\n"));
+            Assert.assertFalse(spool.isEmpty());
+            Assert.assertEquals("line1\nline2\n", spool.read(100));
+            // not committed, read the same records again
+            Assert.assertEquals("line1\n", spool.read(6));
+            spool.commit();
+            Assert.assertEquals("line2\n", spool.read(100));
+            spool.commit();
+            Assert.assertNull(spool.read(100));
+            Assert.assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void testReadRecordBiggerThanMaxBytes() throws IOException {
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 1024, 4096)) {
+            spool.append("line1\nline2\n");
+            Assert.assertEquals("line1\nline2\n", spool.read(1));
+        }
+    }
+
+    @Test
+    public void testRejectPayloadBiggerThanSegment() throws IOException {
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 32, 4096)) {
+            Assert.assertFalse(spool.append("a payload which does not fit into a segment\n"));
+            Assert.assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void testRollSegmentsAndDeleteReadSegments() throws IOException {
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 48, 4096)) {
+            spool.append("line1\n");
+            spool.append("line2\n");
+            spool.append("line3\n");
+            Assert.assertEquals(2, segmentFiles().length);
+            Assert.assertEquals(96, spool.bytes());
+            Assert.assertEquals("line1\nline2\n", spool.read(100));
+            spool.commit();
+            Assert.assertEquals(1, segmentFiles().length);
+            Assert.assertEquals("line3\n", spool.read(100));
+            spool.commit();
+            Assert.assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void testDropOldestSegmentWhenFull() throws IOException {
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 48, 96)) {
+            spool.append("line1\n");
+            spool.append("line2\n");
+            spool.append("line3\n");
+            spool.append("line4\n");
+            spool.append("line5\n");
+            Assert.assertEquals(96, spool.bytes());
+            Assert.assertEquals("line3\nline4\n", spool.read(100));
+            spool.commit();
+            Assert.assertEquals("line5\n", spool.read(100));
+        }
+    }
+
+    @Test
+    public void testReopenSpool() throws IOException {
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 48, 4096)) {
+            spool.append("line1\n");
+            spool.append("line2\n");
+            spool.append("line3\n");
+            spool.read(6);
+            spool.commit();
+        }
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 48, 4096)) {
+            Assert.assertEquals("line2\n", spool.read(100));
+            spool.commit();
+            spool.append("line4\n");
+            Assert.assertEquals("line3\nline4\n", spool.read(100));
+        }
+    }
+
+    @Test
+    public void testSkipCorruptedRecords() throws IOException {
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 64, 4096)) {
+            spool.append("line1\n");
+            spool.append("line2\n");
+        }
+        // flip a byte of the second record
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles()[0], "rw")) {
+            file.seek(8 + 8 + 6 + 8);
+            file.write('X');
+        }
+        try (DiskSpool spool = new DiskSpool(folder.getRoot(), 64, 4096)) {
+            Assert.assertEquals("line1\n", spool.read(100));
+            spool.commit();
+            Assert.assertNull(spool.read(100));
+            spool.append("line3\n");
+            Assert.assertEquals("line3\n", spool.read(100));
+        }
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles((dir, name) -> name.endsWith(".seg"));
+    }
+}
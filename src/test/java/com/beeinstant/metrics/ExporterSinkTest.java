@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ExporterSinkTest {
+
+    @Test
+    public void testExportBatchesInOrder() throws Exception {
+        final InMemoryExporter exporter = new InMemoryExporter();
+        final ExporterSink sink = new ExporterSink(exporter, 4);
+        sink.offer(Collections.singletonList(record("api=A")));
+        sink.offer(Arrays.asList(record("api=B"), record("api=C")));
+        Assert.assertEquals(Arrays.asList("d.api=A,m.Count=1", "d.api=B,m.Count=1", "d.api=C,m.Count=1"),
+                lines(exporter.awaitRecords(3, 5000)));
+        sink.close(5000);
+    }
+
+    @Test
+    public void testDropOldestBatchWhenExporterIsSlow() throws Exception {
+        final CountDownLatch exporting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final InMemoryExporter exported = new InMemoryExporter();
+        final ExporterSink sink = new ExporterSink(records -> {
+            exporting.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            exported.export(records);
+        }, 2);
+        sink.offer(Collections.singletonList(record("api=A")));
+        Assert.assertTrue(exporting.await(5, TimeUnit.SECONDS));
+        sink.offer(Collections.singletonList(record("api=B")));
+        sink.offer(Collections.singletonList(record("api=C")));
+        sink.offer(Collections.singletonList(record("api=D")));
+        Assert.assertEquals(1, sink.getDroppedBatches());
+        release.countDown();
+        sink.close(5000);
+        Assert.assertEquals(Arrays.asList("d.api=A,m.Count=1", "d.api=C,m.Count=1", "d.api=D,m.Count=1"),
+                lines(exported.getRecords()));
+    }
+
+    @Test
+    public void testFailedExportDoesNotStopTheSink() throws Exception {
+        final InMemoryExporter exported = new InMemoryExporter();
+        final ExporterSink sink = new ExporterSink(records -> {
+            if (records.get(0).toString().startsWith("d.api=A")) {
+                throw new IOException("Failed");
+            }
+            exported.export(records);
+        }, 4);
+        sink.offer(Collections.singletonList(record("api=A")));
+        sink.offer(Collections.singletonList(record("api=B")));
+        Assert.assertEquals(Collections.singletonList("d.api=B,m.Count=1"), lines(exported.awaitRecords(1, 5000)));
+        sink.close(5000);
+    }
+
+    @Test
+    public void testCloseExportsQueuedBatchesThenClosesExporter() throws Exception {
+        final CountDownLatch closed = new CountDownLatch(1);
+        final InMemoryExporter exported = new InMemoryExporter();
+        final ExporterSink sink = new ExporterSink(new MetricsExporter() {
+            @Override
+            public void export(final List<MetricRecord> records) {
+                exported.export(records);
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        }, 4);
+        sink.offer(Collections.singletonList(record("api=A")));
+        sink.close(5000);
+        Assert.assertEquals(0, closed.getCount());
+        Assert.assertEquals(1, exported.getRecords().size());
+        // batches offered after close are ignored
+        sink.offer(Collections.singletonList(record("api=B")));
+        Assert.assertEquals(1, exported.getRecords().size());
+    }
+
+    static MetricRecord record(final String dimension) {
+        return new MetricRecord("d." + dimension, "m.Count=1");
+    }
+
+    static List<String> lines(final List<MetricRecord> records) {
+        final String[] lines = new String[records.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = records.get(i).toString();
+        }
+        return Arrays.asList(lines);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FlushSchedulerTest {
+
+    private ScheduledExecutorService executorService;
+    private final AtomicLong clock = new AtomicLong(0);
+    private final AtomicLong bufferedBytes = new AtomicLong(0);
+    private final AtomicInteger collects = new AtomicInteger(0);
+    private final AtomicInteger flushes = new AtomicInteger(0);
+    private CompletableFuture<Void> upload = CompletableFuture.completedFuture(null);
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testAlignToWallClockWithOffset() {
+        final FlushScheduler scheduler = newScheduler(10000, 10000, 10000, 1234, true, 0);
+        Assert.assertEquals(11234, scheduler.nextBoundary(5000));
+        Assert.assertEquals(11234, scheduler.nextBoundary(11234));
+        Assert.assertEquals(21234, scheduler.nextBoundary(11235));
+        Assert.assertEquals(1234, scheduler.nextBoundary(0));
+    }
+
+    @Test
+    public void testOffsetWithoutAlignment() {
+        clock.set(100000);
+        final FlushScheduler scheduler = newScheduler(10000, 10000, 10000, 1234, false, 0);
+        scheduler.start(5000);
+        Assert.assertEquals(106234, scheduler.getNextRunMillis());
+    }
+
+    @Test
+    public void testSkipMissedRuns() {
+        final FlushScheduler scheduler = newScheduler(10000, 10000, 10000, 0, false, 0);
+        Assert.assertEquals(20000, scheduler.nextRunAfter(10000, 15000));
+        Assert.assertEquals(0, scheduler.getSkippedFlushes());
+        // the flush ended after 3 more boundaries, they are skipped rather than run back-to-back
+        Assert.assertEquals(50000, scheduler.nextRunAfter(10000, 45000));
+        Assert.assertEquals(3, scheduler.getSkippedFlushes());
+
+        final FlushScheduler aligned = newScheduler(10000, 10000, 10000, 0, true, 0);
+        Assert.assertEquals(50000, aligned.nextRunAfter(10000, 45000));
+        Assert.assertEquals(3, aligned.getSkippedFlushes());
+    }
+
+    @Test
+    public void testSkipFlushWhileUploading() {
+        final FlushScheduler scheduler = newScheduler(10000, 10000, 10000, 0, false, 0);
+        upload = new CompletableFuture<>();
+        scheduler.run();
+        Assert.assertEquals(1, flushes.get());
+        scheduler.run();
+        Assert.assertEquals(1, collects.get());
+        Assert.assertEquals(1, flushes.get());
+        Assert.assertEquals(1, scheduler.getSkippedFlushes());
+        upload.complete(null);
+        scheduler.run();
+        Assert.assertEquals(2, collects.get());
+        Assert.assertEquals(2, flushes.get());
+    }
+
+    @Test
+    public void testAdaptIntervalToVolume() {
+        final FlushScheduler scheduler = newScheduler(10000, 2500, 40000, 0, false, 1000);
+        bufferedBytes.set(5000);
+        scheduler.run();
+        Assert.assertEquals(5000, scheduler.getIntervalMillis());
+        scheduler.run();
+        scheduler.run();
+        Assert.assertEquals(2500, scheduler.getIntervalMillis());
+        bufferedBytes.set(500);
+        scheduler.run();
+        Assert.assertEquals(2500, scheduler.getIntervalMillis());
+        bufferedBytes.set(100);
+        for (int i = 0; i < 5; i++) {
+            scheduler.run();
+        }
+        Assert.assertEquals(40000, scheduler.getIntervalMillis());
+    }
+
+    @Test
+    public void testFixedIntervalWithoutTarget() {
+        final FlushScheduler scheduler = newScheduler(10000, 2500, 40000, 0, false, 0);
+        bufferedBytes.set(Long.MAX_VALUE);
+        scheduler.run();
+        Assert.assertEquals(10000, scheduler.getIntervalMillis());
+    }
+
+    @Test(timeout = 10000)
+    public void testScheduledFlushes() throws Exception {
+        final FlushScheduler scheduler = new FlushScheduler(executorService, collects::incrementAndGet,
+                bufferedBytes::get, () -> {
+            flushes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, System::currentTimeMillis, 20, 20, 20, 5, false, 0);
+        scheduler.start(0);
+        while (flushes.get() < 3) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(collects.get() >= 3);
+    }
+
+    @Test(timeout = 10000)
+    public void testRearmWhenIntervalShrinks() throws Exception {
+        final FlushScheduler scheduler = new FlushScheduler(executorService, collects::incrementAndGet,
+                bufferedBytes::get, () -> {
+            flushes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, System::currentTimeMillis, 60000, 60000, 60000, 0, false, 0);
+        scheduler.start(60000);
+        scheduler.setIntervals(20, 20, 20);
+        Assert.assertEquals(20, scheduler.getIntervalMillis());
+        while (flushes.get() < 3) {
+            Thread.sleep(10);
+        }
+        // a longer interval applies after the next flush
+        final long nextRunMillis = scheduler.getNextRunMillis();
+        scheduler.setIntervals(60000, 1000, 60000);
+        Assert.assertTrue(scheduler.getNextRunMillis() <= nextRunMillis + 20);
+    }
+
+    @Test
+    public void testKeepIntervalWithinBounds() {
+        final FlushScheduler scheduler = newScheduler(10000, 10000, 10000, 0, false, 0);
+        scheduler.setIntervals(100000, 1000, 30000);
+        Assert.assertEquals(30000, scheduler.getIntervalMillis());
+        Assert.assertEquals(1000, scheduler.getMinIntervalMillis());
+        Assert.assertEquals(30000, scheduler.getMaxIntervalMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectInvalidIntervals() {
+        newScheduler(10000, 10000, 10000, 0, false, 0).setIntervals(10000, 20000, 5000);
+    }
+
+    private FlushScheduler newScheduler(final long interval, final long minInterval, final long maxInterval,
+                                        final long offset, final boolean align, final long targetBytes) {
+        // the executor is shut down so runs called by tests are not scheduled again
+        executorService.shutdownNow();
+        return new FlushScheduler(executorService, collects::incrementAndGet, bufferedBytes::get, () -> {
+            flushes.incrementAndGet();
+            return upload;
+        }, clock::get, interval, minInterval, maxInterval, offset, align, targetBytes);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class HttpExporterTest {
+
+    private final List<HttpPost> requests = new ArrayList<>();
+    private RetryScheduler.Result result = RetryScheduler.Result.DONE;
+
+    private final MetricsTransport transport = new MetricsTransport() {
+        @Override
+        public CompletableFuture<RetryScheduler.Result> send(final HttpPost request) {
+            requests.add(request);
+            return CompletableFuture.completedFuture(result);
+        }
+
+        @Override
+        public CompletableFuture<Void> warmUp(final int connections) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void evictConnections() {
+        }
+
+        @Override
+        public PoolStats getPoolStats() {
+            return new PoolStats(0, 0, 0, 0);
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    public void testSplitBatchIntoSignedPayloads() throws Exception {
+        // room for two lines per payload
+        final HttpExporter exporter = new HttpExporter(transport, "PublicKey", "SecretKey", 40);
+        exporter.export(Arrays.asList(ExporterSinkTest.record("api=A"), ExporterSinkTest.record("api=B"),
+                ExporterSinkTest.record("api=C")));
+        Assert.assertEquals(2, requests.size());
+        assertRequest(requests.get(0), "d.api=A,m.Count=1\nd.api=B,m.Count=1\n");
+        assertRequest(requests.get(1), "d.api=C,m.Count=1\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailedUpload() throws Exception {
+        result = RetryScheduler.Result.RETRY;
+        new HttpExporter(transport, "PublicKey", "SecretKey", 40)
+                .export(Arrays.asList(ExporterSinkTest.record("api=A")));
+    }
+
+    private static void assertRequest(final HttpPost request, final String body) throws Exception {
+        Assert.assertEquals(body, EntityUtils.toString(request.getEntity()));
+        final String signature = URLEncoder.encode(new String(Signature.sign(body.getBytes(), "SecretKey")), "UTF-8");
+        Assert.assertTrue(request.getURI().toString().startsWith("/PutMetric?signature=" + signature + "&publicKey=PublicKey&timestamp="));
+    }
+}
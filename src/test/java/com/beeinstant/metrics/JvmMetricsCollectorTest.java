@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class JvmMetricsCollectorTest {
+
+    @Test
+    public void testCollectGaugesAndIncreases() {
+        final JvmMetricsCollector collector = new JvmMetricsCollector();
+        Map<String, String> metrics = collect(collector);
+        Assert.assertTrue(metrics.get("jvm.HeapUsed").endsWith("b"));
+        Assert.assertTrue(metrics.containsKey("jvm.NonHeapCommitted"));
+        Assert.assertTrue(metrics.containsKey("jvm.Threads"));
+        Assert.assertTrue(metrics.containsKey("jvm.LoadedClasses"));
+        Assert.assertTrue(metrics.keySet().stream().anyMatch(name -> name.startsWith("jvm.MemoryPool.")));
+        // totals since the JVM started are not reported
+        Assert.assertFalse(metrics.keySet().stream().anyMatch(name -> name.startsWith("jvm.GC.")));
+
+        System.gc();
+        metrics = collect(collector);
+        Assert.assertTrue(metrics.keySet().stream().anyMatch(name -> name.startsWith("jvm.GC.") && name.endsWith(".Count")));
+        Assert.assertTrue(metrics.keySet().stream().anyMatch(name -> name.startsWith("jvm.GC.") && name.endsWith(".Time")));
+        Assert.assertEquals(collector.hasSafepointStatistics(), metrics.containsKey("jvm.SafepointTime"));
+    }
+
+    @Test
+    public void testNameOf() {
+        Assert.assertEquals("G1_Young_Generation", JvmMetricsCollector.nameOf("G1 Young Generation"));
+        Assert.assertEquals("CodeHeap_non-nmethods_", JvmMetricsCollector.nameOf("CodeHeap 'non-nmethods'"));
+    }
+
+    private static Map<String, String> collect(final JvmMetricsCollector collector) {
+        final MetricsLogger metricsLogger = new MetricsLogger("service=Test");
+        collector.collect(metricsLogger);
+        final List<MetricRecord> records = new ArrayList<>();
+        metricsLogger.flushToRecords(records::add);
+        return records.get(0).getMetrics();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricNamesTest {
+
+    private final MetricNames metricNames = new MetricNames(65536);
+
+    @Test
+    public void testIdOfValidName() {
+        final int id = metricNames.idOf("NumOfRequests");
+        Assert.assertTrue(id >= 0);
+        Assert.assertEquals(id, metricNames.idOf("NumOfRequests"));
+        Assert.assertEquals("NumOfRequests", metricNames.nameOf(id));
+        Assert.assertNotEquals(id, metricNames.idOf("Latency"));
+    }
+
+    @Test
+    public void testPrefixOf() {
+        Assert.assertEquals("m.NumOfRequests=", metricNames.prefixOf(metricNames.idOf("NumOfRequests")));
+    }
+
+    @Test
+    public void testIdOfInvalidName() {
+        Assert.assertEquals(MetricNames.INVALID, metricNames.idOf("Invalid@Name"));
+        Assert.assertEquals(MetricNames.INVALID, metricNames.idOf(""));
+    }
+
+    @Test
+    public void testManyNames() {
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("Name" + i, metricNames.nameOf(metricNames.idOf("Name" + i)));
+            Assert.assertEquals("m.Name" + i + "=", metricNames.prefixOf(metricNames.idOf("Name" + i)));
+        }
+    }
+
+    @Test
+    public void testNamesWithoutId() {
+        final MetricNames metricNames = new MetricNames(2);
+        Assert.assertEquals(0, metricNames.idOf("First"));
+        Assert.assertEquals(1, metricNames.idOf("Second"));
+        Assert.assertEquals(MetricNames.NO_ID, metricNames.idOf("Third"));
+        Assert.assertEquals(0, metricNames.idOf("First"));
+    }
+
+    @Test
+    public void testEqualNamesShareTheirId() {
+        final String name = "NumOfRequests";
+        final String copy = new String(name.toCharArray());
+        Assert.assertNotSame(name, copy);
+        Assert.assertEquals(metricNames.idOf(name), metricNames.idOf(copy));
+        Assert.assertEquals(metricNames.idOf(copy), metricNames.idOf(name));
+    }
+}
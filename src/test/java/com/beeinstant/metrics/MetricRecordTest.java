@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MetricRecordTest {
+
+    @Test
+    public void testParseRecord() {
+        final MetricRecord record = new MetricRecord("d.api=Upload,d.service=ImageSharing",
+                "m.NumOfRequests=1,m.Latency=12.5+13.ms");
+        Assert.assertEquals("d.api=Upload,d.service=ImageSharing,m.NumOfRequests=1,m.Latency=12.5+13.ms", record.toString());
+        final Map<String, String> dimensions = new LinkedHashMap<>();
+        dimensions.put("api", "Upload");
+        dimensions.put("service", "ImageSharing");
+        Assert.assertEquals(dimensions, record.getDimensions());
+        final Map<String, String> metrics = new LinkedHashMap<>();
+        metrics.put("NumOfRequests", "1");
+        metrics.put("Latency", "12.5+13.ms");
+        Assert.assertEquals(metrics, record.getMetrics());
+        Assert.assertEquals("d.api=Upload,d.service=ImageSharing", record.getDimensionsString());
+        Assert.assertEquals("m.NumOfRequests=1,m.Latency=12.5+13.ms", record.getMetricsString());
+    }
+
+    @Test
+    public void testRecordOfLine() {
+        final MetricRecord record = MetricRecord.ofLine("d.api=Upload",
+                new StringBuilder("d.api=Upload,m.NumOfRequests=1"));
+        Assert.assertEquals("d.api=Upload,m.NumOfRequests=1", record.toString());
+        Assert.assertEquals("d.api=Upload", record.getDimensionsString());
+        Assert.assertEquals("m.NumOfRequests=1", record.getMetricsString());
+    }
+
+    @Test
+    public void testExpandValues() {
+        final MetricRecord record = new MetricRecord("d.api=Up*load", "m.Count=3,m.Latency=3.0*3+4.0ms,m.Size=2.0*2b");
+        Assert.assertEquals("d.api=Up*load,m.Count=3,m.Latency=3.0+3.0+3.0+4.0ms,m.Size=2.0+2.0b",
+                record.withExpandedValues().toString());
+        Assert.assertEquals("d.api=Up*load", record.withExpandedValues().getDimensionsString());
+        final MetricRecord expanded = new MetricRecord("d.api=Up*load", "m.Latency=3.0+4.0ms");
+        Assert.assertSame(expanded, expanded.withExpandedValues());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MetricTableTest {
+
+    @Test
+    public void testPutIfAbsentAndResize() {
+        final MetricTable table = new MetricTable();
+        final Map<Integer, Metric> expected = new HashMap<>();
+        for (int id = 0; id < 1000; id++) {
+            final Counter counter = new Counter();
+            Assert.assertSame(counter, table.putIfAbsent(id, counter));
+            Assert.assertSame(counter, table.putIfAbsent(id, new Counter()));
+            expected.put(id, counter);
+        }
+        Assert.assertEquals(1000, table.size());
+        Assert.assertNull(table.get(1000));
+        expected.forEach((id, metric) -> Assert.assertSame(metric, table.get(id)));
+        final Map<Integer, Metric> visited = new HashMap<>();
+        table.forEach(visited::put);
+        Assert.assertEquals(expected, visited);
+    }
+
+    @Test
+    public void testConcurrentPutIfAbsent() throws InterruptedException {
+        final MetricTable table = new MetricTable();
+        final CountDownLatch done = new CountDownLatch(4);
+        final AtomicInteger failures = new AtomicInteger(0);
+        for (int i = 0; i < 4; i++) {
+            new Thread(() -> {
+                for (int id = 0; id < 10000; id++) {
+                    final Metric metric = table.putIfAbsent(id, new Counter());
+                    metric.incCounter(1);
+                    if (table.get(id) != metric) {
+                        failures.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(10000, table.size());
+        table.forEach((id, metric) -> Assert.assertEquals("4", metric.flushToString()));
+    }
+}
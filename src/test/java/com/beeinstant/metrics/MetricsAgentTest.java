@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class MetricsAgentTest {
+
+    private InMemoryExporter forwarded;
+    private MetricsAgent agent;
+
+    @Before
+    public void setUp() throws Exception {
+        forwarded = new InMemoryExporter();
+        agent = new MetricsAgent(0, forwarded);
+        // flushed by tests
+        agent.start(3600000);
+    }
+
+    @After
+    public void tearDown() {
+        agent.close();
+    }
+
+    @Test
+    public void testParseMetric() {
+        Assert.assertEquals("3", MetricsAgent.parseMetric("3", 0, false).flushToString());
+        Assert.assertEquals("1.0+2.5ms", MetricsAgent.parseMetric("1.0+2.5ms", 0, false).flushToString());
+        Assert.assertEquals("1.0E10kb", MetricsAgent.parseMetric("1.0E10kb", 0, false).flushToString());
+        Assert.assertEquals("4.0", MetricsAgent.parseMetric("4.0", 0, false).flushToString());
+        Assert.assertEquals("1.0+3.0+3.0+3.0ms", MetricsAgent.parseMetric("1.0+3.0*3ms", 0, false).flushToString());
+        Assert.assertEquals("3.0*3ms", MetricsAgent.parseMetric("2.9+3.0*2ms", 0.5, true).flushToString());
+        Assert.assertEquals("3.0+3.0+3.0ms", MetricsAgent.parseMetric("2.9+3.0*2ms", 0.5, false).flushToString());
+        Assert.assertNull(MetricsAgent.parseMetric("", 0, false));
+        Assert.assertNull(MetricsAgent.parseMetric("ms", 0, false));
+        Assert.assertNull(MetricsAgent.parseMetric("1.0xyz", 0, false));
+        Assert.assertNull(MetricsAgent.parseMetric("1.0++2.0ms", 0, false));
+        // counts which would expand to too many values
+        Assert.assertNull(MetricsAgent.parseMetric("1.0*2000000000ms", 0, false));
+        Assert.assertNull(MetricsAgent.parseMetric("1.0*1000000+2.0*1ms", 0.5, false));
+        Assert.assertNull(MetricsAgent.parseMetric("1.0*" + Long.MAX_VALUE + "+2.0*" + Long.MAX_VALUE + "ms", 0, false));
+        Assert.assertEquals("1.0*2000000000ms", MetricsAgent.parseMetric("1.0*2000000000ms", 0.5, true).flushToString());
+        Assert.assertNull(MetricsAgent.parseMetric("1.0*-2ms", 0, false));
+        Assert.assertEquals(String.valueOf(Integer.MAX_VALUE), MetricsAgent.parseMetric(String.valueOf(Integer.MAX_VALUE), 0, false).flushToString());
+        Assert.assertNull(MetricsAgent.parseMetric("2147483648", 0, false));
+        Assert.assertNull(MetricsAgent.parseMetric("99999999999999999999", 0, false));
+        Assert.assertNull(MetricsAgent.parseMetric("-3", 0, false));
+    }
+
+    @Test
+    public void testMergeLinesOfSameDimensions() throws Exception {
+        Assert.assertTrue(agent.merge("d.api=Upload,d.service=Foo,m.NumOfRequests=1,m.Latency=10.0ms"));
+        Assert.assertTrue(agent.merge("d.api=Upload,d.service=Foo,m.NumOfRequests=2,m.Latency=20.0ms"));
+        Assert.assertTrue(agent.merge("d.service=Foo,m.NumOfRequests=5"));
+        agent.flush();
+        final List<MetricRecord> records = forwarded.getRecords();
+        Assert.assertEquals(2, records.size());
+        final Map<String, String> upload = find(records, "d.api=Upload,d.service=Foo").getMetrics();
+        Assert.assertEquals("3", upload.get("NumOfRequests"));
+        Assert.assertEquals("10.0+20.0ms", upload.get("Latency"));
+        Assert.assertEquals("5", find(records, "d.service=Foo").getMetrics().get("NumOfRequests"));
+        // merged metrics are forwarded once
+        forwarded.clear();
+        agent.flush();
+        Assert.assertTrue(forwarded.getRecords().isEmpty());
+    }
+
+    @Test
+    public void testRejectInvalidLines() throws Exception {
+        Assert.assertFalse(agent.merge("d.api=Upload"));
+        Assert.assertFalse(agent.merge("d.api=Upload,m.NumOfRequests"));
+        Assert.assertFalse(agent.merge("d.api=Upload,m.NumOfRequests=abc"));
+        // metrics before an invalid one are not merged either
+        Assert.assertFalse(agent.merge("d.api=Upload,m.NumOfRequests=1,m.Latency=1.0*2000000000ms"));
+        Assert.assertFalse(agent.merge("d.api=Upload,m.NumOfRequests=1,m.NumOfErrors"));
+        agent.flush();
+        Assert.assertTrue(forwarded.getRecords().isEmpty());
+        // a metric of another type under the same name is ignored
+        Assert.assertTrue(agent.merge("d.api=Upload,m.Size=1"));
+        Assert.assertTrue(agent.merge("d.api=Upload,m.Size=1.0b"));
+    }
+
+    @Test
+    public void testReceiveFromSeveralExporters() throws Exception {
+        final AgentExporter first = new AgentExporter(agent.getAddress());
+        final AgentExporter second = new AgentExporter(agent.getAddress());
+        first.export(Collections.singletonList(new MetricRecord("d.service=Foo", "m.NumOfRequests=1")));
+        second.export(Arrays.asList(new MetricRecord("d.service=Foo", "m.NumOfRequests=2"),
+                new MetricRecord("d.service=Bar", "m.NumOfRequests=3")));
+        int requests = 0;
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (requests < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            agent.flush();
+            requests = forwarded.getRecords().stream()
+                    .mapToInt(record -> Integer.parseInt(record.getMetrics().get("NumOfRequests"))).sum();
+        }
+        Assert.assertEquals(6, requests);
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testCloseOpenConnections() throws Exception {
+        try (Socket socket = new Socket(agent.getAddress().getAddress(), agent.getAddress().getPort())) {
+            socket.getOutputStream().write("d.service=Foo,m.NumOfRequests=1\n".getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            // the connection is being read once the line is merged
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (forwarded.getRecords().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                agent.flush();
+            }
+            Assert.assertEquals("d.service=Foo,m.NumOfRequests=1", forwarded.getRecords().get(0).toString());
+            socket.setSoTimeout(5000);
+            agent.close();
+            // the agent closed its end of the connection
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void testExporterReconnects() throws Exception {
+        final AgentExporter exporter = new AgentExporter(agent.getAddress());
+        exporter.export(Collections.singletonList(new MetricRecord("d.service=Foo", "m.NumOfRequests=1")));
+        exporter.close();
+        exporter.export(Collections.singletonList(new MetricRecord("d.service=Foo", "m.NumOfRequests=1")));
+        final long deadline = System.currentTimeMillis() + 5000;
+        int requests = 0;
+        while (requests < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            agent.flush();
+            requests = forwarded.getRecords().stream()
+                    .mapToInt(record -> Integer.parseInt(record.getMetrics().get("NumOfRequests"))).sum();
+        }
+        Assert.assertEquals(2, requests);
+        exporter.close();
+    }
+
+    private static MetricRecord find(final List<MetricRecord> records, final String dimensions) {
+        return records.stream().filter(record -> record.getDimensionsString().equals(dimensions)).findFirst()
+                .orElseThrow(AssertionError::new);
+    }
+}
@@ -28,11 +28,12 @@ import java.util.Map;
 
 public class MetricsCollectorTest {
 
+    private final MetricsConfig config = new MetricsConfig();
     private MetricsCollector metricsCollector;
 
     @Before
     public void setUp() {
-        this.metricsCollector = new MetricsCollector();
+        this.metricsCollector = new MetricsCollector(config);
     }
 
     @Test
@@ -101,7 +102,7 @@ public class MetricsCollectorTest {
         final TimerMetric timer = this.metricsCollector.startTimer("MyTimer");
         timer.close();
         this.metricsCollector.record("Recorder", 100, Unit.BYTE);
-        Assert.assertTrue(this.metricsCollector.flushToString().matches("m.MyTimer=\\d.\\dms,m.MyCounter=99,m.Recorder=100.0b"));
+        Assert.assertTrue(TestHelper.sortMetrics(this.metricsCollector.flushToString()).matches(TestHelper.sortMetrics("m.MyTimer=\\d.\\dms,m.MyCounter=99,m.Recorder=100.0b")));
         Assert.assertTrue("Some data are still left after being flushed", this.metricsCollector.flushToString().isEmpty());
     }
 
@@ -112,13 +113,13 @@ public class MetricsCollectorTest {
 
     @Test
     public void testMergeEmptyMetricsCollectorNothingChanges() {
-        assertMerge(new MetricsCollector(), "m.MyTimer=\\d.\\dms,m.MyCounter=99,m.Recorder=100.0b");
+        assertMerge(new MetricsCollector(config), "m.MyTimer=\\d.\\dms,m.MyCounter=99,m.Recorder=100.0b");
     }
 
     @Test(expected = RuntimeException.class)
     public void testMergeInvalidTimerThrowException() {
         this.metricsCollector.startTimer("MyTimer");
-        final MetricsCollector metricsCollector2 = new MetricsCollector();
+        final MetricsCollector metricsCollector2 = new MetricsCollector(config);
         metricsCollector2.incCounter("MyTimer", 1);
         this.metricsCollector.merge(metricsCollector2);
     }
@@ -126,22 +127,36 @@ public class MetricsCollectorTest {
     @Test(expected = RuntimeException.class)
     public void testMergeInvalidCounterThrowException() {
         this.metricsCollector.incCounter("MyCounter", 1);
-        final MetricsCollector metricsCollector2 = new MetricsCollector();
+        final MetricsCollector metricsCollector2 = new MetricsCollector(config);
         metricsCollector2.record("MyCounter", 1, Unit.SECOND);
         this.metricsCollector.merge(metricsCollector2);
     }
 
+    @Test
+    public void testFlushToLine() {
+        this.metricsCollector.incCounter("NumOfExceptions", 1);
+        this.metricsCollector.incCounter("Succeeded", 2);
+        final StringBuilder line = new StringBuilder("d.api=Upload,");
+        Assert.assertTrue(this.metricsCollector.flushTo(line));
+        Assert.assertEquals(TestHelper.sortMetrics("d.api=Upload,m.NumOfExceptions=1,m.Succeeded=2"),
+                TestHelper.sortMetrics(line.toString()));
+        line.setLength(0);
+        line.append("d.api=Upload,");
+        Assert.assertFalse(this.metricsCollector.flushTo(line));
+        Assert.assertEquals("d.api=Upload,", line.toString());
+    }
+
     @Test(expected = RuntimeException.class)
     public void testMergeInvalidRecorderThrowException() {
         this.metricsCollector.record("MyRecorder", 1, Unit.MILLI_SECOND);
-        final MetricsCollector metricsCollector2 = new MetricsCollector();
+        final MetricsCollector metricsCollector2 = new MetricsCollector(config);
         metricsCollector2.incCounter("MyRecorder", 1);
         this.metricsCollector.merge(metricsCollector2);
     }
 
     @Test
     public void testMergeMetricsCollector() {
-        final MetricsCollector metricsCollector2 = new MetricsCollector();
+        final MetricsCollector metricsCollector2 = new MetricsCollector(config);
         metricsCollector2.incCounter("MyCounter", 2);
         final TimerMetric timer = metricsCollector2.startTimer("MyTimer");
         metricsCollector2.stopTimer("MyTimer", timer.getStartTime());
@@ -159,7 +174,7 @@ public class MetricsCollectorTest {
         this.metricsCollector.stopTimer("MyTimer", timer.getStartTime());
         this.metricsCollector.record("Recorder", 100, Unit.BYTE);
         this.metricsCollector.merge(metricsCollector);
-        Assert.assertTrue(this.metricsCollector.flushToString().matches(expectedOutput));
+        Assert.assertTrue(TestHelper.sortMetrics(this.metricsCollector.flushToString()).matches(TestHelper.sortMetrics(expectedOutput)));
         Assert.assertTrue("Some data are still left after being flushed", this.metricsCollector.flushToString().isEmpty());
         Assert.assertTrue("Some data are still left after being flushed", metricsCollector.flushToString().isEmpty());
     }
@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class MetricsConfigTest {
+
+    @Test
+    public void testDisabledMetrics() {
+        final MetricsConfig config = new MetricsConfig();
+        Assert.assertTrue(config.isEnabled("CacheHits"));
+        config.setDisabledMetrics(" Cache, Debug,");
+        Assert.assertEquals("Cache,Debug", config.getDisabledMetrics());
+        Assert.assertFalse(config.isEnabled("CacheHits"));
+        Assert.assertFalse(config.isEnabled("Debug"));
+        Assert.assertTrue(config.isEnabled("NumOfRequests"));
+        config.setDisabledMetrics("");
+        Assert.assertTrue(config.isEnabled("CacheHits"));
+    }
+
+    @Test
+    public void testRecorderSampleRate() {
+        final MetricsConfig config = new MetricsConfig();
+        Assert.assertTrue(config.sampleRecorder());
+        config.setRecorderSampleRate(0.0);
+        Assert.assertFalse(config.sampleRecorder());
+        config.setRecorderSampleRate(0.5);
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (config.sampleRecorder()) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(5000, sampled, 500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectInvalidSampleRate() {
+        new MetricsConfig().setRecorderSampleRate(1.5);
+    }
+
+    @Test
+    public void testQueueBounds() {
+        final MetricsConfig config = new MetricsConfig();
+        final MetricsQueue queue = new MetricsQueue(10, 1000, MetricsQueue.OverflowPolicy.DROP_NEWEST, 0);
+        config.attach(queue, null);
+        config.setQueueMaxLines(20);
+        config.setQueueMaxBytes(2000);
+        Assert.assertEquals(20, queue.getMaxLines());
+        Assert.assertEquals(2000, queue.getMaxBytes());
+    }
+
+    @Test
+    public void testChangeFlushIntervalWithDefaultBounds() {
+        final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final MetricsConfig config = new MetricsConfig();
+            // bounds default to the interval
+            config.attach(null, new FlushScheduler(executorService, () -> { }, () -> 0,
+                    () -> CompletableFuture.completedFuture(null), System::currentTimeMillis,
+                    60000, 60000, 60000, 0, false, 0));
+            config.setFlushIntervalSeconds(5);
+            Assert.assertEquals(5, config.getFlushIntervalSeconds());
+            Assert.assertEquals(5, config.getFlushMinIntervalSeconds());
+            Assert.assertEquals(60, config.getFlushMaxIntervalSeconds());
+            config.setFlushIntervalSeconds(120);
+            Assert.assertEquals(120, config.getFlushIntervalSeconds());
+            Assert.assertEquals(5, config.getFlushMinIntervalSeconds());
+            Assert.assertEquals(120, config.getFlushMaxIntervalSeconds());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoFlushIntervalWhenFlushesAreManual() {
+        new MetricsConfig().setFlushIntervalSeconds(5);
+    }
+
+    @Test
+    public void testReadFlushIntervalWhenFlushesAreManual() {
+        final MetricsConfig config = new MetricsConfig();
+        Assert.assertEquals(0, config.getFlushIntervalSeconds());
+        Assert.assertEquals(0, config.getFlushMinIntervalSeconds());
+        Assert.assertEquals(0, config.getFlushMaxIntervalSeconds());
+    }
+}
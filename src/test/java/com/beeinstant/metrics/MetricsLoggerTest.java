@@ -46,7 +46,7 @@ public class MetricsLoggerTest {
     @Test
     public void testLogToRootDimensions() {
         collectTestMetrics(this.metricsLogger);
-        Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).matches("d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n"));
+        Assert.assertTrue(TestHelper.sortMetrics(flushMetricsLoggerToString(this.metricsLogger)).matches(TestHelper.sortMetrics("d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n")));
         Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).isEmpty());
     }
 
@@ -61,11 +61,11 @@ public class MetricsLoggerTest {
     public void testExtendDimensions() {
         final Metrics metrics = this.metricsLogger.extendDimensions("api=Upload, location=Hanoi");
         collectTestMetrics(metrics);
-        Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).matches("d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n"));
+        Assert.assertTrue(TestHelper.sortMetrics(flushMetricsLoggerToString(this.metricsLogger)).matches(TestHelper.sortMetrics("d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n")));
         Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).isEmpty());
         // can reuse metrics object after flush
         collectTestMetrics(metrics);
-        Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).matches("d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n"));
+        Assert.assertTrue(TestHelper.sortMetrics(flushMetricsLoggerToString(this.metricsLogger)).matches(TestHelper.sortMetrics("d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n")));
         Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).isEmpty());
     }
 
@@ -73,13 +73,13 @@ public class MetricsLoggerTest {
     public void testExtendMultipleDimensions() {
         final Metrics metrics = this.metricsLogger.extendMultipleDimensions("api=Upload, location=Hanoi", "api=Download", "api=Download", "");
         collectTestMetrics(metrics);
-        Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).matches("d.api=Download,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
-                "d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n"));
+        Assert.assertTrue(TestHelper.sortMetrics(flushMetricsLoggerToString(this.metricsLogger)).matches(TestHelper.sortMetrics("d.api=Download,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
+                "d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n")));
         Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).isEmpty());
         // can reuse metrics object after flush
         collectTestMetrics(metrics);
-        Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).matches("d.api=Download,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
-                "d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n"));
+        Assert.assertTrue(TestHelper.sortMetrics(flushMetricsLoggerToString(this.metricsLogger)).matches(TestHelper.sortMetrics("d.api=Download,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
+                "d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n")));
         Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).isEmpty());
     }
 
@@ -87,17 +87,17 @@ public class MetricsLoggerTest {
     public void testExtendMultipleDimensionsIncludeRoot() {
         final Metrics metrics = this.metricsLogger.extendMultipleDimensionsIncludeRoot("api=Upload, location=Hanoi", "api=Download");
         collectTestMetrics(metrics);
-        Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).matches(
+        Assert.assertTrue(TestHelper.sortMetrics(flushMetricsLoggerToString(this.metricsLogger)).matches(TestHelper.sortMetrics(
                 "d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
                 "d.api=Download,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
-                "d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n"));
+                "d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n")));
         Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).isEmpty());
         // can reuse metrics object after flush
         collectTestMetrics(metrics);
-        Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).matches(
+        Assert.assertTrue(TestHelper.sortMetrics(flushMetricsLoggerToString(this.metricsLogger)).matches(TestHelper.sortMetrics(
                 "d.api=Upload,d.location=Hanoi,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
                 "d.api=Download,d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n" +
-                "d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n"));
+                "d.service=ImageSharing,m.NumOfUploadedImages=1000,m.ImageSize=100.0\\+200.0kb,m.Latency=\\d+.\\dms\n")));
         Assert.assertTrue(flushMetricsLoggerToString(this.metricsLogger).isEmpty());
     }
 
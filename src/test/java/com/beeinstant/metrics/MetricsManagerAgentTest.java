@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MetricsManagerAgentTest {
+
+    private static final InMemoryExporter forwarded = new InMemoryExporter();
+    private static final MetricsAgent agent;
+
+    static {
+        try {
+            agent = new MetricsAgent(0, forwarded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // flushed by tests
+        agent.start(3600000);
+        // stop scheduled flush
+        System.setProperty("beeinstant.flush.manual", "true");
+        System.setProperty("beeinstant.endpoint", "agent://127.0.0.1:" + agent.getAddress().getPort());
+        MetricsManager.init("ImageSharing", "Test", "test.beeinstant.com");
+    }
+
+    @AfterClass
+    public static void stopAgent() {
+        MetricsManager.shutdown();
+        agent.close();
+    }
+
+    @Test
+    public void testFlushThroughAgent() throws Exception {
+        MetricsManager.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+        MetricsManager.getRootMetricsLogger().incCounter("NumOfRequests", 2);
+        MetricsManager.flushAll(9999);
+        MetricsManager.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 3);
+        MetricsManager.flushAll(9999);
+        final Map<String, Integer> expected = new HashMap<>();
+        expected.put("d.api=Upload,d.env=Test,d.service=ImageSharing", 4);
+        expected.put("d.env=Test,d.service=ImageSharing", 2);
+        Assert.assertEquals(expected, awaitForwardedRequests(expected));
+    }
+
+    private static Map<String, Integer> awaitForwardedRequests(final Map<String, Integer> expected) throws Exception {
+        final Map<String, Integer> requests = new HashMap<>();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!requests.equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            agent.flush();
+            requests.clear();
+            forwarded.getRecords().forEach(record -> requests.merge(record.getDimensionsString(),
+                    Integer.parseInt(record.getMetrics().get("NumOfRequests")), Integer::sum));
+        }
+        return requests;
+    }
+}
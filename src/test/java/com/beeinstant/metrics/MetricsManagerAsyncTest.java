@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import com.github.kristofa.test.http.MockHttpServer;
+import com.github.kristofa.test.http.SimpleHttpResponseProvider;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.kristofa.test.http.Method.POST;
+
+public class MetricsManagerAsyncTest {
+
+    private static final int BEEINSTANT_PORT = 8989;
+    private static MockHttpServer server;
+    private static SimpleHttpResponseProvider responseProvider;
+
+    static {
+        // stop scheduled flush
+        System.setProperty("beeinstant.flush.manual", "true");
+        System.setProperty("beeinstant.endpoint", "http://localhost:" + BEEINSTANT_PORT);
+        System.setProperty("beeinstant.publicKey", "PublicKey");
+        System.setProperty("beeinstant.secretKey", "SecretKey");
+        System.setProperty("beeinstant.http.async", "true");
+        System.setProperty("beeinstant.http.maxInFlight", "2");
+        MetricsManager.init("ImageSharing", "Test", "test.beeinstant.com");
+    }
+
+    @BeforeClass
+    public static void startMockBeeInstantServer() throws IOException {
+        responseProvider = new SimpleHttpResponseProvider();
+        server = new MockHttpServer(BEEINSTANT_PORT, responseProvider);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopMockBeeInstantServer() throws IOException {
+        server.stop();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        responseProvider.reset();
+    }
+
+    @Test
+    public void testFlushAllAsync() throws Exception {
+        expectPutMetric("d.api=Upload,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n" +
+                "d.env=Test,d.service=ImageSharing,m.NumOfRequests=2\n");
+        MetricsManager.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+        MetricsManager.getRootMetricsLogger().incCounter("NumOfRequests", 2);
+        MetricsManager.flushAllAsync(9999).get(10, TimeUnit.SECONDS);
+        responseProvider.verify();
+    }
+
+    @Test
+    public void testFlushMetricsLoggerAsync() throws Exception {
+        expectPutMetric("d.api=Download,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n");
+        final MetricsLogger metricsLogger = MetricsManager.getMetricsLogger("api=Download");
+        metricsLogger.incCounter("NumOfRequests", 1);
+        metricsLogger.flushAsync(9999).get(10, TimeUnit.SECONDS);
+        responseProvider.verify();
+    }
+
+    @Test
+    public void testFlushAll() throws Exception {
+        expectPutMetric("d.api=Delete,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n");
+        MetricsManager.getMetricsLogger("api=Delete").incCounter("NumOfRequests", 1);
+        MetricsManager.flushAll(9999);
+        responseProvider.verify();
+    }
+
+    private static void expectPutMetric(final String body) throws Exception {
+        final String signature = URLEncoder.encode(new String(Signature.sign(body.getBytes(), "SecretKey")), "UTF-8");
+        responseProvider.expect(POST, "/PutMetric?signature=" + signature + "&publicKey=PublicKey&timestamp=9999",
+                "text/plain", body).respondWith(200, "application/json", "");
+    }
+}
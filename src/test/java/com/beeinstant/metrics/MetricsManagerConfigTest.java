@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MetricsManagerConfigTest {
+
+    private static final InMemoryExporter exporter = new InMemoryExporter();
+    private static final UdpReceiver receiver = TestHelper.initWithUdpReceiver(
+            // scheduled flushes, the first one comes when a test shortens the interval
+            "beeinstant.flush.manual", "false",
+            "beeinstant.flush.interval", "3600",
+            "beeinstant.flush.startDelay", "3600",
+            "beeinstant.metrics.disabled", "Debug");
+
+    static {
+        MetricsManager.addExporter(exporter);
+    }
+
+    @AfterClass
+    public static void cleanUp() {
+        TestHelper.shutdown(receiver);
+    }
+
+    @Test
+    public void testChangeSettingsAtRuntime() throws Exception {
+        final MetricsConfigMBean config = MetricsManager.getConfig();
+        Assert.assertEquals("Debug", config.getDisabledMetrics());
+        Assert.assertEquals(3600, config.getFlushIntervalSeconds());
+
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName("com.beeinstant.metrics:type=Config");
+        mBeanServer.setAttribute(objectName, new Attribute("DisabledMetrics", "Cache"));
+        mBeanServer.setAttribute(objectName, new Attribute("RecorderSampleRate", 0.0));
+
+        final MetricsLogger metricsLogger = MetricsManager.getMetricsLogger("api=Upload");
+        metricsLogger.incCounter("CacheHits", 1);
+        metricsLogger.incCounter("Debug", 1);
+        metricsLogger.incCounter("NumOfRequests", 1);
+        metricsLogger.record("Latency", 10, Unit.MILLI_SECOND);
+        // the next scheduled flush comes within a second, the minimum interval follows
+        config.setFlushIntervalSeconds(1);
+        Assert.assertEquals(1, config.getFlushIntervalSeconds());
+        Assert.assertEquals(1, config.getFlushMinIntervalSeconds());
+        final List<MetricRecord> records = exporter.awaitRecords(1, 5000);
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("Debug", "1");
+        expected.put("NumOfRequests", "1");
+        Assert.assertEquals("d.api=Upload,d.env=Test,d.service=ImageSharing", records.get(0).getDimensionsString());
+        Assert.assertEquals(expected, records.get(0).getMetrics());
+        config.setRecorderSampleRate(1.0);
+    }
+}
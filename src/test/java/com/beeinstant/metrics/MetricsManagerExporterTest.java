@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import com.github.kristofa.test.http.MockHttpServer;
+import com.github.kristofa.test.http.SimpleHttpResponseProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.net.URLEncoder;
+
+import static com.github.kristofa.test.http.Method.POST;
+
+public class MetricsManagerExporterTest {
+
+    private static final int BEEINSTANT_PORT = 8989;
+    private static MockHttpServer server;
+    private static SimpleHttpResponseProvider responseProvider;
+    private static final InMemoryExporter exporter = new InMemoryExporter();
+    private static final File EXPORT_FILE = new File(System.getProperty("java.io.tmpdir"),
+            "beeinstant-export-" + System.nanoTime() + ".log");
+
+    static {
+        // stop scheduled flush
+        System.setProperty("beeinstant.flush.manual", "true");
+        System.setProperty("beeinstant.endpoint", "http://localhost:" + BEEINSTANT_PORT);
+        System.setProperty("beeinstant.publicKey", "PublicKey");
+        System.setProperty("beeinstant.secretKey", "SecretKey");
+        System.setProperty("beeinstant.export.file", EXPORT_FILE.getPath());
+        MetricsManager.init("ImageSharing", "Test", "test.beeinstant.com");
+        MetricsManager.addExporter(exporter);
+    }
+
+    @BeforeClass
+    public static void startMockBeeInstantServer() throws IOException {
+        responseProvider = new SimpleHttpResponseProvider();
+        server = new MockHttpServer(BEEINSTANT_PORT, responseProvider);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopMockBeeInstantServer() throws IOException {
+        server.stop();
+        EXPORT_FILE.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        responseProvider.reset();
+        exporter.clear();
+    }
+
+    @Test
+    public void testExportFlushedMetrics() throws Exception {
+        final String body = "d.api=Upload,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n";
+        expectPutMetric(body);
+        MetricsManager.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+        MetricsManager.flushAll(9999);
+        responseProvider.verify();
+        Assert.assertEquals(body, toString(exporter.awaitRecords(1, 5000)));
+        final MetricRecord record = exporter.getRecords().get(0);
+        Assert.assertEquals("Upload", record.getDimensions().get("api"));
+        Assert.assertEquals("1", record.getMetrics().get("NumOfRequests"));
+        // the file exporter runs on its own thread, the file is shared by all tests
+        final String line = body.trim();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.readAllLines(EXPORT_FILE.toPath(), StandardCharsets.ISO_8859_1).contains(line)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(Files.readAllLines(EXPORT_FILE.toPath(), StandardCharsets.ISO_8859_1).contains(line));
+    }
+
+    @Test
+    public void testExportMetricsLogger() throws Exception {
+        expectPutMetric("d.api=Download,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n");
+        MetricsManager.getMetricsLogger("api=Download").incCounter("NumOfRequests", 1);
+        MetricsManager.getMetricsLogger("api=Download").flush(9999);
+        responseProvider.verify();
+        Assert.assertEquals("d.api=Download,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n",
+                toString(exporter.awaitRecords(1, 5000)));
+    }
+
+    private static String toString(final List<MetricRecord> records) {
+        final StringBuilder builder = new StringBuilder();
+        records.forEach(record -> builder.append(record).append("\n"));
+        return builder.toString();
+    }
+
+    private static void expectPutMetric(final String body) throws Exception {
+        final String signature = URLEncoder.encode(new String(Signature.sign(body.getBytes(), "SecretKey")), "UTF-8");
+        responseProvider.expect(POST, "/PutMetric?signature=" + signature + "&publicKey=PublicKey&timestamp=9999",
+                "text/plain", body).respondWith(200, "application/json", "");
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MetricsManagerOffHeapTest {
+
+    private static final InMemoryExporter exporter = new InMemoryExporter();
+    private static final UdpReceiver receiver = TestHelper.initWithUdpReceiver(
+            // 2 slabs of 2 samples
+            "beeinstant.recorder.offHeap.maxBytes", "32",
+            "beeinstant.recorder.offHeap.slabBytes", "16");
+
+    static {
+        MetricsManager.addExporter(exporter);
+    }
+
+    @AfterClass
+    public static void cleanUp() {
+        TestHelper.shutdown(receiver);
+    }
+
+    @Test
+    public void testKeepSamplesOffHeap() throws Exception {
+        final MetricsLogger metricsLogger = MetricsManager.getMetricsLogger("api=Upload");
+        for (int i = 1; i <= 5; i++) {
+            metricsLogger.record("Size", i, Unit.BYTE);
+        }
+        MetricsManager.flushAll(9999);
+        final Map<String, Map<String, String>> metrics = new HashMap<>();
+        exporter.awaitRecords(2, 5000).forEach(record -> metrics.put(record.getDimensionsString(), record.getMetrics()));
+        Assert.assertEquals("1.0+2.0+3.0+4.0b", metrics.get("d.api=Upload,d.env=Test,d.service=ImageSharing").get("Size"));
+        Assert.assertEquals("1", metrics.get("d.env=Test,d.service=ImageSharing").get("DroppedRecorderSamples"));
+        // slabs are reused by the next interval
+        exporter.clear();
+        metricsLogger.record("Size", 6, Unit.BYTE);
+        MetricsManager.flushAll(9999);
+        Assert.assertEquals("6.0b", exporter.awaitRecords(1, 5000).get(0).getMetrics().get("Size"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import com.github.kristofa.test.http.MockHttpServer;
+import com.github.kristofa.test.http.SimpleHttpResponseProvider;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+
+import static com.github.kristofa.test.http.Method.POST;
+
+public class MetricsManagerParallelFlushTest {
+
+    private static final int BEEINSTANT_PORT = 8989;
+    private static MockHttpServer server;
+    private static SimpleHttpResponseProvider responseProvider;
+
+    static {
+        // stop scheduled flush
+        System.setProperty("beeinstant.flush.manual", "true");
+        System.setProperty("beeinstant.endpoint", "http://localhost:" + BEEINSTANT_PORT);
+        System.setProperty("beeinstant.publicKey", "PublicKey");
+        System.setProperty("beeinstant.secretKey", "SecretKey");
+        // room for one metric line per payload, so payloads don't depend on the order of loggers
+        System.setProperty("beeinstant.flush.maxPayloadBytes", "100");
+        System.setProperty("beeinstant.flush.parallelism", "4");
+        MetricsManager.init("ImageSharing", "Test", "test.beeinstant.com");
+    }
+
+    @BeforeClass
+    public static void startMockBeeInstantServer() throws IOException {
+        responseProvider = new SimpleHttpResponseProvider();
+        server = new MockHttpServer(BEEINSTANT_PORT, responseProvider);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopMockBeeInstantServer() throws IOException {
+        server.stop();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        responseProvider.reset();
+    }
+
+    @Test
+    public void testFlushLoggersInParallel() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            expectPutMetric("d.api=Api" + i + ",d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n");
+            MetricsManager.getMetricsLogger("api=Api" + i).incCounter("NumOfRequests", 1);
+        }
+        // the root logger is flushed once
+        expectPutMetric("d.env=Test,d.service=ImageSharing,m.NumOfRequests=3\n");
+        MetricsManager.getRootMetricsLogger().incCounter("NumOfRequests", 3);
+        MetricsManager.flushAll(9999);
+        responseProvider.verify();
+    }
+
+    @Test
+    public void testFlushSingleLogger() throws Exception {
+        expectPutMetric("d.api=Single,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n");
+        MetricsManager.getMetricsLogger("api=Single").incCounter("NumOfRequests", 1);
+        MetricsManager.flushAll(9999);
+        responseProvider.verify();
+    }
+
+    private static void expectPutMetric(final String body) throws Exception {
+        final String signature = URLEncoder.encode(new String(Signature.sign(body.getBytes(), "SecretKey")), "UTF-8");
+        responseProvider.expect(POST, "/PutMetric?signature=" + signature + "&publicKey=PublicKey&timestamp=9999",
+                "text/plain", body).respondWith(200, "application/json", "");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class MetricsManagerQuantizedTest {
+
+    private static final InMemoryExporter exporter = new InMemoryExporter();
+    private static final InMemoryExporter decodingExporter = new InMemoryExporter() {
+        @Override
+        public boolean decodesCollapsedValues() {
+            return true;
+        }
+    };
+    private static final UdpReceiver receiver = TestHelper.initWithUdpReceiver(
+            "beeinstant.recorder.precision", "0.5",
+            "beeinstant.recorder.collapseDuplicates", "true");
+
+    static {
+        MetricsManager.addExporter(exporter);
+        MetricsManager.addExporter(decodingExporter);
+    }
+
+    @AfterClass
+    public static void cleanUp() {
+        TestHelper.shutdown(receiver);
+    }
+
+    @Test
+    public void testCollapseQuantizedValues() throws Exception {
+        final MetricsLogger metricsLogger = MetricsManager.getMetricsLogger("api=Upload");
+        for (int i = 0; i < 100; i++) {
+            metricsLogger.record("Latency", i % 2 == 0 ? 2.9 : 3.1, Unit.MILLI_SECOND);
+        }
+        metricsLogger.record("Latency", 10.3, Unit.MILLI_SECOND);
+        metricsLogger.record("Size", 2048, Unit.BYTE);
+        MetricsManager.flushAll(9999);
+        final Map<String, String> metrics = decodingExporter.awaitRecords(1, 5000).get(0).getMetrics();
+        Assert.assertEquals("3.0*100+10.5ms", metrics.get("Latency"));
+        Assert.assertEquals("2048.0b", metrics.get("Size"));
+        Assert.assertEquals("3.0*100+10.5ms", MetricsAgent.parseMetric("3.0*100+10.5ms", 0.5, true).flushToString());
+        // exporters which don't decode "value*n" get every value
+        final String expanded = String.join("+", Collections.nCopies(100, "3.0")) + "+10.5ms";
+        Assert.assertEquals(expanded, exporter.awaitRecords(1, 5000).get(0).getMetrics().get("Latency"));
+        final List<String> lines = receiver.receiveLines(2, 5000);
+        Assert.assertTrue(lines.toString(), lines.stream().anyMatch(line -> line.contains("m.Latency=" + expanded)));
+    }
+}
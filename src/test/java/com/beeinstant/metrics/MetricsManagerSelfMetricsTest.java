@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+public class MetricsManagerSelfMetricsTest {
+
+    private static final InMemoryExporter exporter = new InMemoryExporter();
+    private static final UdpReceiver receiver = TestHelper.initWithUdpReceiver(
+            "beeinstant.selfMetrics.emit", "true");
+
+    static {
+        MetricsManager.addExporter(exporter);
+    }
+
+    @AfterClass
+    public static void cleanUp() {
+        TestHelper.shutdown(receiver);
+    }
+
+    @Test
+    public void testEmitSelfMetricsWithRootLogger() throws Exception {
+        MetricsManager.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+        MetricsManager.flushAll(9999);
+        MetricsManager.flushAll(9999);
+        final List<MetricRecord> records = exporter.awaitRecords(3, 5000);
+        final MetricRecord root = records.get(records.size() - 1);
+        Assert.assertEquals("d.env=Test,d.service=ImageSharing", root.getDimensionsString());
+        Assert.assertEquals("1", root.getMetrics().get("beeinstant.Collects"));
+        // lines are sent over UDP, not queued for upload
+        Assert.assertEquals("0.0", root.getMetrics().get("beeinstant.QueueLines"));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class MetricsManagerSharedMemoryTest {
+
+    private static final File SHARED_MEMORY_FILE = new File(System.getProperty("java.io.tmpdir"),
+            "beeinstant-shm-" + System.nanoTime());
+    private static final InMemoryExporter exporter = new InMemoryExporter();
+    private static final UdpReceiver receiver = TestHelper.initWithUdpReceiver(
+            "beeinstant.sharedMemory.file", SHARED_MEMORY_FILE.getPath(),
+            "beeinstant.sharedMemory.slots", "128");
+
+    static {
+        MetricsManager.addExporter(exporter);
+    }
+
+    @AfterClass
+    public static void cleanUp() {
+        TestHelper.shutdown(receiver);
+        SHARED_MEMORY_FILE.delete();
+    }
+
+    @Test
+    public void testFlushMetricsOfOtherProcesses() throws Exception {
+        // another process of the host
+        final SharedMemoryStore otherProcess = new SharedMemoryStore(SHARED_MEMORY_FILE, 128, 1024);
+        otherProcess.incCounter("d.api=Upload,d.env=Test,d.service=ImageSharing", "NumOfRequests", 2);
+        otherProcess.close();
+        final Metrics metrics = MetricsManager.getSharedMetrics("api=Upload");
+        metrics.incCounter("NumOfRequests", 1);
+        metrics.record("Size", 100, Unit.BYTE);
+        MetricsManager.flushAll(9999);
+        Assert.assertEquals("d.api=Upload,d.env=Test,d.service=ImageSharing,m.NumOfRequests=3,m.Size=98.7b",
+                exporter.awaitRecords(1, 5000).get(0).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDimensions() {
+        MetricsManager.getSharedMetrics("");
+    }
+}
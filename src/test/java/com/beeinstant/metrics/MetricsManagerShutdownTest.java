@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MetricsManagerShutdownTest {
+
+    // nothing listens on this port
+    private static final int BEEINSTANT_PORT = 8994;
+    private static final Path spoolDir;
+    private static final InMemoryExporter exporter = new InMemoryExporter();
+
+    static {
+        try {
+            spoolDir = Files.createTempDirectory("beeinstant-spool");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // stop scheduled flush
+        System.setProperty("beeinstant.flush.manual", "true");
+        System.setProperty("beeinstant.endpoint", "http://localhost:" + BEEINSTANT_PORT);
+        System.setProperty("beeinstant.publicKey", "PublicKey");
+        System.setProperty("beeinstant.secretKey", "SecretKey");
+        System.setProperty("beeinstant.spool.dir", spoolDir.toString());
+        // failed uploads wait for a retry when shutting down
+        System.setProperty("beeinstant.retry.baseDelayMillis", "60000");
+        System.setProperty("beeinstant.retry.maxDelayMillis", "60000");
+        System.setProperty("beeinstant.shutdown.hook", "true");
+        MetricsManager.init("ImageSharing", "Test", "test.beeinstant.com");
+        MetricsManager.addExporter(exporter);
+    }
+
+    @Test
+    public void testFinalFlushAndSpoolOnShutdown() throws Exception {
+        MetricsManager.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+        final long start = System.currentTimeMillis();
+        MetricsManager.shutdown(5000);
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertTrue(MetricsManager.getMetricsLogger("api=Upload") instanceof DummyLogger);
+        Assert.assertEquals("d.api=Upload,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1",
+                exporter.getRecords().get(0).toString());
+
+        final DiskSpool spool = new DiskSpool(spoolDir.toFile(), 8388608, 268435456);
+        Assert.assertEquals("d.api=Upload,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n", spool.read(1048576));
+        spool.close();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import com.github.kristofa.test.http.MockHttpServer;
+import com.github.kristofa.test.http.SimpleHttpResponseProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.github.kristofa.test.http.Method.POST;
+
+public class MetricsManagerSpoolTest {
+
+    private static final int BEEINSTANT_PORT = 8989;
+    private static final Path spoolDir;
+
+    static {
+        try {
+            spoolDir = Files.createTempDirectory("beeinstant-spool");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // stop scheduled flush
+        System.setProperty("beeinstant.flush.manual", "true");
+        System.setProperty("beeinstant.endpoint", "http://localhost:" + BEEINSTANT_PORT);
+        System.setProperty("beeinstant.publicKey", "PublicKey");
+        System.setProperty("beeinstant.secretKey", "SecretKey");
+        System.setProperty("beeinstant.spool.dir", spoolDir.toString());
+        // spool failed uploads right away
+        System.setProperty("beeinstant.retry.maxAttempts", "0");
+        MetricsManager.init("ImageSharing", "Test", "test.beeinstant.com");
+    }
+
+    @Test
+    public void testSpoolWhenServerIsDownAndReplayWhenItIsBack() throws Exception {
+        // server is down, metrics are spooled
+        MetricsManager.getRootMetricsLogger().incCounter("NumOfRequests", 1);
+        MetricsManager.flushAll(9999);
+        Assert.assertEquals(1, Files.list(spoolDir).count());
+
+        final String body = "d.env=Test,d.service=ImageSharing,m.NumOfRequests=1\n";
+        final String signature = URLEncoder.encode(new String(Signature.sign(body.getBytes(), "SecretKey")), "UTF-8");
+        final SimpleHttpResponseProvider responseProvider = new SimpleHttpResponseProvider();
+        responseProvider.expect(POST, "/PutMetric?signature=" + signature + "&publicKey=PublicKey&timestamp=9999",
+                "text/plain", body).respondWith(200, "application/json", "");
+        final MockHttpServer server = new MockHttpServer(BEEINSTANT_PORT, responseProvider);
+        server.start();
+        try {
+            // nothing new to flush, spooled metrics are replayed
+            MetricsManager.flushAll(9999);
+            responseProvider.verify();
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -43,6 +43,8 @@ public class MetricsManagerTest {
         System.setProperty("beeinstant.endpoint", "http://localhost:" + BEEINSTANT_PORT);
         System.setProperty("beeinstant.publicKey", "PublicKey");
         System.setProperty("beeinstant.secretKey", "SecretKey");
+        // the mock server fails unexpected requests, don't retry them into the next test
+        System.setProperty("beeinstant.retry.maxAttempts", "0");
         MetricsManager.init(TEST_SERVICE_NAME, TEST_ENV, TEST_HOST_NAME);
     }
 
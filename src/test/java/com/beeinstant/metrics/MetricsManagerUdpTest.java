@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class MetricsManagerUdpTest {
+
+    private static final UdpReceiver receiver = TestHelper.initWithUdpReceiver();
+
+    @AfterClass
+    public static void stopReceiver() {
+        TestHelper.shutdown(receiver);
+    }
+
+    @Test
+    public void testFlushOverUdp() throws Exception {
+        MetricsManager.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+        MetricsManager.getRootMetricsLogger().incCounter("NumOfRequests", 2);
+        MetricsManager.flushAll(9999);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                "d.api=Upload,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1",
+                "d.env=Test,d.service=ImageSharing,m.NumOfRequests=2")),
+                new HashSet<>(receiver.receiveLines(2, 5000)));
+    }
+
+    @Test
+    public void testFlushMetricsLoggerOverUdp() throws Exception {
+        MetricsManager.getMetricsLogger("api=Download").incCounter("NumOfRequests", 1);
+        MetricsManager.getMetricsLogger("api=Download").flush(9999);
+        Assert.assertEquals(Collections.singletonList("d.api=Download,d.env=Test,d.service=ImageSharing,m.NumOfRequests=1"),
+                receiver.receiveLines(1, 5000));
+    }
+}
@@ -60,6 +60,21 @@ public class MetricsManagerUninitializedTest {
         }
     }
 
+    @Test
+    public void testGetConfig() {
+        final MetricsConfigMBean config = MetricsManager.getConfig();
+        Assert.assertEquals(0, config.getFlushIntervalSeconds());
+        Assert.assertEquals(0, config.getQueueMaxLines());
+        Assert.assertEquals(0, config.getQueueMaxBytes());
+        Assert.assertEquals("", config.getDisabledMetrics());
+        try {
+            config.setQueueMaxLines(10);
+            fail("Not expecting a change before init");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testGetHostInfo() {
         Assert.assertEquals("", MetricsManager.getHostInfo());
@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.beeinstant.metrics.MetricsQueue.OverflowPolicy.*;
+
+public class MetricsQueueTest {
+
+    @Test
+    public void testQueueAndPollInOrder() {
+        final MetricsQueue queue = new MetricsQueue(10, 1000, DROP_NEWEST, 0);
+        Assert.assertTrue(queue.add("line1"));
+        Assert.assertTrue(queue.add("line2"));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(12, queue.bytes());
+        Assert.assertEquals("line1", queue.poll());
+        queue.addFirst("line1");
+        Assert.assertEquals("line1", queue.poll());
+        Assert.assertEquals("line2", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.bytes());
+    }
+
+    @Test
+    public void testDropNewestWhenLinesLimitReached() {
+        final MetricsQueue queue = new MetricsQueue(2, 1000, DROP_NEWEST, 0);
+        queue.add("line1");
+        queue.add("line2");
+        Assert.assertFalse(queue.add("line3"));
+        Assert.assertEquals("line1", queue.poll());
+        Assert.assertEquals("line2", queue.poll());
+        Assert.assertEquals(1, queue.takeDroppedLines());
+        Assert.assertEquals(0, queue.takeDroppedLines());
+    }
+
+    @Test
+    public void testChangeBounds() {
+        final MetricsQueue queue = new MetricsQueue(1, 1000, DROP_NEWEST, 0);
+        queue.add("line1");
+        Assert.assertFalse(queue.add("line2"));
+        queue.setBounds(2, 1000);
+        Assert.assertTrue(queue.add("line2"));
+        Assert.assertEquals(2, queue.getMaxLines());
+        Assert.assertEquals(1000, queue.getMaxBytes());
+    }
+
+    @Test
+    public void testDropOldestWhenBytesLimitReached() {
+        final MetricsQueue queue = new MetricsQueue(10, 12, DROP_OLDEST, 0);
+        queue.add("line1");
+        queue.add("line2");
+        Assert.assertTrue(queue.add("line3"));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals("line2", queue.poll());
+        Assert.assertEquals("line3", queue.poll());
+        Assert.assertEquals(1, queue.takeDroppedLines());
+    }
+
+    @Test
+    public void testDropLineBiggerThanQueue() {
+        final MetricsQueue queue = new MetricsQueue(10, 12, DROP_OLDEST, 0);
+        queue.add("line1");
+        Assert.assertFalse(queue.add("a-line-bigger-than-the-queue"));
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(2, queue.takeDroppedLines());
+    }
+
+    @Test
+    public void testBlockUntilTimeout() {
+        final MetricsQueue queue = new MetricsQueue(1, 1000, BLOCK, 50);
+        queue.add("line1");
+        final long start = System.nanoTime();
+        Assert.assertFalse(queue.add("line2"));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(1, queue.takeDroppedLines());
+    }
+
+    @Test
+    public void testBlockUntilRoomIsMade() throws InterruptedException {
+        final MetricsQueue queue = new MetricsQueue(1, 1000, BLOCK, 10000);
+        queue.add("line1");
+        final Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.poll();
+        });
+        consumer.start();
+        Assert.assertTrue(queue.add("line2"));
+        consumer.join();
+        Assert.assertEquals("line2", queue.poll());
+        Assert.assertEquals(0, queue.takeDroppedLines());
+    }
+
+    @Test
+    public void testBlockDropsWhenCallerMustNotWait() {
+        final MetricsQueue queue = new MetricsQueue(1, 1000, BLOCK, 10000);
+        queue.add("line1");
+        final long start = System.nanoTime();
+        Assert.assertFalse(queue.add("line2", false));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(1, queue.takeDroppedLines());
+        Assert.assertEquals("line1", queue.poll());
+    }
+
+    @Test
+    public void testSpillOverflowLines() {
+        final List<String> spilled = new ArrayList<>();
+        final MetricsQueue queue = new MetricsQueue(1, 1000, SPILL, 0);
+        queue.add("line1");
+        // no spill handler, the line is dropped
+        Assert.assertFalse(queue.add("line2"));
+        Assert.assertEquals(1, queue.takeDroppedLines());
+        queue.setSpillHandler(spilled::add);
+        Assert.assertFalse(queue.add("line3"));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(1, spilled.size());
+        Assert.assertEquals("line3", spilled.get(0));
+        Assert.assertEquals(0, queue.takeDroppedLines());
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsRegistryTest {
+
+    private final InMemoryExporter exporterA = new InMemoryExporter();
+    private final InMemoryExporter exporterB = new InMemoryExporter();
+    private final MetricsRegistry registryA = newRegistry("TenantA", "a");
+    private final MetricsRegistry registryB = newRegistry("TenantB", "b");
+
+    {
+        registryA.addExporter(exporterA);
+        registryB.addExporter(exporterB);
+    }
+
+    @After
+    public void tearDown() {
+        registryA.shutdown();
+        registryB.shutdown();
+    }
+
+    @Test
+    public void testRegistriesFlushTheirOwnLoggers() throws Exception {
+        registryA.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+        registryB.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 2);
+        registryA.flushAll(9999);
+        Assert.assertEquals("d.api=Upload,d.env=Test,d.service=TenantA,m.NumOfRequests=1",
+                exporterA.awaitRecords(1, 5000).get(0).toString());
+        Assert.assertTrue(exporterB.getRecords().isEmpty());
+        registryB.getMetricsLogger("api=Upload").flush(9999);
+        Assert.assertEquals("d.api=Upload,d.env=Test,d.service=TenantB,m.NumOfRequests=2",
+                exporterB.awaitRecords(1, 5000).get(0).toString());
+        Assert.assertEquals(1, exporterA.getRecords().size());
+    }
+
+    @Test
+    public void testRegistriesHaveTheirOwnSettings() throws Exception {
+        registryA.getConfig().setDisabledMetrics("Debug");
+        registryA.getMetricsLogger("api=Upload").incCounter("Debug", 1);
+        registryB.getMetricsLogger("api=Upload").incCounter("Debug", 1);
+        registryA.flushAll(9999);
+        registryB.flushAll(9999);
+        Assert.assertEquals(Collections.singletonMap("Debug", "1"), exporterB.awaitRecords(1, 5000).get(0).getMetrics());
+        Assert.assertTrue(exporterA.getRecords().isEmpty());
+        Assert.assertEquals("", registryB.getConfig().getDisabledMetrics());
+    }
+
+    @Test
+    public void testErrorsAreCountedByTheirRegistry() throws Exception {
+        registryA.getMetricsLogger("api=Upload").incCounter("Invalid Name", 1);
+        registryA.getMetricsLogger("api=Upload").extendDimensions("api=Invalid Value").incCounter("NumOfRequests", 1);
+        registryA.flushAll(9999);
+        registryB.flushAll(9999);
+        Assert.assertEquals("d.env=Test,d.service=TenantA,m.MetricErrors=2", exporterA.awaitRecords(1, 5000).get(0).toString());
+        Assert.assertTrue(exporterB.getRecords().isEmpty());
+    }
+
+    @Test
+    public void testFlushDoesNotBlockOnFullQueue() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("beeinstant.flush.manual", "true");
+        properties.setProperty("beeinstant.endpoint", "http://127.0.0.1:1");
+        properties.setProperty("beeinstant.queue.maxLines", "1");
+        properties.setProperty("beeinstant.queue.overflowPolicy", "BLOCK");
+        properties.setProperty("beeinstant.queue.blockTimeoutMillis", "10000");
+        final MetricsRegistry registry = new MetricsRegistry("TenantC", "Test", "test.beeinstant.com", properties);
+        try {
+            for (int i = 0; i < 5; i++) {
+                registry.getMetricsLogger("api=Upload" + i).incCounter("NumOfRequests", 1);
+            }
+            final long start = System.nanoTime();
+            registry.flushAll(9999);
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxNamesPerRegistry() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("beeinstant.flush.manual", "true");
+        properties.setProperty("beeinstant.metrics.maxNames", "1");
+        final MetricsRegistry registry = new MetricsRegistry("TenantC", "Test", "test.beeinstant.com", properties);
+        try {
+            final InMemoryExporter exporter = new InMemoryExporter();
+            registry.addExporter(exporter);
+            registry.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+            registry.getMetricsLogger("api=Upload").incCounter("NumOfErrors", 2);
+            Assert.assertEquals(MetricNames.NO_ID, registry.getMetricsConfig().getMetricNames().idOf("Latency"));
+            registry.flushAll(9999);
+            Assert.assertEquals(TestHelper.sortMetrics("d.api=Upload,d.env=Test,d.service=TenantC,m.NumOfRequests=1,m.NumOfErrors=2"),
+                    TestHelper.sortMetrics(exporter.awaitRecords(1, 5000).get(0).toString()));
+            // other registries keep the default
+            Assert.assertTrue(registryA.getMetricsConfig().getMetricNames().idOf("Latency") >= 0);
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    public void testOffHeapSamplesPerRegistry() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("beeinstant.flush.manual", "true");
+        properties.setProperty("beeinstant.recorder.offHeap.maxBytes", "16");
+        properties.setProperty("beeinstant.recorder.offHeap.slabBytes", "8");
+        final MetricsRegistry registry = new MetricsRegistry("TenantD", "Test", "test.beeinstant.com", properties);
+        try {
+            final InMemoryExporter exporter = new InMemoryExporter();
+            registry.addExporter(exporter);
+            for (int i = 1; i <= 3; i++) {
+                registry.getMetricsLogger("api=Upload").record("Size", i, Unit.BYTE);
+            }
+            registry.flushAll(9999);
+            final Map<String, Map<String, String>> metrics = new HashMap<>();
+            exporter.awaitRecords(2, 5000).forEach(record -> metrics.put(record.getDimensionsString(), record.getMetrics()));
+            Assert.assertEquals("1.0+2.0b", metrics.get("d.api=Upload,d.env=Test,d.service=TenantD").get("Size"));
+            Assert.assertEquals("1", metrics.get("d.env=Test,d.service=TenantD").get("DroppedRecorderSamples"));
+            // other registries keep samples on the heap
+            Assert.assertNull(registryA.getMetricsConfig().getOffHeapSamplePool());
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    public void testRegisterMBeansPerRegistry() throws Exception {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName configA = new ObjectName("com.beeinstant.metrics:type=Config,registry=\"a\"");
+        final ObjectName selfMetricsB = new ObjectName("com.beeinstant.metrics:type=SelfMetrics,registry=\"b\"");
+        Assert.assertTrue(mBeanServer.isRegistered(configA));
+        Assert.assertTrue(mBeanServer.isRegistered(selfMetricsB));
+        registryA.shutdown();
+        Assert.assertFalse(mBeanServer.isRegistered(configA));
+        Assert.assertTrue(mBeanServer.isRegistered(selfMetricsB));
+    }
+
+    @Test
+    public void testShutdownRegistry() {
+        registryA.shutdown();
+        Assert.assertTrue(registryA.getMetricsLogger("api=Upload") instanceof DummyLogger);
+        Assert.assertEquals("", registryA.getServiceName());
+        Assert.assertFalse(registryB.getMetricsLogger("api=Upload") instanceof DummyLogger);
+        Assert.assertEquals("TenantB", registryB.getServiceName());
+    }
+
+    @Test
+    public void testShutdownWithScheduledFlushes() throws Exception {
+        try (UdpReceiver receiver = new UdpReceiver()) {
+            final Properties properties = new Properties();
+            properties.setProperty("beeinstant.endpoint", "udp://127.0.0.1:" + receiver.getAddress().getPort());
+            properties.setProperty("beeinstant.flush.manual", "false");
+            // the next flush is scheduled a minute from now
+            properties.setProperty("beeinstant.flush.interval", "60");
+            properties.setProperty("beeinstant.flush.startDelay", "60");
+            final MetricsRegistry registry = new MetricsRegistry("TenantC", "Test", "test.beeinstant.com", properties);
+            registry.getMetricsLogger("api=Upload").incCounter("NumOfRequests", 1);
+            final long start = System.currentTimeMillis();
+            registry.shutdown(3000);
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+            Assert.assertEquals(Collections.singletonList("d.api=Upload,d.env=Test,d.service=TenantC,m.NumOfRequests=1"),
+                    receiver.receiveLines(1, 5000));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidServiceName() {
+        new MetricsRegistry("Invalid Name", "Test", "test.beeinstant.com", new Properties());
+    }
+
+    private static MetricsRegistry newRegistry(final String serviceName, final String name) {
+        final Properties properties = new Properties();
+        properties.setProperty("beeinstant.registry.name", name);
+        properties.setProperty("beeinstant.flush.manual", "true");
+        return new MetricsRegistry(serviceName, "Test", "test.beeinstant.com", properties);
+    }
+}
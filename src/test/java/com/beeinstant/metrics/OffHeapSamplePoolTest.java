@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class OffHeapSamplePoolTest {
+
+    @Test
+    public void testReuseSlabsWithinBudget() {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(20, 32);
+        final ByteBuffer first = pool.acquire(pool.getFirstSlabBytes());
+        Assert.assertTrue(first.isDirect());
+        // rounded down to whole samples
+        Assert.assertEquals(16, first.capacity());
+        first.putDouble(1.0);
+        Assert.assertNotNull(pool.acquire(16));
+        Assert.assertNull(pool.acquire(16));
+        pool.release(first);
+        final ByteBuffer reused = pool.acquire(16);
+        Assert.assertSame(first, reused);
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(32, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void testGrowSlabs() {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(1000, 1 << 20);
+        Assert.assertEquals(256, pool.getFirstSlabBytes());
+        Assert.assertEquals(512, pool.getNextSlabBytes(256));
+        Assert.assertEquals(1000, pool.getNextSlabBytes(512));
+        Assert.assertEquals(1000, pool.getNextSlabBytes(1000));
+    }
+
+    @Test
+    public void testFallBackToSmallerSlabs() {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(1024, 1024 + 256);
+        Assert.assertEquals(1024, pool.acquire(1024).capacity());
+        // no room left for another large slab
+        Assert.assertEquals(256, pool.acquire(1024).capacity());
+        Assert.assertNull(pool.acquire(256));
+    }
+
+    @Test
+    public void testTakeLargerFreeSlabs() {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(1024, 1024);
+        pool.release(pool.acquire(1024));
+        // the budget is used up by the free slab
+        Assert.assertEquals(1024, pool.acquire(256).capacity());
+    }
+
+    @Test
+    public void testSmallSlabsFirst() {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(65536, 1 << 20);
+        final OffHeapSamples samples = new OffHeapSamples(pool);
+        for (int i = 0; i < 100; i++) {
+            samples.add(i);
+        }
+        // 32 + 64 + 128 samples
+        Assert.assertEquals(256 + 512 + 1024, pool.getAllocatedBytes());
+        final List<Double> drained = new ArrayList<>();
+        samples.drain(drained::add);
+        Assert.assertEquals(100, drained.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, drained.get(i), 0.0);
+        }
+        Assert.assertEquals(3, pool.getFreeSlabs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlabTooSmall() {
+        new OffHeapSamplePool(4, 1024);
+    }
+
+    @Test
+    public void testConcurrentRecorders() throws InterruptedException {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(64, 1 << 20);
+        final OffHeapSamples samples = new OffHeapSamples(pool);
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    samples.add(1.0);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        final List<Double> drained = new ArrayList<>();
+        samples.drain(drained::add);
+        Assert.assertEquals(4000, drained.size());
+        Assert.assertEquals(0, pool.takeDroppedSamples());
+        Assert.assertEquals(pool.getAllocatedBytes() / 64, pool.getFreeSlabs());
+    }
+
+    @Test
+    public void testDrainWhileAdding() throws InterruptedException {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(1024, 1 << 16);
+        final OffHeapSamples samples = new OffHeapSamples(pool);
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    samples.add(1.0);
+                }
+                done.countDown();
+            }).start();
+        }
+        final long[] drained = new long[1];
+        while (done.getCount() > 0) {
+            samples.drain(value -> drained[0] += value);
+        }
+        samples.drain(value -> drained[0] += value);
+        // samples are either drained or dropped when the drains don't keep up with the budget
+        Assert.assertEquals(400000, drained[0] + pool.takeDroppedSamples());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadTest {
+
+    @Test
+    public void testSignLinesIncrementally() throws Exception {
+        final Payload payload = new Payload(Signature.getMac("SecretKey"), 4);
+        payload.appendLine("d.api=Upload,m.NumOfRequests=1");
+        payload.appendLine("d.api=Download,m.NumOfRequests=2");
+        payload.sign();
+        final String body = "d.api=Upload,m.NumOfRequests=1\nd.api=Download,m.NumOfRequests=2\n";
+        Assert.assertEquals(body, payload.toString());
+        Assert.assertEquals(body.length(), payload.length());
+        Assert.assertEquals(new String(Signature.sign(body.getBytes(), "SecretKey")), payload.getSignature());
+        Assert.assertEquals(body, EntityUtils.toString(payload.toEntity()));
+        Assert.assertEquals("text/plain", payload.toEntity().getContentType().getValue());
+    }
+
+    @Test
+    public void testSignRawBody() throws Exception {
+        final String body = "d.api=Upload,m.NumOfRequests=1\n";
+        final Payload payload = new Payload(Signature.getMac("SecretKey"), body.length());
+        payload.append(body);
+        payload.sign();
+        Assert.assertEquals(new String(Signature.sign(body.getBytes(), "SecretKey")), payload.getSignature());
+    }
+
+    @Test
+    public void testUnsignedPayload() {
+        final Payload payload = new Payload(null, 0);
+        Assert.assertTrue(payload.isEmpty());
+        payload.appendLine("m.NumOfRequests=1");
+        payload.sign();
+        Assert.assertFalse(payload.isEmpty());
+        Assert.assertEquals("", payload.getSignature());
+    }
+}
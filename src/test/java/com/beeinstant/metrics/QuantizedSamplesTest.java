@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class QuantizedSamplesTest {
+
+    @Test
+    public void testCountDistinctValues() {
+        final QuantizedSamples samples = new QuantizedSamples(1.0);
+        for (int i = 0; i < 1000; i++) {
+            samples.add(3.0, 1);
+            samples.add(i % 2 == 0 ? 3.9 : 4.2, 1);
+        }
+        samples.add(-0.2, 2);
+        Assert.assertEquals("0.0*2,3.0*1000,4.0*1000", drain(samples));
+        Assert.assertEquals("", drain(samples));
+    }
+
+    @Test
+    public void testDecimalPrecision() {
+        final QuantizedSamples samples = new QuantizedSamples(0.1);
+        samples.add(0.31, 1);
+        samples.add(0.29, 1);
+        samples.add(12.345, 3);
+        Assert.assertEquals("0.3*2,12.3*3", drain(samples));
+    }
+
+    @Test
+    public void testManyDistinctValues() {
+        final QuantizedSamples samples = new QuantizedSamples(1.0);
+        for (int i = 999; i >= 0; i--) {
+            samples.add(i, i + 1);
+        }
+        final List<double[]> drained = new ArrayList<>();
+        samples.drain((value, count) -> drained.add(new double[] {value, count}));
+        Assert.assertEquals(1000, drained.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, drained.get(i)[0], 0.0);
+            Assert.assertEquals(i + 1, drained.get(i)[1], 0.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrecision() {
+        new QuantizedSamples(0);
+    }
+
+    private static String drain(final QuantizedSamples samples) {
+        final StringBuilder builder = new StringBuilder();
+        samples.drain((value, count) -> builder.append(builder.length() > 0 ? "," : "").append(value).append('*').append(count));
+        return builder.toString();
+    }
+}
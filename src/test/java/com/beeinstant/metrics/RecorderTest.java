@@ -23,7 +23,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class RecorderTest {
@@ -88,6 +90,110 @@ public class RecorderTest {
         Assert.assertTrue("Some data are still left after being flushed", recorder2.flushToString().isEmpty());
     }
 
+    @Test
+    public void testOffHeapRecorder() {
+        // 2 samples per slab, 3 slabs
+        final OffHeapSamplePool pool = new OffHeapSamplePool(16, 48);
+        final Recorder recorder = new Recorder(Unit.MILLI_SECOND, pool, 0, false);
+        for (int i = 1; i <= 7; i++) {
+            recorder.record(i, Unit.MILLI_SECOND);
+        }
+        recorder.record(-1, Unit.MILLI_SECOND);
+        Assert.assertEquals(48, pool.getAllocatedBytes());
+        Assert.assertEquals(2, pool.takeDroppedSamples());
+        Assert.assertEquals("1.0+2.0+3.0+4.0+5.0+6.0ms", recorder.flushToString());
+        Assert.assertTrue("Some data are still left after being flushed", recorder.flushToString().isEmpty());
+        Assert.assertEquals(3, pool.getFreeSlabs());
+    }
+
+    @Test
+    public void testMergeOffHeapRecorder() {
+        final OffHeapSamplePool pool = new OffHeapSamplePool(16, 1024);
+        final Recorder recorder = new Recorder(Unit.MILLI_SECOND, pool, 0, false);
+        final Recorder recorder2 = new Recorder(Unit.MILLI_SECOND, pool, 0, false);
+        recorder.record(200, Unit.MILLI_SECOND);
+        recorder2.record(100, Unit.MILLI_SECOND);
+        recorder2.record(0, Unit.MILLI_SECOND);
+        recorder.merge(recorder2);
+        Assert.assertEquals("200.0+100.0+0.0ms", recorder.flushToString());
+        Assert.assertTrue("Some data are still left after being flushed", recorder2.flushToString().isEmpty());
+    }
+
+    @Test
+    public void testQuantizedRecorder() {
+        final Recorder recorder = new Recorder(Unit.MILLI_SECOND, null, 1.0, false);
+        recorder.record(4.2, Unit.MILLI_SECOND);
+        recorder.record(3.0, Unit.MILLI_SECOND);
+        recorder.record(2.8, Unit.MILLI_SECOND);
+        recorder.record(3.0, Unit.SECOND);
+        Assert.assertEquals("3.0+3.0+4.0ms", recorder.flushToString());
+        Assert.assertTrue("Some data are still left after being flushed", recorder.flushToString().isEmpty());
+    }
+
+    @Test
+    public void testCollapseDuplicates() {
+        final Recorder recorder = new Recorder(Unit.MILLI_SECOND, null, 1.0, true);
+        for (int i = 0; i < 1000; i++) {
+            recorder.record(3.0, Unit.MILLI_SECOND);
+        }
+        recorder.record(12.0, Unit.MILLI_SECOND);
+        Assert.assertEquals("3.0*1000+12.0ms", recorder.flushToString());
+        final Recorder onHeap = new Recorder(Unit.MILLI_SECOND, null, 0, true);
+        onHeap.record(3.0, Unit.MILLI_SECOND);
+        onHeap.record(3.0, Unit.MILLI_SECOND);
+        Assert.assertEquals("3.0+3.0ms", onHeap.flushToString());
+    }
+
+    @Test
+    public void testDecodeRoundTrip() {
+        final Recorder recorder = new Recorder(Unit.MILLI_SECOND, null, 0.5, true);
+        final List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            final double value = (i * 7919 % 100) / 4.0;
+            values.add(value);
+            recorder.record(value, Unit.MILLI_SECOND);
+        }
+        final String serialized = recorder.flushToString();
+        Assert.assertTrue(serialized.endsWith("ms"));
+        final List<Double> decoded = new ArrayList<>();
+        Recorder.decode(serialized.substring(0, serialized.length() - 2), (value, count) -> {
+            for (long i = 0; i < count; i++) {
+                decoded.add(value);
+            }
+        });
+        final List<Double> expected = new ArrayList<>();
+        values.forEach(value -> expected.add(Math.round(value / 0.5) * 0.5));
+        Collections.sort(expected);
+        Assert.assertEquals(expected, decoded);
+    }
+
+    @Test
+    public void testAppendExpanded() {
+        final StringBuilder builder = new StringBuilder();
+        Recorder.appendExpanded(builder, "1.0+3.0*3+4.0*2ms");
+        Assert.assertEquals("1.0+3.0+3.0+3.0+4.0+4.0ms", builder.toString());
+        builder.setLength(0);
+        Recorder.appendExpanded(builder, "1.0E10+2.0kb");
+        Assert.assertEquals("1.0E10+2.0kb", builder.toString());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testDecodeInvalidCount() {
+        Recorder.decode("1.0*0", (value, count) -> { });
+    }
+
+    @Test
+    public void testMergeQuantizedRecorder() {
+        final Recorder recorder = new Recorder(Unit.MILLI_SECOND, null, 1.0, true);
+        final Recorder recorder2 = new Recorder(Unit.MILLI_SECOND);
+        recorder.record(3.0, Unit.MILLI_SECOND);
+        recorder2.record(3.1, Unit.MILLI_SECOND);
+        recorder2.record(7.0, Unit.MILLI_SECOND);
+        recorder.merge(recorder2);
+        Assert.assertEquals("3.0*2+7.0ms", recorder.flushToString());
+        Assert.assertTrue("Some data are still left after being flushed", recorder2.flushToString().isEmpty());
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testThrowUnsupportedOperationForCounter() {
         this.recorder.incCounter(1);
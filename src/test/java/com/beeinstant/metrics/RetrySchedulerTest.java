@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+public class RetrySchedulerTest {
+
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> givenUp = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testRetryUntilSuccess() throws InterruptedException {
+        final Queue<RetryScheduler.Result> results = new ConcurrentLinkedQueue<>();
+        results.add(RetryScheduler.Result.RETRY);
+        results.add(RetryScheduler.Result.DONE);
+        final CountDownLatch done = new CountDownLatch(2);
+        // hold the first attempt back until the payload is checked as pending
+        final CountDownLatch checked = new CountDownLatch(1);
+        final RetryScheduler retryScheduler = newRetryScheduler(payload -> {
+            awaitQuietly(checked);
+            done.countDown();
+            return results.poll();
+        }, 5, 1024);
+        retryScheduler.retry("line1\n", RetryScheduler.Result.RETRY);
+        Assert.assertFalse(retryScheduler.isIdle());
+        Assert.assertEquals(6, retryScheduler.bytes());
+        checked.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitIdle(retryScheduler);
+        Assert.assertEquals(0, retryScheduler.bytes());
+        Assert.assertTrue(givenUp.isEmpty());
+    }
+
+    @Test
+    public void testGiveUpAfterMaxAttempts() throws InterruptedException {
+        final RetryScheduler retryScheduler = newRetryScheduler(payload -> RetryScheduler.Result.RETRY, 3, 1024);
+        retryScheduler.retry("line1\n", RetryScheduler.Result.RETRY);
+        awaitIdle(retryScheduler);
+        Assert.assertEquals(1, givenUp.size());
+        Assert.assertEquals("line1\n", givenUp.get(0));
+    }
+
+    @Test
+    public void testGiveUpWhenBufferIsFull() {
+        final RetryScheduler retryScheduler = newRetryScheduler(payload -> RetryScheduler.Result.DONE, 3, 8);
+        retryScheduler.retry("line1\n", RetryScheduler.Result.retryAfter(60000));
+        retryScheduler.retry("line2\n", RetryScheduler.Result.retryAfter(60000));
+        Assert.assertEquals(6, retryScheduler.bytes());
+        Assert.assertEquals(1, givenUp.size());
+        Assert.assertEquals("line2\n", givenUp.get(0));
+    }
+
+    @Test
+    public void testGiveUpPending() {
+        final RetryScheduler retryScheduler = newRetryScheduler(payload -> RetryScheduler.Result.DONE, 3, 1024);
+        retryScheduler.retry("line1\n", RetryScheduler.Result.retryAfter(60000));
+        retryScheduler.giveUpPending();
+        Assert.assertTrue(retryScheduler.isIdle());
+        Assert.assertEquals(0, retryScheduler.bytes());
+        Assert.assertEquals(1, givenUp.size());
+        Assert.assertEquals("line1\n", givenUp.get(0));
+    }
+
+    @Test
+    public void testBackoffIsBoundedAndJittered() {
+        final RetryScheduler retryScheduler = newRetryScheduler(payload -> RetryScheduler.Result.DONE, 10, 1024);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(retryScheduler.nextDelayMillis(1, RetryScheduler.Result.RETRY) < 1);
+            Assert.assertTrue(retryScheduler.nextDelayMillis(3, RetryScheduler.Result.RETRY) < 4);
+            Assert.assertTrue(retryScheduler.nextDelayMillis(10, RetryScheduler.Result.RETRY) < 10);
+        }
+    }
+
+    @Test
+    public void testRespectRetryAfter() {
+        final RetryScheduler retryScheduler = newRetryScheduler(payload -> RetryScheduler.Result.DONE, 10, 1024);
+        for (int i = 0; i < 100; i++) {
+            final long delay = retryScheduler.nextDelayMillis(1, RetryScheduler.Result.retryAfter(5000));
+            Assert.assertTrue(delay >= 5000 && delay < 5001);
+        }
+        Assert.assertSame(RetryScheduler.Result.RETRY, RetryScheduler.Result.retryAfter(0));
+    }
+
+    private RetryScheduler newRetryScheduler(final Function<String, RetryScheduler.Result> upload,
+                                             final int maxAttempts,
+                                             final long maxBytes) {
+        // 1ms base delay, 10ms max delay to keep tests fast
+        return new RetryScheduler(executorService, upload, givenUp::add, maxAttempts, 1, 10, maxBytes);
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitIdle(final RetryScheduler retryScheduler) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!retryScheduler.isIdle() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(retryScheduler.isIdle());
+    }
+}
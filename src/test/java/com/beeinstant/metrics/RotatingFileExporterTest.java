@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class RotatingFileExporterTest {
+
+    // two lines "d.api=A,m.Count=1\n" per segment
+    private static final int SEGMENT_BYTES = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRotateSegments() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final RotatingFileExporter exporter = new RotatingFileExporter(directory, SEGMENT_BYTES, 1000, 0);
+        exporter.export(Arrays.asList(ExporterSinkTest.record("api=A"), ExporterSinkTest.record("api=B"),
+                ExporterSinkTest.record("api=C")));
+        exporter.export(Collections.singletonList(ExporterSinkTest.record("api=D")));
+        exporter.export(Collections.singletonList(ExporterSinkTest.record("api=E")));
+        exporter.close();
+        Assert.assertEquals(3, exporter.getSegments().size());
+        Assert.assertEquals(Arrays.asList("d.api=A,m.Count=1", "d.api=B,m.Count=1", "d.api=C,m.Count=1",
+                "d.api=D,m.Count=1", "d.api=E,m.Count=1"), readLines(exporter.getSegments()));
+    }
+
+    @Test
+    public void testDeleteOldestSegmentsBeyondMaxBytes() throws Exception {
+        final RotatingFileExporter exporter = new RotatingFileExporter(folder.getRoot().toPath(), SEGMENT_BYTES, 2 * SEGMENT_BYTES, 0);
+        for (final String dimensions : Arrays.asList("api=A", "api=B", "api=C", "api=D", "api=E", "api=F", "api=G")) {
+            exporter.export(Collections.singletonList(ExporterSinkTest.record(dimensions)));
+        }
+        exporter.close();
+        Assert.assertEquals(Arrays.asList("d.api=E,m.Count=1", "d.api=F,m.Count=1", "d.api=G,m.Count=1"),
+                readLines(exporter.getSegments()));
+        Assert.assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testDeleteSegmentsOlderThanMaxAge() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        RotatingFileExporter exporter = new RotatingFileExporter(directory, SEGMENT_BYTES, 1000, 60000);
+        exporter.export(Collections.singletonList(ExporterSinkTest.record("api=A")));
+        exporter.close();
+        final File oldSegment = exporter.getSegments().get(0);
+        Assert.assertTrue(oldSegment.setLastModified(System.currentTimeMillis() - 120000));
+        exporter = new RotatingFileExporter(directory, SEGMENT_BYTES, 1000, 60000);
+        exporter.export(Collections.singletonList(ExporterSinkTest.record("api=B")));
+        exporter.close();
+        Assert.assertFalse(oldSegment.exists());
+        Assert.assertEquals(Collections.singletonList("d.api=B,m.Count=1"), readLines(exporter.getSegments()));
+    }
+
+    @Test
+    public void testTrimSegmentOfDeadProcess() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final byte[] padded = new byte[SEGMENT_BYTES];
+        final byte[] line = "d.api=A,m.Count=1\n".getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(line, 0, padded, 0, line.length);
+        Files.write(directory.resolve("metrics-00000000000000000007.log"), padded);
+        final RotatingFileExporter exporter = new RotatingFileExporter(directory, SEGMENT_BYTES, 1000, 0);
+        exporter.export(Collections.singletonList(ExporterSinkTest.record("api=B")));
+        exporter.close();
+        Assert.assertEquals(Arrays.asList("metrics-00000000000000000007.log", "metrics-00000000000000000008.log"),
+                Arrays.asList(exporter.getSegments().stream().map(File::getName).toArray()));
+        Assert.assertEquals(Arrays.asList("d.api=A,m.Count=1", "d.api=B,m.Count=1"), readLines(exporter.getSegments()));
+    }
+
+    @Test
+    public void testDropTooLongLine() throws Exception {
+        final RotatingFileExporter exporter = new RotatingFileExporter(folder.getRoot().toPath(), 10, 1000, 0);
+        exporter.export(Collections.singletonList(ExporterSinkTest.record("api=A")));
+        exporter.close();
+        Assert.assertEquals(Collections.emptyList(), readLines(exporter.getSegments()));
+    }
+
+    private static List<String> readLines(final List<File> segments) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        for (final File segment : segments) {
+            lines.addAll(Files.readAllLines(segment.toPath(), StandardCharsets.ISO_8859_1));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class SelfMetricsTest {
+
+    @Test
+    public void testCountersAndGauges() {
+        final SelfMetrics selfMetrics = new SelfMetrics();
+        selfMetrics.recordUpload(2000000, false);
+        selfMetrics.recordUpload(3000000, true);
+        selfMetrics.recordHttpStatus(200);
+        selfMetrics.recordHttpStatus(429);
+        selfMetrics.recordHttpStatus(503);
+        selfMetrics.recordPayload(3, 120);
+        selfMetrics.setGauges(() -> 7, () -> 70, () -> 0, () -> 0);
+        Assert.assertEquals(2, selfMetrics.getUploads());
+        Assert.assertEquals(5, selfMetrics.getUploadMillis());
+        Assert.assertEquals(1, selfMetrics.getFailedUploads());
+        Assert.assertEquals(1, selfMetrics.getHttp2xxResponses());
+        Assert.assertEquals(1, selfMetrics.getHttp4xxResponses());
+        Assert.assertEquals(1, selfMetrics.getHttp5xxResponses());
+        Assert.assertEquals(3, selfMetrics.getFlushedLines());
+        Assert.assertEquals(120, selfMetrics.getFlushedBytes());
+        Assert.assertEquals(7, selfMetrics.getQueueLines());
+        Assert.assertEquals(70, selfMetrics.getQueueBytes());
+    }
+
+    @Test
+    public void testEmitIncreasesSinceLastEmit() {
+        final SelfMetrics selfMetrics = new SelfMetrics();
+        selfMetrics.recordRetry();
+        selfMetrics.recordRetry();
+        Map<String, String> metrics = emit(selfMetrics);
+        Assert.assertEquals("2", metrics.get("beeinstant.Retries"));
+        Assert.assertEquals("0.0", metrics.get("beeinstant.QueueLines"));
+        selfMetrics.recordRetry();
+        metrics = emit(selfMetrics);
+        Assert.assertEquals("1", metrics.get("beeinstant.Retries"));
+        metrics = emit(selfMetrics);
+        Assert.assertNull(metrics.get("beeinstant.Retries"));
+    }
+
+    @Test
+    public void testEmitUploads() {
+        final SelfMetrics selfMetrics = new SelfMetrics();
+        selfMetrics.recordUpload(2000000, false);
+        selfMetrics.recordUpload(2100000, false);
+        selfMetrics.recordUpload(30000000, true);
+        selfMetrics.recordHttpStatus(200);
+        selfMetrics.recordHttpStatus(204);
+        selfMetrics.recordHttpStatus(429);
+        selfMetrics.recordHttpStatus(503);
+        Map<String, String> metrics = emit(selfMetrics);
+        Assert.assertEquals("3", metrics.get("beeinstant.Uploads"));
+        Assert.assertEquals("1", metrics.get("beeinstant.FailedUploads"));
+        Assert.assertEquals("2", metrics.get("beeinstant.Http2xxResponses"));
+        Assert.assertEquals("1", metrics.get("beeinstant.Http4xxResponses"));
+        Assert.assertEquals("1", metrics.get("beeinstant.Http5xxResponses"));
+        Assert.assertEquals("2.0+2.0+30.0ms", metrics.get("beeinstant.UploadLatency"));
+        metrics = emit(selfMetrics);
+        Assert.assertNull(metrics.get("beeinstant.Http2xxResponses"));
+        Assert.assertNull(metrics.get("beeinstant.UploadLatency"));
+    }
+
+    @Test
+    public void testExposedOverJmx() throws Exception {
+        final SelfMetrics selfMetrics = new SelfMetrics();
+        selfMetrics.recordSpooled(42);
+        selfMetrics.registerMBean("");
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(42L, mBeanServer.getAttribute(new ObjectName("com.beeinstant.metrics:type=SelfMetrics"), "SpooledBytes"));
+        } finally {
+            selfMetrics.unregisterMBean();
+        }
+    }
+
+    private static Map<String, String> emit(final SelfMetrics selfMetrics) {
+        final MetricsLogger metricsLogger = new MetricsLogger("service=Test");
+        selfMetrics.emitTo(metricsLogger);
+        final List<MetricRecord> records = new ArrayList<>();
+        metricsLogger.flushToRecords(records::add);
+        return records.get(0).getMetrics();
+    }
+}
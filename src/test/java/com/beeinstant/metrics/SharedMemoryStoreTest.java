@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class SharedMemoryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCountersAreSharedByStores() throws Exception {
+        final File file = folder.newFile();
+        final SharedMemoryStore reader = new SharedMemoryStore(file, 64, 1024);
+        final SharedMemoryStore writer = new SharedMemoryStore(file, 64, 1024);
+        reader.incCounter("d.api=Upload", "NumOfRequests", 1);
+        writer.incCounter("d.api=Upload", "NumOfRequests", 2);
+        writer.incCounter("d.api=Upload", "NumOfErrors", 1);
+        writer.incCounter("d.api=Download", "NumOfRequests", 5);
+        Assert.assertEquals(Arrays.asList("d.api=Download,m.NumOfRequests=5", "d.api=Upload,m.NumOfErrors=1,m.NumOfRequests=3"),
+                drainSorted(reader));
+        Assert.assertEquals(Collections.emptyList(), drainSorted(reader));
+        writer.incCounter("d.api=Upload", "NumOfRequests", 4);
+        Assert.assertEquals(Collections.singletonList("d.api=Upload,m.NumOfRequests=4"), drainSorted(reader));
+        writer.close();
+        reader.close();
+    }
+
+    @Test
+    public void testWritesAreInTheFileWithoutPublishing() throws Exception {
+        final File file = folder.newFile();
+        final SharedMemoryStore writer = new SharedMemoryStore(file, 64, 1024);
+        writer.incCounter("d.api=Upload", "NumOfRequests", 2);
+        writer.record("d.api=Upload", "Latency", 100, Unit.MILLI_SECOND);
+        // neither published nor closed, as if the writer had been killed
+        final SharedMemoryStore reader = new SharedMemoryStore(file, 64, 1024);
+        Assert.assertEquals(Collections.singletonList("d.api=Upload,m.Latency=98.7ms,m.NumOfRequests=2"), drainSorted(reader));
+        reader.close();
+        writer.close();
+    }
+
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        final File file = folder.newFile();
+        final SharedMemoryStore store = new SharedMemoryStore(file, 64, 1024);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final SharedMemoryStore writer = new SharedMemoryStore(file, 64, 1024);
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    writer.incCounter("d.api=Upload", "NumOfRequests", 1);
+                }
+                writer.close();
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(Collections.singletonList("d.api=Upload,m.NumOfRequests=40000"), drainSorted(store));
+        store.close();
+    }
+
+    @Test
+    public void testHistograms() throws Exception {
+        final SharedMemoryStore store = new SharedMemoryStore(folder.newFile(), 64, 1024);
+        store.record("d.api=Upload", "Latency", 100, Unit.MILLI_SECOND);
+        store.record("d.api=Upload", "Latency", 99, Unit.MILLI_SECOND);
+        store.record("d.api=Upload", "Latency", 0, Unit.MILLI_SECOND);
+        store.record("d.api=Upload", "Latency", 100, Unit.SECOND);
+        Assert.assertEquals(Collections.singletonList("d.api=Upload,m.Latency=0.0+98.7+98.7ms"), drainSorted(store));
+        store.close();
+    }
+
+    @Test
+    public void testBucketPrecision() {
+        for (double value = 0.1; value < 1e8; value *= 1.07) {
+            final double bucketValue = SharedMemoryStore.valueOf(SharedMemoryStore.bucketOf(value));
+            Assert.assertEquals(1.0, bucketValue / value, 0.1);
+        }
+    }
+
+    @Test
+    public void testOnlyOneReader() throws Exception {
+        final File file = folder.newFile();
+        final SharedMemoryStore first = new SharedMemoryStore(file, 64, 1024);
+        final SharedMemoryStore second = new SharedMemoryStore(file, 64, 1024);
+        Assert.assertTrue(first.tryBecomeReader());
+        Assert.assertTrue(first.tryBecomeReader());
+        Assert.assertFalse(second.tryBecomeReader());
+        first.close();
+        Assert.assertTrue(second.tryBecomeReader());
+        second.close();
+    }
+
+    @Test
+    public void testFullStoreKeepsNewMetricsPending() throws Exception {
+        final SharedMemoryStore store = new SharedMemoryStore(folder.newFile(), 2, 1024);
+        store.incCounter("d.api=A", "Count", 1);
+        store.incCounter("d.api=B", "Count", 1);
+        Assert.assertEquals(Arrays.asList("d.api=A,m.Count=1", "d.api=B,m.Count=1"), drainSorted(store));
+        store.incCounter("d.api=C", "Count", 1);
+        store.incCounter("d.api=A", "Count", 1);
+        Assert.assertEquals(Collections.singletonList("d.api=A,m.Count=1"), drainSorted(store));
+        Assert.assertEquals(Collections.emptyList(), drainSorted(store));
+        store.close();
+    }
+
+    @Test
+    public void testReclaimIdleSlots() throws Exception {
+        final File file = folder.newFile();
+        final SharedMemoryStore store = new SharedMemoryStore(file, 2, 1024);
+        store.incCounter("d.api=A", "Count", 1);
+        store.incCounter("d.api=B", "Count", 1);
+        Assert.assertEquals(Arrays.asList("d.api=A,m.Count=1", "d.api=B,m.Count=1"), drainSorted(store));
+        for (int i = 0; i < SharedMemoryStore.IDLE_DRAINS - 1; i++) {
+            store.incCounter("d.api=B", "Count", 1);
+            drainSorted(store);
+        }
+        // C waits for the slot of A, which is freed by this drain
+        store.incCounter("d.api=C", "Count", 2);
+        store.incCounter("d.api=B", "Count", 1);
+        Assert.assertEquals(Collections.singletonList("d.api=B,m.Count=1"), drainSorted(store));
+        Assert.assertEquals(Collections.singletonList("d.api=C,m.Count=2"), drainSorted(store));
+        store.close();
+        // a process opening the file later frees the slots of B and C
+        final SharedMemoryStore reopened = new SharedMemoryStore(file, 2, 1024);
+        for (int i = 0; i < SharedMemoryStore.IDLE_DRAINS; i++) {
+            Assert.assertEquals(Collections.emptyList(), drainSorted(reopened));
+        }
+        reopened.incCounter("d.api=D", "Count", 1);
+        reopened.incCounter("d.api=E", "Count", 1);
+        Assert.assertEquals(Arrays.asList("d.api=D,m.Count=1", "d.api=E,m.Count=1"), drainSorted(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void testFreeSlotsOfTheSameProbeSequence() throws Exception {
+        final SharedMemoryStore store = new SharedMemoryStore(folder.newFile(), 8, 1024);
+        for (int i = 0; i < 8; i++) {
+            store.incCounter("d.api=A", "Count" + i, 1);
+        }
+        drainSorted(store);
+        // keep every other metric, the others are freed and the kept ones move back in their probe sequence
+        for (int drain = 0; drain < SharedMemoryStore.IDLE_DRAINS; drain++) {
+            for (int i = 0; i < 8; i += 2) {
+                store.incCounter("d.api=A", "Count" + i, 1);
+            }
+            drainSorted(store);
+        }
+        for (int i = 0; i < 8; i++) {
+            store.incCounter("d.api=A", "Count" + i, 1);
+        }
+        Assert.assertEquals(Collections.singletonList("d.api=A,m.Count0=1,m.Count1=1,m.Count2=1,m.Count3=1,m.Count4=1,m.Count5=1,m.Count6=1,m.Count7=1"),
+                drainSortedMetrics(store));
+        store.close();
+    }
+
+    @Test
+    public void testTooLongKeyIsDropped() throws Exception {
+        final SharedMemoryStore store = new SharedMemoryStore(folder.newFile(), 4, 512);
+        final char[] name = new char[512 - "d.api=A ".length()];
+        Arrays.fill(name, 'a');
+        store.incCounter("d.api=A", new String(name), 1);
+        store.incCounter("d.api=A", new String(name) + "a", 1);
+        Assert.assertEquals(Collections.singletonList("d.api=A,m." + new String(name) + "=1"), drainSorted(store));
+        store.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectAnotherLayout() throws Exception {
+        final File file = folder.newFile();
+        new SharedMemoryStore(file, 64, 1024).close();
+        new SharedMemoryStore(file, 64, 512);
+    }
+
+    private static List<String> drainSorted(final SharedMemoryStore store) {
+        final List<MetricRecord> records = new ArrayList<>();
+        store.drain(records::add, false);
+        return records.stream().map(MetricRecord::toString).sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> drainSortedMetrics(final SharedMemoryStore store) {
+        final List<MetricRecord> records = new ArrayList<>();
+        store.drain(records::add, false);
+        return records.stream()
+                .map(record -> record.getDimensionsString() + "," + Arrays.stream(record.getMetricsString().split(",")).sorted().collect(Collectors.joining(",")))
+                .sorted().collect(Collectors.toList());
+    }
+}
@@ -33,4 +33,17 @@ public class SignatureTest {
         Assert.assertEquals("RiiEN2EwRBFNIef615g3wSM2IC9MhQCFSPsiZpNCb1Y=",
                 new String(Signature.sign("Hello".getBytes(), "World")));
     }
+
+    @Test
+    public void testSignatureWithCachedMac()
+            throws NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
+        Assert.assertEquals("RiiEN2EwRBFNIef615g3wSM2IC9MhQCFSPsiZpNCb1Y=",
+                new String(Signature.sign("Hello".getBytes(), "World")));
+        Assert.assertEquals("RiiEN2EwRBFNIef615g3wSM2IC9MhQCFSPsiZpNCb1Y=",
+                new String(Signature.sign("Hello".getBytes(), "World")));
+        Assert.assertNotEquals("RiiEN2EwRBFNIef615g3wSM2IC9MhQCFSPsiZpNCb1Y=",
+                new String(Signature.sign("Hello".getBytes(), "Bee")));
+        Assert.assertEquals("RiiEN2EwRBFNIef615g3wSM2IC9MhQCFSPsiZpNCb1Y=",
+                new String(Signature.sign("Hello".getBytes(), "World")));
+    }
 }
@@ -21,11 +21,43 @@ package com.beeinstant.metrics;
 
 import org.junit.Assert;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 class TestHelper {
 
+    /**
+     * Initialize MetricsManager for service ImageSharing in environment Test, sending to a new UdpReceiver, with
+     * flushes run by the test. Settings given as key/value pairs are set as system properties before, so they can
+     * also turn scheduled flushes back on.
+     *
+     * @return receiver of the uploaded metrics, close it with shutdown
+     */
+    static UdpReceiver initWithUdpReceiver(final String... settings) {
+        final UdpReceiver receiver;
+        try {
+            receiver = new UdpReceiver();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // stop scheduled flush
+        System.setProperty("beeinstant.flush.manual", "true");
+        System.setProperty("beeinstant.endpoint", "udp://127.0.0.1:" + receiver.getAddress().getPort());
+        for (int i = 0; i + 1 < settings.length; i += 2) {
+            System.setProperty(settings[i], settings[i + 1]);
+        }
+        MetricsManager.init("ImageSharing", "Test", "test.beeinstant.com");
+        return receiver;
+    }
+
+    static void shutdown(final UdpReceiver receiver) {
+        MetricsManager.shutdown();
+        receiver.close();
+    }
+
     static void assertRecorderOutput(final List<Double> expectedValues,
                                      final Unit expectedUnit,
                                      final String actualOutput,
@@ -46,4 +78,25 @@ class TestHelper {
             Assert.assertEquals(expectedValues.get(i), actualValues.get(i), epsilon);
         }
     }
+
+    /**
+     * Sort metrics within each metric line, metrics of a collector are not flushed in a particular order. Works on
+     * expected patterns as well, as long as they don't match commas.
+     */
+    static String sortMetrics(final String lines) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String line : lines.split("\n", -1)) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            final String[] pairs = line.split(",");
+            int firstMetric = 0;
+            while (firstMetric < pairs.length && !pairs[firstMetric].startsWith("m.")) {
+                firstMetric++;
+            }
+            Arrays.sort(pairs, firstMetric, pairs.length);
+            builder.append(String.join(",", pairs));
+        }
+        return builder.toString();
+    }
 }
@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class UdpExporterTest {
+
+    private UdpReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new UdpReceiver();
+    }
+
+    @After
+    public void tearDown() {
+        receiver.close();
+    }
+
+    @Test
+    public void testPackLinesIntoDatagrams() throws Exception {
+        // room for two lines per datagram
+        final UdpExporter exporter = new UdpExporter(receiver.getAddress(), 40);
+        exporter.export(Arrays.asList(ExporterSinkTest.record("api=A"), ExporterSinkTest.record("api=B"),
+                ExporterSinkTest.record("api=C")));
+        Assert.assertEquals("d.api=A,m.Count=1\nd.api=B,m.Count=1\n", receiver.receiveDatagram(5000));
+        Assert.assertEquals("d.api=C,m.Count=1\n", receiver.receiveDatagram(5000));
+        // the buffer is reused by the next export
+        exporter.export(Collections.singletonList(ExporterSinkTest.record("api=D")));
+        Assert.assertEquals("d.api=D,m.Count=1\n", receiver.receiveDatagram(5000));
+        exporter.close();
+    }
+
+    @Test
+    public void testDropLineBiggerThanDatagram() throws Exception {
+        final UdpExporter exporter = new UdpExporter(receiver.getAddress(), 20);
+        exporter.export(Arrays.asList(ExporterSinkTest.record("api=TooLongToFit"), ExporterSinkTest.record("api=A")));
+        Assert.assertEquals(Collections.singletonList("d.api=A,m.Count=1"), receiver.receiveLines(1, 5000));
+        Assert.assertEquals(1, exporter.getDroppedLines());
+        exporter.close();
+    }
+
+    @Test
+    public void testNoReceiverDoesNotFail() throws Exception {
+        final UdpExporter exporter = new UdpExporter(receiver.getAddress());
+        receiver.close();
+        for (int i = 0; i < 3; i++) {
+            exporter.export(Collections.singletonList(ExporterSinkTest.record("api=A")));
+        }
+        exporter.close();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 BeeInstant
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED
+ * TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+
+package com.beeinstant.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receive metric lines sent by UdpExporter on a loopback port, a testing utility.
+ */
+class UdpReceiver implements Closeable {
+
+    private final DatagramSocket socket;
+    private final byte[] buffer = new byte[65536];
+
+    /**
+     * Listen on an ephemeral loopback port
+     */
+    UdpReceiver() throws IOException {
+        this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * @return address to send metrics to, e.g. "udp://" + host + ":" + port as beeinstant.endpoint
+     */
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(this.socket.getLocalAddress(), this.socket.getLocalPort());
+    }
+
+    /**
+     * Receive metric lines until some are received or no datagram arrives for a while
+     *
+     * @param count,         number of lines to wait for
+     * @param timeoutMillis, how long to wait for each datagram
+     * @return received lines, maybe fewer than expected on timeout
+     */
+    List<String> receiveLines(final int count, final int timeoutMillis) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        this.socket.setSoTimeout(timeoutMillis);
+        try {
+            while (lines.size() < count) {
+                final DatagramPacket packet = new DatagramPacket(this.buffer, this.buffer.length);
+                this.socket.receive(packet);
+                for (final String line : new String(packet.getData(), 0, packet.getLength(), StandardCharsets.ISO_8859_1).split("\n")) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // return what has been received
+        }
+        return lines;
+    }
+
+    /**
+     * Receive one datagram
+     *
+     * @return content of the datagram, null on timeout
+     */
+    String receiveDatagram(final int timeoutMillis) throws IOException {
+        this.socket.setSoTimeout(timeoutMillis);
+        final DatagramPacket packet = new DatagramPacket(this.buffer, this.buffer.length);
+        try {
+            this.socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() {
+        this.socket.close();
+    }
+}